@@ -0,0 +1,365 @@
+import java.io.*;
+import java.util.*;
+
+// IrCode flattened for the VirtualMachine: one int[] of opcodes followed by their operands, with labels turned
+// into code offsets and the ARGs of a call folded into the CALL. Registers are slots of the function's frame.
+// Two peepholes make loops shorter: a temporary that is only moved into a variable is computed straight into
+// it, and a comparison that only feeds a conditional jump becomes a compare-and-jump.
+public class Bytecode {
+    public static final int NONE = -1;
+
+    // Opcodes; the comment gives the operands that follow
+    public static final int CONST = 0;          // dst, constant
+    public static final int MOVE = 1;           // dst, a
+    public static final int LOAD_FIELD = 2;     // dst, field
+    public static final int STORE_FIELD = 3;    // field, a
+    public static final int ADD = 4;            // dst, a, b for this and the rest up to XOR
+    public static final int SUB = 5;
+    public static final int MUL = 6;
+    public static final int DIV = 7;
+    public static final int FADD = 8;
+    public static final int FSUB = 9;
+    public static final int FMUL = 10;
+    public static final int FDIV = 11;
+    public static final int EQ = 12;
+    public static final int NE = 13;
+    public static final int LT = 14;
+    public static final int LE = 15;
+    public static final int GT = 16;
+    public static final int GE = 17;
+    public static final int FEQ = 18;
+    public static final int FNE = 19;
+    public static final int FLT = 20;
+    public static final int FLE = 21;
+    public static final int FGT = 22;
+    public static final int FGE = 23;
+    public static final int AND = 24;
+    public static final int OR = 25;
+    public static final int XOR = 26;
+    public static final int INT_TO_FLOAT = 27;  // dst, a
+    public static final int JUMP = 28;          // target
+    public static final int JUMP_IF_FALSE = 29; // a, target
+    // Jump to target unless a compares to b; in the order of EQ to FGE
+    public static final int JUMP_UNLESS_EQ = 30; // a, b, target
+    public static final int JUMP_UNLESS_NE = 31;
+    public static final int JUMP_UNLESS_LT = 32;
+    public static final int JUMP_UNLESS_LE = 33;
+    public static final int JUMP_UNLESS_GT = 34;
+    public static final int JUMP_UNLESS_GE = 35;
+    public static final int JUMP_UNLESS_FEQ = 36;
+    public static final int JUMP_UNLESS_FNE = 37;
+    public static final int JUMP_UNLESS_FLT = 38;
+    public static final int JUMP_UNLESS_FLE = 39;
+    public static final int JUMP_UNLESS_FGT = 40;
+    public static final int JUMP_UNLESS_FGE = 41;
+    public static final int CALL = 42;          // dst or NONE, function, argument count, argument registers
+    public static final int RETURN = 43;        // a
+    public static final int RETURN_VOID = 44;
+
+    private static final String[] OP_NAMES = {"CONST", "MOVE", "LOAD_FIELD", "STORE_FIELD", "ADD", "SUB", "MUL",
+            "DIV", "FADD", "FSUB", "FMUL", "FDIV", "EQ", "NE", "LT", "LE", "GT", "GE", "FEQ", "FNE", "FLT", "FLE",
+            "FGT", "FGE", "AND", "OR", "XOR", "INT_TO_FLOAT", "JUMP", "JUMP_IF_FALSE", "JUMP_UNLESS_EQ",
+            "JUMP_UNLESS_NE", "JUMP_UNLESS_LT", "JUMP_UNLESS_LE", "JUMP_UNLESS_GT", "JUMP_UNLESS_GE",
+            "JUMP_UNLESS_FEQ", "JUMP_UNLESS_FNE", "JUMP_UNLESS_FLT", "JUMP_UNLESS_FLE", "JUMP_UNLESS_FGT",
+            "JUMP_UNLESS_FGE", "CALL", "RETURN", "RETURN_VOID"};
+
+    private final IrCode ir;
+    private int[] code = new int[256];
+    private int size;
+    private long[] constants = new long[16];
+    private int constantCount;
+    private final Map<Long, Integer> constantIndexes = new HashMap<>();
+    private final int[] entries;
+    private final int[] ends;
+
+    // Code offset of each IR label in the function being compiled, and the operands still waiting for one
+    private int[] labelOffsets;
+    private int[] fixups = new int[16];
+    private int fixupCount;
+
+    public Bytecode(IrCode ir) {
+        this.ir = ir;
+        entries = new int[ir.functionCount()];
+        ends = new int[ir.functionCount()];
+        labelOffsets = new int[ir.labelCount()];
+        for (int function = 0; function < ir.functionCount(); function++) {
+            entries[function] = ir.functionStart(function) == IrCode.NONE ? NONE : compile(function);
+            ends[function] = entries[function] == NONE ? NONE : size;
+        }
+        code = Arrays.copyOf(code, size);
+        constants = Arrays.copyOf(constants, constantCount);
+    }
+
+    private int compile(int function) {
+        int start = ir.functionStart(function);
+        int end = ir.functionEnd(function);
+        // How often each register is written and read, to know which temporaries the peepholes may drop
+        int[] writes = new int[ir.registerCount(function)];
+        int[] reads = new int[writes.length];
+        for (int i = start; i < end; i++) {
+            countUses(i, writes, reads);
+        }
+
+        int entry = size;
+        fixupCount = 0;
+        for (int i = start; i < end; i++) {
+            int op = ir.op(i);
+            int next = i + 1 < end ? ir.op(i + 1) : IrCode.LABEL;
+            if (writesRegister(op) && next == IrCode.MOVE && singleUse(ir.dst(i), writes, reads)
+                    && ir.a(i + 1) == ir.dst(i)) {
+                instruction(function, i, ir.dst(i + 1));
+                i++;
+            } else if (op >= IrCode.EQ && op <= IrCode.FGE && next == IrCode.JUMP_IF_FALSE
+                    && singleUse(ir.dst(i), writes, reads) && ir.a(i + 1) == ir.dst(i)) {
+                append(JUMP_UNLESS_EQ + op - IrCode.EQ);
+                append(ir.a(i));
+                append(ir.b(i));
+                label(ir.b(i + 1));
+                i++;
+            } else {
+                instruction(function, i, ir.dst(i));
+            }
+        }
+        for (int i = 0; i < fixupCount; i++) {
+            code[fixups[i]] = labelOffsets[code[fixups[i]]];
+        }
+        return entry;
+    }
+
+    // Writes IR instruction i with its result going to dst
+    private void instruction(int function, int i, int dst) {
+        int op = ir.op(i);
+        switch (op) {
+            case IrCode.LABEL:
+                labelOffsets[ir.a(i)] = size;
+                break;
+            case IrCode.CONST:
+                long value = ir.constant(ir.a(i));
+                // Integer registers hold Ity values, so literals are cut to 32 bits like the arithmetic is
+                if (ir.registerType(function, dst) == IrCode.INT) {
+                    value = (int) value;
+                }
+                append(CONST);
+                append(dst);
+                append(constant(value));
+                break;
+            case IrCode.MOVE:
+                if (dst != ir.a(i)) {
+                    append(MOVE);
+                    append(dst);
+                    append(ir.a(i));
+                }
+                break;
+            case IrCode.LOAD_FIELD:
+            case IrCode.INT_TO_FLOAT:
+                append(op == IrCode.LOAD_FIELD ? LOAD_FIELD : INT_TO_FLOAT);
+                append(dst);
+                append(ir.a(i));
+                break;
+            case IrCode.STORE_FIELD:
+                append(STORE_FIELD);
+                append(dst);
+                append(ir.a(i));
+                break;
+            case IrCode.JUMP:
+                append(JUMP);
+                label(ir.a(i));
+                break;
+            case IrCode.JUMP_IF_FALSE:
+                append(JUMP_IF_FALSE);
+                append(ir.a(i));
+                label(ir.b(i));
+                break;
+            case IrCode.ARG:
+                // Taken with the CALL that follows
+                break;
+            case IrCode.CALL:
+                int count = ir.b(i);
+                append(CALL);
+                append(dst);
+                append(ir.a(i));
+                append(count);
+                for (int arg = i - count; arg < i; arg++) {
+                    append(ir.a(arg));
+                }
+                break;
+            case IrCode.RETURN:
+                if (ir.a(i) == IrCode.NONE) {
+                    append(RETURN_VOID);
+                } else {
+                    append(RETURN);
+                    append(ir.a(i));
+                }
+                break;
+            default:
+                // The arithmetic, comparison and logical opcodes keep their IR order
+                append(op < IrCode.INT_TO_FLOAT ? op - 1 : op - 2);
+                append(dst);
+                append(ir.a(i));
+                append(ir.b(i));
+                break;
+        }
+    }
+
+    private void countUses(int i, int[] writes, int[] reads) {
+        int op = ir.op(i);
+        switch (op) {
+            case IrCode.LABEL:
+            case IrCode.JUMP:
+            case IrCode.CONST:
+            case IrCode.LOAD_FIELD:
+                break;
+            case IrCode.STORE_FIELD:
+            case IrCode.JUMP_IF_FALSE:
+            case IrCode.ARG:
+            case IrCode.MOVE:
+            case IrCode.INT_TO_FLOAT:
+                reads[ir.a(i)]++;
+                break;
+            case IrCode.RETURN:
+                if (ir.a(i) != IrCode.NONE) {
+                    reads[ir.a(i)]++;
+                }
+                break;
+            case IrCode.CALL:
+                break;
+            default:
+                reads[ir.a(i)]++;
+                reads[ir.b(i)]++;
+                break;
+        }
+        if (writesRegister(op) && ir.dst(i) != IrCode.NONE) {
+            writes[ir.dst(i)]++;
+        }
+    }
+
+    private static boolean writesRegister(int op) {
+        return op != IrCode.LABEL && op != IrCode.STORE_FIELD && op != IrCode.JUMP && op != IrCode.JUMP_IF_FALSE
+                && op != IrCode.ARG && op != IrCode.RETURN;
+    }
+
+    // A register written by one instruction and read by the next is not needed once the two are merged;
+    // parameters are never written, so they never qualify
+    private static boolean singleUse(int register, int[] writes, int[] reads) {
+        return register != IrCode.NONE && writes[register] == 1 && reads[register] == 1;
+    }
+
+    private void label(int label) {
+        if (fixupCount == fixups.length) {
+            fixups = Arrays.copyOf(fixups, fixupCount * 2);
+        }
+        fixups[fixupCount++] = size;
+        append(label);
+    }
+
+    private int constant(long value) {
+        Integer index = constantIndexes.get(value);
+        if (index != null) {
+            return index;
+        }
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantIndexes.put(value, constantCount);
+        return constantCount++;
+    }
+
+    private void append(int value) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = value;
+    }
+
+    public IrCode getIr() {
+        return ir;
+    }
+
+    // The code array itself, not a copy, for the interpreter loop
+    public int[] code() {
+        return code;
+    }
+
+    public long[] constants() {
+        return constants;
+    }
+
+    public int size() {
+        return code.length;
+    }
+
+    // Code offset a function starts at, or NONE for a method declared without a body
+    public int entry(int function) {
+        return entries[function];
+    }
+
+    // Code offset just past the function's last instruction
+    public int end(int function) {
+        return ends[function];
+    }
+
+    public int functionCount() {
+        return entries.length;
+    }
+
+    public int frameSize(int function) {
+        return ir.registerCount(function);
+    }
+
+    // Number of ints instruction at offset takes, opcode included
+    public int length(int offset) {
+        int op = code[offset];
+        if (op == CALL) return 4 + code[offset + 3];
+        if (op == RETURN_VOID) return 1;
+        if (op == JUMP || op == RETURN) return 2;
+        if (op <= STORE_FIELD || op == INT_TO_FLOAT || op == JUMP_IF_FALSE) return 3;
+        return 4;
+    }
+
+    public static String opName(int op) {
+        return OP_NAMES[op];
+    }
+
+    // Value of a register, field or result as the source language would print it
+    public String format(byte type, long value) {
+        switch (type) {
+            case IrCode.FLOAT:
+                return String.valueOf(Double.longBitsToDouble(value));
+            case IrCode.LOGICAL:
+                return value != 0 ? "true" : "false";
+            case IrCode.STRING:
+                return "\"" + ir.string((int) value) + "\"";
+            case IrCode.VOID:
+                return "nothing";
+            default:
+                return String.valueOf(value);
+        }
+    }
+
+    public String getBytecodeOutput() {
+        StringBuilder output = new StringBuilder();
+        try {
+            writeBytecodeOutput(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
+    }
+
+    // One line per function and instruction, each instruction with its code offset
+    public void writeBytecodeOutput(Appendable out) throws IOException {
+        for (int function = 0; function < entries.length; function++) {
+            out.append("function ").append(ir.functionName(function)).append(" frame ")
+                    .append(String.valueOf(frameSize(function))).append("\n");
+            if (entries[function] == NONE) continue;
+            for (int offset = entries[function]; offset < ends[function]; offset += length(offset)) {
+                out.append(String.format("%6d  ", offset)).append(OP_NAMES[code[offset]]);
+                for (int i = 1; i < length(offset); i++) {
+                    out.append(i == 1 ? " " : ", ").append(String.valueOf(code[offset + i]));
+                }
+                out.append("\n");
+            }
+        }
+    }
+}
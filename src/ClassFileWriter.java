@@ -0,0 +1,153 @@
+import java.io.*;
+import java.util.*;
+
+// Writes a class file with static methods only, enough for the JitCompiler. The class is version 49, which
+// the JVM still verifies by type inference, so methods need no StackMapTable.
+public class ClassFileWriter {
+    private static final int VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int codeName;
+
+    public ClassFileWriter(String name) {
+        thisClass = classRef(name);
+        superClass = classRef("java/lang/Object");
+        codeName = utf8("Code");
+    }
+
+    public int utf8(String value) {
+        return entry("U" + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    public int classRef(String name) {
+        int nameIndex = utf8(name);
+        return entry("C" + name, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+        });
+    }
+
+    public int string(String value) {
+        int valueIndex = utf8(value);
+        return entry("S" + value, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(valueIndex);
+        });
+    }
+
+    public int integer(int value) {
+        return entry("I" + value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    // Takes two pool slots, like every double
+    public int doubleConstant(double value) {
+        return entry("D" + Double.doubleToRawLongBits(value), 2, out -> {
+            out.writeByte(6);
+            out.writeDouble(value);
+        });
+    }
+
+    public int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + ":" + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return entry("M" + owner + "." + name + ":" + descriptor, 1, out -> {
+            out.writeByte(10);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    public void addStaticMethod(String name, String descriptor, byte[] code, int codeLength, int maxStack,
+                                int maxLocals) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        try {
+            methods.writeShort(ACC_PUBLIC | ACC_STATIC);
+            methods.writeShort(nameIndex);
+            methods.writeShort(descriptorIndex);
+            methods.writeShort(1);
+            methods.writeShort(codeName);
+            methods.writeInt(12 + codeLength);
+            methods.writeShort(maxStack);
+            methods.writeShort(maxLocals);
+            methods.writeInt(codeLength);
+            methods.write(code, 0, codeLength);
+            methods.writeShort(0); // exception table
+            methods.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        methodCount++;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface Entry {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, int slots, Entry entry) {
+        Integer index = poolIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        if (poolCount + slots > 0xFFFF) {
+            throw new IllegalStateException("Constant pool is full");
+        }
+        try {
+            entry.writeTo(pool);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndexes.put(key, poolCount);
+        poolCount += slots;
+        return poolCount - slots;
+    }
+}
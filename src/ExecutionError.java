@@ -0,0 +1,8 @@
+// Thrown when a running program does something it cannot go on from, like dividing an integer by zero
+public class ExecutionError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ExecutionError(String message) {
+        super(message);
+    }
+}
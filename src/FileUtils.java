@@ -1,4 +1,7 @@
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.nio.file.*;
 
 public class FileUtils {
@@ -22,6 +25,19 @@ public class FileUtils {
         return Files.readString(file.toPath());
     }
 
+    /**
+     * Maps a file into memory and decodes it as UTF-8 in one pass
+     * @param file The file to map
+     * @return A heap CharBuffer holding the whole content of the file
+     * @throws IOException If an I/O error occurs
+     */
+    public static CharBuffer mapFileToCharBuffer(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return StandardCharsets.UTF_8.decode(mapped);
+        }
+    }
+
     /**
      * Checks if a file exists
      * @param filePath The path to the file
@@ -0,0 +1,96 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Maps Require'd names to real paths and keeps the include graph; one resolver can serve a whole batch of scans
+public class IncludeResolver {
+    // Names found next to the file that requires them, by that directory and name. Nothing can shadow those as
+    // long as they exist, while a name found in the working directory, a search directory or not at all is looked
+    // up again, since the file may appear
+    private final Map<String, String> resolvedNames = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> dependencies = new ConcurrentHashMap<>();
+    private final List<Path> searchDirectories = new ArrayList<>();
+
+    public IncludeResolver(String... searchDirectories) {
+        for (String directory : searchDirectories) {
+            this.searchDirectories.add(Paths.get(directory));
+        }
+    }
+
+    // The name is tried relative to the directory of the including file, then to the working directory, then
+    // in each search directory; includingFile is null for a buffer that has no file yet
+    public String resolve(String name, String includingFile) {
+        Path directory = includingFile == null ? null : Paths.get(includingFile).getParent();
+        if (directory == null) {
+            return lookUp(name);
+        }
+        String key = directory + File.separator + name;
+        String path = resolvedNames.get(key);
+        if (path != null && new File(path).exists()) {
+            return path;
+        }
+        path = realPath(directory.resolve(name));
+        if (path != null) {
+            resolvedNames.put(key, path);
+            return path;
+        }
+        return lookUp(name);
+    }
+
+    private String lookUp(String name) {
+        String path = realPath(Paths.get(name));
+        for (int i = 0; path == null && i < searchDirectories.size(); i++) {
+            path = realPath(searchDirectories.get(i).resolve(name));
+        }
+        return path;
+    }
+
+    // Real path of an existing file, which is the same for every spelling of it
+    public static String realPath(Path path) {
+        try {
+            return path.toRealPath().toString();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void recordIncludes(String file, List<String> includes) {
+        dependencies.put(file, includes);
+    }
+
+    public List<String> getIncludes(String file) {
+        return dependencies.getOrDefault(file, Collections.emptyList());
+    }
+
+    // Every include cycle reachable from the roots, written as a -> b -> a
+    public List<String> findCycles(Collection<String> roots) {
+        List<String> cycles = new ArrayList<>();
+        Set<String> finished = new HashSet<>();
+        for (String root : roots) {
+            findCycles(root, new ArrayList<>(), finished, cycles);
+        }
+        return cycles;
+    }
+
+    private void findCycles(String file, List<String> path, Set<String> finished, List<String> cycles) {
+        int onPath = path.indexOf(file);
+        if (onPath >= 0) {
+            StringBuilder cycle = new StringBuilder();
+            for (int i = onPath; i < path.size(); i++) {
+                cycle.append(path.get(i)).append(" -> ");
+            }
+            cycles.add(cycle.append(file).toString());
+            return;
+        }
+        if (finished.contains(file)) {
+            return;
+        }
+        path.add(file);
+        for (String include : getIncludes(file)) {
+            findCycles(include, path, finished, cycles);
+        }
+        path.remove(path.size() - 1);
+        finished.add(file);
+    }
+}
@@ -0,0 +1,232 @@
+import java.nio.*;
+import java.util.*;
+
+// Keeps the tokens of an editor buffer up to date, re-lexing only the lines an edit can affect
+public class IncrementalLexer {
+    private char[] text;
+    private int length;
+    private final TokenBuffer tokens = new TokenBuffer();
+
+    // Offset of every line start and whether that line starts inside /< ... >/
+    private int[] lineStarts = new int[256];
+    private boolean[] lineInComment = new boolean[256];
+    private int lineCount;
+
+    // Diagnostics and includes in line order, so an edit can swap out the ones on re-lexed lines
+    private final List<String> errors = new ArrayList<>();
+    private final List<Integer> errorLines = new ArrayList<>();
+    private final List<String> includes = new ArrayList<>();
+    private final List<Integer> includeLines = new ArrayList<>();
+
+    public IncrementalLexer(CharSequence initialText) {
+        length = initialText.length();
+        text = new char[Math.max(16, length)];
+        for (int i = 0; i < length; i++) {
+            text[i] = initialText.charAt(i);
+        }
+        tokens.beginSource(text);
+        lineCount = 1;
+        lex(0, 0, 0, false);
+    }
+
+    // Tokens [start, oldEnd) before an edit were replaced by tokens [start, newEnd) after it
+    public static class TokenChange {
+        private final int start;
+        private final int oldEnd;
+        private final int newEnd;
+
+        TokenChange(int start, int oldEnd, int newEnd) {
+            this.start = start;
+            this.oldEnd = oldEnd;
+            this.newEnd = newEnd;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getOldEnd() {
+            return oldEnd;
+        }
+
+        public int getNewEnd() {
+            return newEnd;
+        }
+    }
+
+    public TokenChange edit(int offset, int removedLength, String insertedText) {
+        if (offset < 0 || removedLength < 0 || offset + removedLength > length) {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + removedLength + " outside text of length " + length);
+        }
+        // Start one line early so joining or splitting a \r\n pair is seen from its first half
+        int restartLine = Math.max(0, lineOf(offset) - 1);
+        int delta = insertedText.length() - removedLength;
+        replaceText(offset, removedLength, insertedText);
+        return lex(restartLine, offset + insertedText.length(), delta, lineInComment[restartLine]);
+    }
+
+    // Re-lexes from the start of restartLine until the lexer reaches an old line start past the edit in
+    // the same comment state; everything from there on only moves by delta characters
+    private TokenChange lex(int restartLine, int editEnd, int delta, boolean inComment) {
+        int restartOffset = lineStarts[restartLine];
+        TokenBuffer relexed = new TokenBuffer();
+        relexed.beginSource(text);
+        List<String> newErrors = new ArrayList<>();
+        List<Integer> newErrorLines = new ArrayList<>();
+
+        IntList newLineStarts = new IntList();
+        List<Boolean> newLineInComment = new ArrayList<>();
+        int[] resumeLine = {lineCount};
+
+        Lexer lexer = new Lexer(CharBuffer.wrap(text, 0, length), relexed, (message, line) -> {
+            newErrors.add(message);
+            newErrorLines.add(line);
+        });
+        lexer.tokenize(restartOffset, restartLine + 1, inComment, (lineOffset, lineNumber, lineStartsInComment) -> {
+            if (lineOffset >= editEnd) {
+                int oldLine = findLineStart(lineOffset - delta, restartLine + 1);
+                if (oldLine >= 0 && lineInComment[oldLine] == lineStartsInComment) {
+                    resumeLine[0] = oldLine;
+                    return true;
+                }
+            }
+            newLineStarts.add(lineOffset);
+            newLineInComment.add(lineStartsInComment);
+            return false;
+        });
+
+        // Old tokens are still in pre-edit coordinates, which the resume line start is as well
+        int oldResumeOffset = resumeLine[0] < lineCount ? lineStarts[resumeLine[0]] : Integer.MAX_VALUE;
+        int first = tokens.firstTokenAtOrAfter(restartOffset);
+        int oldEnd = tokens.firstTokenAtOrAfter(oldResumeOffset);
+        int lineDelta = restartLine + 1 + newLineStarts.size() - resumeLine[0];
+        tokens.replace(first, oldEnd, relexed, delta, lineDelta);
+
+        replaceLines(restartLine + 1, resumeLine[0], newLineStarts, newLineInComment, delta);
+        replaceByLine(errors, errorLines, newErrors, newErrorLines, restartLine + 1, resumeLine[0] + 1, lineDelta);
+        replaceByLine(includes, includeLines, lexer.getIncludes(), lexer.getIncludeLines(),
+                restartLine + 1, resumeLine[0] + 1, lineDelta);
+        return new TokenChange(first, oldEnd, first + relexed.size());
+    }
+
+    private void replaceText(int offset, int removedLength, String insertedText) {
+        int newLength = length - removedLength + insertedText.length();
+        if (newLength > text.length) {
+            text = Arrays.copyOf(text, Math.max(newLength, text.length * 2));
+            tokens.setSource(text);
+        }
+        System.arraycopy(text, offset + removedLength, text, offset + insertedText.length(), length - offset - removedLength);
+        insertedText.getChars(0, insertedText.length(), text, offset);
+        length = newLength;
+    }
+
+    // Lines [from, to) become the new lines; the lines after them move by delta characters
+    private void replaceLines(int from, int to, IntList newStarts, List<Boolean> newInComment, int delta) {
+        int tail = lineCount - to;
+        int newCount = from + newStarts.size() + tail;
+        if (newCount > lineStarts.length) {
+            int capacity = Math.max(newCount, lineStarts.length * 2);
+            lineStarts = Arrays.copyOf(lineStarts, capacity);
+            lineInComment = Arrays.copyOf(lineInComment, capacity);
+        }
+        System.arraycopy(lineStarts, to, lineStarts, from + newStarts.size(), tail);
+        System.arraycopy(lineInComment, to, lineInComment, from + newStarts.size(), tail);
+        for (int i = 0; i < newStarts.size(); i++) {
+            lineStarts[from + i] = newStarts.get(i);
+            lineInComment[from + i] = newInComment.get(i);
+        }
+        for (int i = from + newStarts.size(); i < newCount; i++) {
+            lineStarts[i] += delta;
+        }
+        lineCount = newCount;
+    }
+
+    // Entries on lines [fromLine, toLine) are replaced, later entries move by lineDelta lines
+    private static void replaceByLine(List<String> values, List<Integer> lines, List<String> newValues, List<Integer> newLines,
+                                      int fromLine, int toLine, int lineDelta) {
+        int first = 0;
+        while (first < lines.size() && lines.get(first) < fromLine) {
+            first++;
+        }
+        int last = first;
+        while (last < lines.size() && lines.get(last) < toLine) {
+            last++;
+        }
+        values.subList(first, last).clear();
+        lines.subList(first, last).clear();
+        for (int i = first; i < lines.size(); i++) {
+            lines.set(i, lines.get(i) + lineDelta);
+        }
+        values.addAll(first, newValues);
+        lines.addAll(first, newLines);
+    }
+
+    // Zero-based index of the line containing offset
+    private int lineOf(int offset) {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // Index of the old line starting exactly at offset, searching from line from, or -1
+    private int findLineStart(int offset, int from) {
+        int line = lineOf(offset);
+        return line >= from && line < lineCount && lineStarts[line] == offset ? line : -1;
+    }
+
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    // Copies the tokens over a snapshot of the text, so later edits do not show through
+    public void copyTokensTo(TokenBuffer target) {
+        target.beginSource(Arrays.copyOf(text, length));
+        for (int i = 0; i < tokens.size(); i++) {
+            target.add(tokens.kind(i), tokens.start(i), tokens.length(i), tokens.line(i));
+        }
+    }
+
+    public String getText() {
+        return new String(text, 0, length);
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public List<Integer> getErrorLines() {
+        return errorLines;
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.*;
+import java.util.*;
+
+// Keeps the last parse of an editor buffer; after an edit only the smallest method or block around the changed
+// tokens is reparsed and spliced into the previous tree and trace
+public class IncrementalParser {
+    private TokenSource tokens;
+    private SyntaxTree tree;
+    private Trace trace;
+    private int errorCount;
+
+    // Tokens changed since the last parse, in current numbering, and how far later tokens have moved
+    private int changeStart = SyntaxTree.NONE;
+    private int changeEnd;
+    private int tokenDelta;
+
+    // Called with every change the IncrementalLexer reports between two parses
+    public void tokensChanged(IncrementalLexer.TokenChange change) {
+        int start = change.getStart();
+        int oldEnd = change.getOldEnd();
+        int newEnd = change.getNewEnd();
+        int delta = newEnd - oldEnd;
+        if (changeStart == SyntaxTree.NONE) {
+            changeStart = start;
+            changeEnd = newEnd;
+        } else {
+            // Move the pending range into the numbering after this change, then widen it to cover the change
+            int pendingStart = changeStart < start ? changeStart : changeStart >= oldEnd ? changeStart + delta : start;
+            int pendingEnd = changeEnd <= start ? changeEnd : changeEnd >= oldEnd ? changeEnd + delta : newEnd;
+            changeStart = Math.min(pendingStart, start);
+            changeEnd = Math.max(pendingEnd, newEnd);
+        }
+        tokenDelta += delta;
+    }
+
+    // Forgets the previous parse, e.g. when the buffer was re-lexed from scratch
+    public void reset() {
+        tree = null;
+    }
+
+    public void parse(TokenSource newTokens) {
+        if (tree == null || errorCount > 0 || !reparseChanged(newTokens)) {
+            parseAll(newTokens);
+        }
+        tokens = newTokens;
+        changeStart = SyntaxTree.NONE;
+        tokenDelta = 0;
+    }
+
+    private void parseAll(TokenSource newTokens) {
+        trace = new Trace();
+        Parser parser = new Parser(newTokens, trace, TraceLevel.FULL);
+        trace.parser = parser;
+        parser.parseProgram();
+        tree = parser.getSyntaxTree();
+        errorCount = parser.getErrorCount();
+    }
+
+    // Returns false when the change cannot be confined to one method or block
+    private boolean reparseChanged(TokenSource newTokens) {
+        if (changeStart == SyntaxTree.NONE) {
+            return true;
+        }
+        int start = changeStart;
+        int newEnd = changeEnd;
+        int oldEnd = changeEnd - tokenDelta;
+        if (!newTokens.ensure(newEnd) || !tokens.ensure(oldEnd)) {
+            return false;
+        }
+        int lineDelta = newTokens.line(newEnd) - tokens.line(oldEnd);
+
+        // The lexer re-lexes whole lines, so the ends of the range are often unchanged
+        while (start < oldEnd && start < newEnd && sameToken(newTokens, start, start, 0)) {
+            start++;
+        }
+        while (oldEnd > start && newEnd > start && sameToken(newTokens, oldEnd - 1, newEnd - 1, lineDelta)) {
+            oldEnd--;
+            newEnd--;
+        }
+
+        int unit = findUnit(start, oldEnd);
+        if (unit == SyntaxTree.NONE) {
+            return false;
+        }
+        int delta = newEnd - oldEnd;
+        Trace unitTrace = new Trace();
+        Parser parser = new Parser(newTokens, unitTrace, TraceLevel.FULL);
+        unitTrace.parser = parser;
+        parser.parseUnit(tree.kind(unit), tree.token(unit));
+        SyntaxTree unitTree = parser.getSyntaxTree();
+        // The unit must still end at its old closing token, otherwise the edit changed the structure around it
+        if (parser.getErrorCount() > 0 || parser.getTokenIndex() != lastToken(unit) + delta + 1) {
+            return false;
+        }
+
+        int end = tree.subtreeEnd(unit);
+        trace.replace(trace.firstAfterSize(unit), trace.firstAfterSize(end - 1), unitTrace, unit,
+                unitTree.size() - (end - unit), lineDelta);
+        tree.replaceSubtree(unit, unitTree, delta, lineDelta);
+        return true;
+    }
+
+    private boolean sameToken(TokenSource newTokens, int oldIndex, int newIndex, int lineDelta) {
+        return tokens.kind(oldIndex) == newTokens.kind(newIndex)
+                && tokens.line(oldIndex) + lineDelta == newTokens.line(newIndex)
+                && tokens.text(oldIndex).equals(newTokens.text(newIndex));
+    }
+
+    // Smallest method or block holding old tokens [start, end) strictly inside it; its first token is where the
+    // rules before it last looked and its closing token is where the rules after it resume, so both must stay
+    private int findUnit(int start, int end) {
+        int unit = SyntaxTree.NONE;
+        int node = tree.root();
+        while (node != SyntaxTree.NONE) {
+            int inside = SyntaxTree.NONE;
+            for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+                if (tree.kind(child) == NodeKind.TOKEN) continue;
+                int first = tree.token(child);
+                int last = lastToken(child);
+                if (last != SyntaxTree.NONE && first <= start && start <= last && end <= last + 1) {
+                    inside = child;
+                    NodeKind kind = tree.kind(child);
+                    if ((kind == NodeKind.METHOD_DECL || kind == NodeKind.BLOCK) && first < start && end <= last) {
+                        unit = child;
+                    }
+                    break;
+                }
+            }
+            node = inside;
+        }
+        return unit;
+    }
+
+    // Last token consumed inside the subtree at node, or NONE if it consumed none
+    private int lastToken(int node) {
+        for (int i = tree.subtreeEnd(node) - 1; i >= node; i--) {
+            if (tree.kind(i) == NodeKind.TOKEN) {
+                return tree.token(i);
+            }
+        }
+        return SyntaxTree.NONE;
+    }
+
+    public SyntaxTree getSyntaxTree() {
+        return tree;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public String getParserOutput() {
+        StringBuilder output = new StringBuilder();
+        try {
+            writeParserOutput(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
+    }
+
+    public void writeParserOutput(Appendable out) throws IOException {
+        for (int i = 0; i < trace.size; i++) {
+            out.append(ParseTrace.formatRule(trace.rules[i], trace.lines[i])).append("\n");
+        }
+        for (int i = 0; i < trace.errors.size(); i++) {
+            out.append(ParseTrace.formatError(trace.errors.get(i), trace.errorLines.get(i))).append("\n");
+        }
+        out.append("Total NO of errors: ").append(String.valueOf(errorCount));
+    }
+
+    // Rules in the order they matched, each with the tree size at that point, so a subtree's rules can be found
+    private static class Trace implements ParseListener {
+        private Parser parser;
+        private String[] rules = new String[256];
+        private int[] lines = new int[256];
+        private int[] treeSizes = new int[256];
+        private int size;
+        private final List<String> errors = new ArrayList<>();
+        private final List<Integer> errorLines = new ArrayList<>();
+
+        @Override
+        public void ruleMatched(String rule, int line) {
+            if (size == rules.length) {
+                rules = Arrays.copyOf(rules, size * 2);
+                lines = Arrays.copyOf(lines, size * 2);
+                treeSizes = Arrays.copyOf(treeSizes, size * 2);
+            }
+            rules[size] = rule;
+            lines[size] = line;
+            treeSizes[size] = parser.getSyntaxTree().size();
+            size++;
+        }
+
+        @Override
+        public void errorReported(String message, int line) {
+            errors.add(message);
+            errorLines.add(line);
+        }
+
+        @Override
+        public void parseFinished(int errorCount) {
+        }
+
+        // First rule matched once the tree had more than treeSize nodes; tree sizes never go down between rules
+        int firstAfterSize(int treeSize) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (treeSizes[mid] <= treeSize) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Rules [from, to) become the rules of a reparsed subtree rooted at node. The rules after them move in
+        // place, and the arrays only grow when the new rules do not fit
+        void replace(int from, int to, Trace replacement, int node, int nodeDelta, int lineDelta) {
+            int newSize = size - (to - from) + replacement.size;
+            if (newSize > rules.length) {
+                int capacity = Math.max(newSize, rules.length * 2);
+                rules = Arrays.copyOf(rules, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+                treeSizes = Arrays.copyOf(treeSizes, capacity);
+            }
+            int tail = from + replacement.size;
+            if (tail != to) {
+                System.arraycopy(rules, to, rules, tail, size - to);
+                System.arraycopy(lines, to, lines, tail, size - to);
+                System.arraycopy(treeSizes, to, treeSizes, tail, size - to);
+            }
+            if (lineDelta != 0 || nodeDelta != 0) {
+                for (int i = tail; i < newSize; i++) {
+                    lines[i] += lineDelta;
+                    treeSizes[i] += nodeDelta;
+                }
+            }
+            System.arraycopy(replacement.rules, 0, rules, from, replacement.size);
+            System.arraycopy(replacement.lines, 0, lines, from, replacement.size);
+            for (int i = 0; i < replacement.size; i++) {
+                treeSizes[from + i] = replacement.treeSizes[i] + node;
+            }
+            if (newSize < size) {
+                Arrays.fill(rules, newSize, size, null);
+            }
+            size = newSize;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+import java.io.*;
+import java.util.*;
+
+// Three-address code for one class, kept in parallel int arrays: instruction i is op[i] dst[i], a[i], b[i].
+// Operands are virtual registers of the function, field slots, constant pool indexes, labels or functions,
+// depending on the opcode. Numbers live in the constant pool as longs, floats as their raw bits.
+public class IrCode {
+    public static final int NONE = -1;
+
+    // Opcodes; the comment gives the operands
+    public static final int LABEL = 0;        // label a
+    public static final int CONST = 1;        // dst = constants[a]
+    public static final int MOVE = 2;         // dst = a
+    public static final int LOAD_FIELD = 3;   // dst = fields[a]
+    public static final int STORE_FIELD = 4;  // fields[dst] = a
+    public static final int ADD = 5;          // dst = a + b, and so on for the integer operators
+    public static final int SUB = 6;
+    public static final int MUL = 7;
+    public static final int DIV = 8;
+    public static final int FADD = 9;         // the same on floats
+    public static final int FSUB = 10;
+    public static final int FMUL = 11;
+    public static final int FDIV = 12;
+    public static final int INT_TO_FLOAT = 13; // dst = (float) a
+    public static final int EQ = 14;          // dst = a == b, and so on; integers, characters, logicals, strings
+    public static final int NE = 15;
+    public static final int LT = 16;
+    public static final int LE = 17;
+    public static final int GT = 18;
+    public static final int GE = 19;
+    public static final int FEQ = 20;         // the same on floats
+    public static final int FNE = 21;
+    public static final int FLT = 22;
+    public static final int FLE = 23;
+    public static final int FGT = 24;
+    public static final int FGE = 25;
+    public static final int AND = 26;         // dst = a && b
+    public static final int OR = 27;          // dst = a || b
+    public static final int XOR = 28;         // dst = a ~ b
+    public static final int JUMP = 29;        // goto label a
+    public static final int JUMP_IF_FALSE = 30; // if a == 0 goto label b
+    public static final int ARG = 31;         // pass a as the next argument of the following CALL
+    public static final int CALL = 32;        // dst = functions[a](the b preceding ARGs); dst is NONE for no result
+    public static final int RETURN = 33;      // return a, or nothing when a is NONE
+
+    private static final String[] OP_NAMES = {"LABEL", "CONST", "MOVE", "LOAD_FIELD", "STORE_FIELD", "ADD", "SUB",
+            "MUL", "DIV", "FADD", "FSUB", "FMUL", "FDIV", "INT_TO_FLOAT", "EQ", "NE", "LT", "LE", "GT", "GE", "FEQ",
+            "FNE", "FLT", "FLE", "FGT", "FGE", "AND", "OR", "XOR", "JUMP", "JUMP_IF_FALSE", "ARG", "CALL", "RETURN"};
+
+    // What a register, field or function result holds; strings are indexes into the string pool
+    public static final byte INT = 0;
+    public static final byte FLOAT = 1;
+    public static final byte LOGICAL = 2;
+    public static final byte STRING = 3;
+    public static final byte VOID = 4;
+
+    private static final String[] TYPE_NAMES = {"int", "float", "logical", "string", "void"};
+
+    private int[] ops = new int[256];
+    private int[] dsts = new int[256];
+    private int[] as = new int[256];
+    private int[] bs = new int[256];
+    private int size;
+
+    private long[] constants = new long[64];
+    private int constantCount;
+    private final Map<Long, Integer> constantIndexes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    // Instruction each label is placed at
+    private int[] labels = new int[64];
+    private int labelCount;
+
+    // Functions are the instructions [start, end); parameters are registers 0 to parameterCount - 1
+    private final List<String> functionNames = new ArrayList<>();
+    private int[] functionStarts = new int[16];
+    private int[] functionEnds = new int[16];
+    private int[] parameterCounts = new int[16];
+    private byte[] returnTypes = new byte[16];
+    private byte[][] registerTypes = new byte[16][];
+    private int functionCount;
+
+    private final List<String> fieldNames = new ArrayList<>();
+    private byte[] fieldTypes = new byte[16];
+
+    public int emit(int op, int dst, int a, int b) {
+        if (size == ops.length) {
+            int capacity = size * 2;
+            ops = Arrays.copyOf(ops, capacity);
+            dsts = Arrays.copyOf(dsts, capacity);
+            as = Arrays.copyOf(as, capacity);
+            bs = Arrays.copyOf(bs, capacity);
+        }
+        ops[size] = op;
+        dsts[size] = dst;
+        as[size] = a;
+        bs[size] = b;
+        return size++;
+    }
+
+    public int newLabel() {
+        if (labelCount == labels.length) {
+            labels = Arrays.copyOf(labels, labelCount * 2);
+        }
+        labels[labelCount] = NONE;
+        return labelCount++;
+    }
+
+    public void placeLabel(int label) {
+        labels[label] = emit(LABEL, NONE, label, NONE);
+    }
+
+    public int addConstant(long value) {
+        Integer index = constantIndexes.get(value);
+        if (index != null) {
+            return index;
+        }
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantIndexes.put(value, constantCount);
+        return constantCount++;
+    }
+
+    // Equal literals share an index, so comparing indexes compares the strings
+    public int addString(String value) {
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    public int addField(String name, byte type) {
+        int field = fieldNames.size();
+        if (field == fieldTypes.length) {
+            fieldTypes = Arrays.copyOf(fieldTypes, field * 2);
+        }
+        fieldNames.add(name);
+        fieldTypes[field] = type;
+        return field;
+    }
+
+    // Functions are declared before any code so calls can refer to later ones
+    public int addFunction(String name, int parameterCount, byte returnType) {
+        int function = functionCount++;
+        if (function == functionStarts.length) {
+            int capacity = function * 2;
+            functionStarts = Arrays.copyOf(functionStarts, capacity);
+            functionEnds = Arrays.copyOf(functionEnds, capacity);
+            parameterCounts = Arrays.copyOf(parameterCounts, capacity);
+            returnTypes = Arrays.copyOf(returnTypes, capacity);
+            registerTypes = Arrays.copyOf(registerTypes, capacity);
+        }
+        functionNames.add(name);
+        functionStarts[function] = NONE;
+        functionEnds[function] = NONE;
+        parameterCounts[function] = parameterCount;
+        returnTypes[function] = returnType;
+        registerTypes[function] = new byte[0];
+        return function;
+    }
+
+    public void setFunctionCode(int function, int start, int end, byte[] types) {
+        functionStarts[function] = start;
+        functionEnds[function] = end;
+        registerTypes[function] = types;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int op(int instruction) {
+        return ops[instruction];
+    }
+
+    public int dst(int instruction) {
+        return dsts[instruction];
+    }
+
+    public int a(int instruction) {
+        return as[instruction];
+    }
+
+    public int b(int instruction) {
+        return bs[instruction];
+    }
+
+    public long constant(int index) {
+        return constants[index];
+    }
+
+    public int constantCount() {
+        return constantCount;
+    }
+
+    public String string(int index) {
+        return strings.get(index);
+    }
+
+    public int stringCount() {
+        return strings.size();
+    }
+
+    public int labelTarget(int label) {
+        return labels[label];
+    }
+
+    public int labelCount() {
+        return labelCount;
+    }
+
+    public int functionCount() {
+        return functionCount;
+    }
+
+    // Function index by name, or NONE
+    public int function(String name) {
+        return functionNames.indexOf(name);
+    }
+
+    public String functionName(int function) {
+        return functionNames.get(function);
+    }
+
+    // First instruction, or NONE for a method declared without a body
+    public int functionStart(int function) {
+        return functionStarts[function];
+    }
+
+    public int functionEnd(int function) {
+        return functionEnds[function];
+    }
+
+    public int parameterCount(int function) {
+        return parameterCounts[function];
+    }
+
+    public byte returnType(int function) {
+        return returnTypes[function];
+    }
+
+    public int registerCount(int function) {
+        return registerTypes[function].length;
+    }
+
+    public byte registerType(int function, int register) {
+        return registerTypes[function][register];
+    }
+
+    public int fieldCount() {
+        return fieldNames.size();
+    }
+
+    public String fieldName(int field) {
+        return fieldNames.get(field);
+    }
+
+    public byte fieldType(int field) {
+        return fieldTypes[field];
+    }
+
+    public static String opName(int op) {
+        return OP_NAMES[op];
+    }
+
+    public static String typeName(byte type) {
+        return TYPE_NAMES[type];
+    }
+
+    public String getIrOutput() {
+        StringBuilder output = new StringBuilder();
+        try {
+            writeIrOutput(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
+    }
+
+    // One line per field, function and instruction; registers are rN, fields fN, labels LN
+    public void writeIrOutput(Appendable out) throws IOException {
+        for (int field = 0; field < fieldCount(); field++) {
+            out.append("field f").append(String.valueOf(field)).append(' ').append(typeName(fieldTypes[field]))
+                    .append(' ').append(fieldNames.get(field)).append("\n");
+        }
+        for (int function = 0; function < functionCount; function++) {
+            out.append("function ").append(functionNames.get(function)).append('(')
+                    .append(String.valueOf(parameterCounts[function])).append(") ")
+                    .append(typeName(returnTypes[function])).append("\n");
+            for (int i = functionStarts[function]; i >= 0 && i < functionEnds[function]; i++) {
+                writeInstruction(out, function, i);
+            }
+        }
+    }
+
+    private void writeInstruction(Appendable out, int function, int i) throws IOException {
+        int op = ops[i];
+        if (op == LABEL) {
+            out.append('L').append(String.valueOf(as[i])).append(":\n");
+            return;
+        }
+        out.append("    ").append(OP_NAMES[op]);
+        switch (op) {
+            case CONST:
+                long value = constants[as[i]];
+                out.append(" r").append(String.valueOf(dsts[i])).append(", #").append(String.valueOf(as[i]))
+                        .append(" (").append(registerTypes[function][dsts[i]] == FLOAT
+                                ? String.valueOf(Double.longBitsToDouble(value)) : String.valueOf(value)).append(')');
+                break;
+            case LOAD_FIELD:
+                out.append(" r").append(String.valueOf(dsts[i])).append(", f").append(String.valueOf(as[i]));
+                break;
+            case STORE_FIELD:
+                out.append(" f").append(String.valueOf(dsts[i])).append(", r").append(String.valueOf(as[i]));
+                break;
+            case JUMP:
+                out.append(" L").append(String.valueOf(as[i]));
+                break;
+            case JUMP_IF_FALSE:
+                out.append(" r").append(String.valueOf(as[i])).append(", L").append(String.valueOf(bs[i]));
+                break;
+            case ARG:
+                out.append(" r").append(String.valueOf(as[i]));
+                break;
+            case CALL:
+                out.append(dsts[i] == NONE ? " _" : " r" + dsts[i]).append(", ").append(functionNames.get(as[i]))
+                        .append(", ").append(String.valueOf(bs[i]));
+                break;
+            case RETURN:
+                if (as[i] != NONE) {
+                    out.append(" r").append(String.valueOf(as[i]));
+                }
+                break;
+            case MOVE:
+            case INT_TO_FLOAT:
+                out.append(" r").append(String.valueOf(dsts[i])).append(", r").append(String.valueOf(as[i]));
+                break;
+            default:
+                out.append(" r").append(String.valueOf(dsts[i])).append(", r").append(String.valueOf(as[i]))
+                        .append(", r").append(String.valueOf(bs[i]));
+                break;
+        }
+        out.append("\n");
+    }
+}
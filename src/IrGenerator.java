@@ -0,0 +1,527 @@
+import java.util.*;
+
+// Lowers a checked parse tree to IrCode: fields become field slots, methods functions, and every statement
+// a run of three-address instructions with explicit labels and jumps. Statements are lowered off a work stack
+// and expressions children first, like the other passes, so nesting depth does not matter.
+public class IrGenerator {
+    // Work stack actions
+    private static final int LOWER = 0;        // lower the statement or block at node
+    private static final int PLACE_LABEL = 1;  // place label node
+    private static final int JUMP_TO = 2;      // jump to label node
+    private static final int END_LOOP = 3;     // leave the innermost loop
+    private static final int WHEN_STEP = 4;    // evaluate the step expression at node
+
+    private final SyntaxTree tree;
+    private final SemanticAnalyzer analyzer;
+    private final SymbolTable symbols;
+    private final IrCode code = new IrCode();
+
+    // For each symbol its field slot, register or function, depending on its kind
+    private int[] slots;
+    // Register holding the value of each expression node
+    private int[] nodeRegisters;
+    private byte[] registerTypes = new byte[16];
+    private int registerCount;
+    private int[] work = new int[64];
+    private int workCount;
+    // Exit label of each loop being lowered, innermost last, for Endthis
+    private int[] loopExits = new int[16];
+    private int loopCount;
+
+    // The tree should be free of parse, name and type errors; anything left unresolved is skipped
+    public IrGenerator(SyntaxTree tree, SemanticAnalyzer analyzer) {
+        this.tree = tree;
+        this.analyzer = analyzer;
+        this.symbols = analyzer.getSymbolTable();
+    }
+
+    public IrCode generate() {
+        slots = new int[symbols.symbolCount()];
+        Arrays.fill(slots, IrCode.NONE);
+        nodeRegisters = new int[tree.size()];
+        // String 0 is the empty string, so a string slot nobody has assigned yet holds one
+        code.addString("");
+
+        // Fields and functions first, so code can refer to any of them
+        List<Integer> methods = new ArrayList<>();
+        for (int symbol = 0; symbol < symbols.symbolCount(); symbol++) {
+            SymbolKind kind = symbols.kindOf(symbol);
+            if (kind == SymbolKind.FIELD) {
+                slots[symbol] = code.addField(symbols.textOf(symbol), valueType(symbols.typeOf(symbol)));
+            } else if (kind == SymbolKind.METHOD) {
+                int parameters = symbols.innerScopeOf(symbol);
+                int count = parameters == SymbolTable.NONE ? 0 : symbols.scopeSize(parameters);
+                slots[symbol] = code.addFunction(symbols.textOf(symbol), count, valueType(symbols.typeOf(symbol)));
+                methods.add(symbol);
+            }
+        }
+        for (int method : methods) {
+            function(method);
+        }
+        return code;
+    }
+
+    // 8. MethodDecl -> FuncDecl ; | FuncDecl { VariableDecls Statements }
+    // Parameters take the first registers and locals the next ones; temporaries follow
+    private void function(int method) {
+        int node = tree.parent(tree.parent(symbols.nodeOf(method)));
+        // A method declared without a body keeps no code
+        if (tree.kind(node) != NodeKind.METHOD_DECL || !hasBody(node)) {
+            return;
+        }
+        registerCount = 0;
+        int parameters = symbols.innerScopeOf(method);
+        for (int symbol = parameters == SymbolTable.NONE ? SymbolTable.NONE : symbols.firstSymbol(parameters);
+             symbol != SymbolTable.NONE; symbol = symbols.nextSymbol(symbol)) {
+            slots[symbol] = newRegister(valueType(symbols.typeOf(symbol)));
+        }
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) != NodeKind.VARIABLE_DECL) continue;
+            for (int id = tree.firstChild(child); id != SyntaxTree.NONE; id = tree.nextSibling(id)) {
+                int symbol = analyzer.symbolAt(id);
+                if (tree.tokenKind(id) == TokenKind.IDENTIFIER && symbol != SymbolTable.NONE
+                        && symbols.nodeOf(symbol) == id) {
+                    slots[symbol] = newRegister(valueType(symbols.typeOf(symbol)));
+                }
+            }
+        }
+
+        int start = code.size();
+        workCount = 0;
+        loopCount = 0;
+        pushStatements(node);
+        while (workCount > 0) {
+            workCount -= 2;
+            int action = work[workCount];
+            int target = work[workCount + 1];
+            switch (action) {
+                case LOWER:
+                    statement(target, method);
+                    break;
+                case PLACE_LABEL:
+                    code.placeLabel(target);
+                    break;
+                case JUMP_TO:
+                    code.emit(IrCode.JUMP, IrCode.NONE, target, IrCode.NONE);
+                    break;
+                case END_LOOP:
+                    loopCount--;
+                    break;
+                case WHEN_STEP:
+                    expression(target);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown work action " + action);
+            }
+        }
+        // Falling off the end returns nothing
+        if (code.size() == start || code.op(code.size() - 1) != IrCode.RETURN) {
+            code.emit(IrCode.RETURN, IrCode.NONE, IrCode.NONE, IrCode.NONE);
+        }
+        code.setFunctionCode(slots[method], start, code.size(), Arrays.copyOf(registerTypes, registerCount));
+    }
+
+    private void statement(int node, int method) {
+        switch (tree.kind(node)) {
+            case BLOCK:
+                pushStatements(node);
+                break;
+            case ASSIGNMENT:
+                assignment(node);
+                break;
+            case FUNC_CALL_STMT:
+                call(tree.firstChild(node));
+                break;
+            case RESPONDWITH_STMT:
+                respondwith(node, method);
+                break;
+            case ENDTHIS_STMT:
+                if (loopCount > 0) {
+                    code.emit(IrCode.JUMP, IrCode.NONE, loopExits[loopCount - 1], IrCode.NONE);
+                }
+                break;
+            case TRUE_FOR_STMT:
+                trueFor(node);
+                break;
+            case HOWEVER_STMT:
+                however(node);
+                break;
+            case WHEN_STMT:
+                when(node);
+                break;
+            case SCAN_STMT:
+                scan(node);
+                break;
+            case SRAP_STMT:
+                // Srap ( Expression ) has no effect beyond evaluating its expression
+                expression(firstOperand(tree.firstChild(node)));
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Statements of a method body or block, pushed last first so they are lowered in order
+    private void pushStatements(int node) {
+        int count = 0;
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) != NodeKind.TOKEN && tree.kind(child) != NodeKind.FUNC_DECL
+                    && tree.kind(child) != NodeKind.VARIABLE_DECL) {
+                count++;
+            }
+        }
+        int[] children = new int[count];
+        int i = 0;
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) != NodeKind.TOKEN && tree.kind(child) != NodeKind.FUNC_DECL
+                    && tree.kind(child) != NodeKind.VARIABLE_DECL) {
+                children[i++] = child;
+            }
+        }
+        for (i = count - 1; i >= 0; i--) {
+            push(LOWER, children[i]);
+        }
+    }
+
+    // 18. Assignment -> ID = Expression ;
+    private void assignment(int node) {
+        int target = tree.firstChild(node);
+        int symbol = analyzer.symbolAt(target);
+        int value = firstOperand(tree.nextSibling(target));
+        if (symbol == SymbolTable.NONE || !symbols.kindOf(symbol).isVariable() || value == SyntaxTree.NONE) return;
+        int register = convert(expression(value), valueType(symbols.typeOf(symbol)));
+        if (symbols.kindOf(symbol) == SymbolKind.FIELD) {
+            code.emit(IrCode.STORE_FIELD, slots[symbol], register, IrCode.NONE);
+        } else {
+            code.emit(IrCode.MOVE, slots[symbol], register, IrCode.NONE);
+        }
+    }
+
+    // 19. FuncCall -> ID ( ArgumentList ) ; arguments are converted to the parameter types
+    private int call(int node) {
+        int name = tree.firstChild(node);
+        int method = analyzer.symbolAt(name);
+        if (method == SymbolTable.NONE || symbols.kindOf(method) != SymbolKind.METHOD) return IrCode.NONE;
+        int function = slots[method];
+        int arguments = 0;
+        int list = tree.nextSibling(tree.nextSibling(name));
+        int[] registers = new int[code.parameterCount(function)];
+        if (list != SyntaxTree.NONE && tree.kind(list) == NodeKind.ARGUMENT_LIST) {
+            for (int argument = tree.firstChild(list); argument != SyntaxTree.NONE;
+                 argument = tree.nextSibling(argument)) {
+                if (tree.tokenKind(argument) == TokenKind.COMMA) continue;
+                if (arguments == registers.length) return IrCode.NONE;
+                registers[arguments++] = expression(argument);
+            }
+        }
+        if (arguments != registers.length) return IrCode.NONE;
+        int parameter = symbols.firstSymbol(symbols.innerScopeOf(method));
+        for (int i = 0; i < arguments; i++, parameter = symbols.nextSymbol(parameter)) {
+            registers[i] = convert(registers[i], valueType(symbols.typeOf(parameter)));
+        }
+        for (int i = 0; i < arguments; i++) {
+            code.emit(IrCode.ARG, IrCode.NONE, registers[i], IrCode.NONE);
+        }
+        byte type = code.returnType(function);
+        int result = type == IrCode.VOID ? IrCode.NONE : newRegister(type);
+        code.emit(IrCode.CALL, result, function, arguments);
+        return result;
+    }
+
+    // 27. RespondwithStmt -> Respondwith Expression ; | Respondwith ID ;
+    // A Valueless method drops the value
+    private void respondwith(int node, int method) {
+        int value = firstOperand(tree.nextSibling(tree.firstChild(node)));
+        byte type = code.returnType(slots[method]);
+        int register = IrCode.NONE;
+        if (value != SyntaxTree.NONE && type != IrCode.VOID) {
+            register = convert(expression(value), type);
+        }
+        code.emit(IrCode.RETURN, IrCode.NONE, register, IrCode.NONE);
+    }
+
+    // 23. TrueForStmt -> TrueFor ( ConditionExpression ) Block [ Else Block ]
+    //     cond; JUMP_IF_FALSE else; then; JUMP end; else: else-block; end:
+    private void trueFor(int node) {
+        int condition = childNode(node, NodeKind.CONDITION_EXPRESSION);
+        int thenBlock = childNode(node, NodeKind.BLOCK);
+        if (condition == SyntaxTree.NONE || thenBlock == SyntaxTree.NONE) return;
+        int elseBlock = SyntaxTree.NONE;
+        for (int child = tree.nextSibling(thenBlock); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) == NodeKind.BLOCK) {
+                elseBlock = child;
+            }
+        }
+        int elseLabel = code.newLabel();
+        code.emit(IrCode.JUMP_IF_FALSE, IrCode.NONE, expression(condition), elseLabel);
+        if (elseBlock == SyntaxTree.NONE) {
+            push(PLACE_LABEL, elseLabel);
+        } else {
+            int endLabel = code.newLabel();
+            push(PLACE_LABEL, endLabel);
+            push(LOWER, elseBlock);
+            push(PLACE_LABEL, elseLabel);
+            push(JUMP_TO, endLabel);
+        }
+        push(LOWER, thenBlock);
+    }
+
+    // 25. HoweverStmt -> However ( ConditionExpression ) Block
+    //     top: cond; JUMP_IF_FALSE exit; body; JUMP top; exit:
+    private void however(int node) {
+        int condition = childNode(node, NodeKind.CONDITION_EXPRESSION);
+        int body = childNode(node, NodeKind.BLOCK);
+        if (condition == SyntaxTree.NONE || body == SyntaxTree.NONE) return;
+        int top = code.newLabel();
+        int exit = code.newLabel();
+        code.placeLabel(top);
+        code.emit(IrCode.JUMP_IF_FALSE, IrCode.NONE, expression(condition), exit);
+        loop(top, exit, SyntaxTree.NONE, body);
+    }
+
+    // 26. WhenStmt -> When ( Expression ; Expression ; Expression ) Block
+    //     init; top: test; JUMP_IF_FALSE exit; body; step; JUMP top; exit:  where a test of zero is false
+    private void when(int node) {
+        int[] parts = new int[3];
+        int count = 0;
+        int body = SyntaxTree.NONE;
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) == NodeKind.EXPRESSION && count < parts.length) {
+                parts[count++] = child;
+            } else if (tree.kind(child) == NodeKind.BLOCK) {
+                body = child;
+            }
+        }
+        if (count < parts.length || body == SyntaxTree.NONE) return;
+        expression(parts[0]);
+        int top = code.newLabel();
+        int exit = code.newLabel();
+        code.placeLabel(top);
+        int test = expression(parts[1]);
+        if (registerTypes[test] == IrCode.FLOAT) {
+            int zero = newRegister(IrCode.FLOAT);
+            code.emit(IrCode.CONST, zero, code.addConstant(Double.doubleToRawLongBits(0.0)), IrCode.NONE);
+            int truth = newRegister(IrCode.LOGICAL);
+            code.emit(IrCode.FNE, truth, test, zero);
+            test = truth;
+        }
+        code.emit(IrCode.JUMP_IF_FALSE, IrCode.NONE, test, exit);
+        loop(top, exit, parts[2], body);
+    }
+
+    // The rest of a loop goes on the work stack: body, then the step if any, the jump back and the exit label
+    private void loop(int top, int exit, int step, int body) {
+        if (loopCount == loopExits.length) {
+            loopExits = Arrays.copyOf(loopExits, loopCount * 2);
+        }
+        loopExits[loopCount++] = exit;
+        push(PLACE_LABEL, exit);
+        push(END_LOOP, IrCode.NONE);
+        push(JUMP_TO, top);
+        if (step != SyntaxTree.NONE) {
+            push(WHEN_STEP, step);
+        }
+        push(LOWER, body);
+    }
+
+    // 29. ScanStmt -> Scan(Conditionof ID) ;
+    // The grammar gives a switch no case arms, so it reads its subject and jumps straight to its end label
+    private void scan(int node) {
+        int subject = firstOperand(tree.firstChild(node));
+        if (subject == SyntaxTree.NONE) return;
+        expression(subject);
+        int end = code.newLabel();
+        code.emit(IrCode.JUMP, IrCode.NONE, end, IrCode.NONE);
+        code.placeLabel(end);
+    }
+
+    // Lowers the expression, condition or operand at node and returns the register with its value. Nodes are
+    // lowered last to first, so every operand is in a register before its operator; expressions have no side
+    // effects, so evaluating right to left gives the same values.
+    private int expression(int node) {
+        for (int n = tree.subtreeEnd(node) - 1; n >= node; n--) {
+            switch (tree.kind(n)) {
+                case TOKEN:
+                    nodeRegisters[n] = operand(n);
+                    break;
+                case EXPRESSION:
+                case TERM:
+                case CONDITION:
+                case CONDITION_EXPRESSION:
+                    nodeRegisters[n] = operators(n);
+                    break;
+                default:
+                    nodeRegisters[n] = IrCode.NONE;
+                    break;
+            }
+        }
+        return nodeRegisters[node];
+    }
+
+    // Locals and parameters are used in place; fields and literals are loaded into a new register
+    private int operand(int node) {
+        TokenKind kind = tree.tokenKind(node);
+        if (kind == TokenKind.IDENTIFIER) {
+            int symbol = analyzer.symbolAt(node);
+            if (symbol == SymbolTable.NONE || !symbols.kindOf(symbol).isVariable()) {
+                return constant(IrCode.INT, 0);
+            }
+            if (symbols.kindOf(symbol) != SymbolKind.FIELD) {
+                return slots[symbol];
+            }
+            int register = newRegister(valueType(symbols.typeOf(symbol)));
+            code.emit(IrCode.LOAD_FIELD, register, slots[symbol], IrCode.NONE);
+            return register;
+        } else if (kind == TokenKind.CONSTANT) {
+            // The TypeChecker rejected constants that do not parse or fit, so those are never lowered
+            String text = tree.text(node);
+            if (text.indexOf('.') >= 0) {
+                return constant(IrCode.FLOAT, Double.doubleToRawLongBits(TypeChecker.floatConstant(text)));
+            }
+            long value = TypeChecker.intConstant(text);
+            return constant(IrCode.INT, value == TypeChecker.OUT_OF_RANGE ? 0 : value);
+        } else if (kind == TokenKind.STRING_LITERAL) {
+            String text = tree.text(node);
+            return constant(IrCode.STRING, code.addString(text.substring(1, text.length() - 1)));
+        } else if (kind == TokenKind.CHARACTER_LITERAL) {
+            return constant(IrCode.INT, tree.text(node).charAt(1));
+        }
+        return IrCode.NONE;
+    }
+
+    // Folds the operands of one operator level left to right; an integer meeting a float is converted first
+    private int operators(int node) {
+        int result = IrCode.NONE;
+        TokenKind operator = null;
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            int register = nodeRegisters[child];
+            if (tree.kind(child) == NodeKind.TOKEN && register == IrCode.NONE) {
+                TokenKind kind = tree.tokenKind(child);
+                if (kind != TokenKind.LEFT_PAREN && kind != TokenKind.RIGHT_PAREN) {
+                    operator = kind;
+                }
+                continue;
+            }
+            if (register == IrCode.NONE) continue;
+            if (result == IrCode.NONE || operator == null) {
+                result = register;
+            } else {
+                result = binary(operator, result, register);
+            }
+            operator = null;
+        }
+        return result;
+    }
+
+    private int binary(TokenKind operator, int left, int right) {
+        boolean floats = registerTypes[left] == IrCode.FLOAT || registerTypes[right] == IrCode.FLOAT;
+        if (floats) {
+            left = convert(left, IrCode.FLOAT);
+            right = convert(right, IrCode.FLOAT);
+        }
+        int op;
+        byte type = IrCode.LOGICAL;
+        switch (operator) {
+            case PLUS: op = floats ? IrCode.FADD : IrCode.ADD; type = floats ? IrCode.FLOAT : IrCode.INT; break;
+            case MINUS: op = floats ? IrCode.FSUB : IrCode.SUB; type = floats ? IrCode.FLOAT : IrCode.INT; break;
+            case STAR: op = floats ? IrCode.FMUL : IrCode.MUL; type = floats ? IrCode.FLOAT : IrCode.INT; break;
+            case SLASH: op = floats ? IrCode.FDIV : IrCode.DIV; type = floats ? IrCode.FLOAT : IrCode.INT; break;
+            case EQUAL: op = floats ? IrCode.FEQ : IrCode.EQ; break;
+            case NOT_EQUAL: op = floats ? IrCode.FNE : IrCode.NE; break;
+            case LESS: op = floats ? IrCode.FLT : IrCode.LT; break;
+            case LESS_EQUAL: op = floats ? IrCode.FLE : IrCode.LE; break;
+            case GREATER: op = floats ? IrCode.FGT : IrCode.GT; break;
+            case GREATER_EQUAL: op = floats ? IrCode.FGE : IrCode.GE; break;
+            case AND: op = IrCode.AND; break;
+            case OR: op = IrCode.OR; break;
+            // ~ sits between two conditions in the grammar, so it is taken as exclusive or
+            case NOT: op = IrCode.XOR; break;
+            default:
+                throw new IllegalStateException("Not an operator: " + operator);
+        }
+        int result = newRegister(type);
+        code.emit(op, result, left, right);
+        return result;
+    }
+
+    // Integers become floats where a float is expected; nothing else converts
+    private int convert(int register, byte type) {
+        if (register == IrCode.NONE || type != IrCode.FLOAT || registerTypes[register] != IrCode.INT) {
+            return register;
+        }
+        int result = newRegister(IrCode.FLOAT);
+        code.emit(IrCode.INT_TO_FLOAT, result, register, IrCode.NONE);
+        return result;
+    }
+
+    private int constant(byte type, long value) {
+        int register = newRegister(type);
+        code.emit(IrCode.CONST, register, code.addConstant(value), IrCode.NONE);
+        return register;
+    }
+
+    private int newRegister(byte type) {
+        if (registerCount == registerTypes.length) {
+            registerTypes = Arrays.copyOf(registerTypes, registerCount * 2);
+        }
+        registerTypes[registerCount] = type;
+        return registerCount++;
+    }
+
+    private void push(int action, int target) {
+        if (workCount + 2 > work.length) {
+            work = Arrays.copyOf(work, work.length * 2);
+        }
+        work[workCount++] = action;
+        work[workCount++] = target;
+    }
+
+    // First operand token or expression node from node on, stopping at the statement's ;
+    private int firstOperand(int node) {
+        for (; node != SyntaxTree.NONE; node = tree.nextSibling(node)) {
+            TokenKind kind = tree.tokenKind(node);
+            if (kind == null || kind == TokenKind.IDENTIFIER || kind == TokenKind.CONSTANT
+                    || kind == TokenKind.STRING_LITERAL || kind == TokenKind.CHARACTER_LITERAL) {
+                return node;
+            }
+            if (kind == TokenKind.SEMICOLON) break;
+        }
+        return SyntaxTree.NONE;
+    }
+
+    private boolean hasBody(int method) {
+        for (int child = tree.firstChild(method); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.tokenKind(child) == TokenKind.LEFT_BRACE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int childNode(int node, NodeKind kind) {
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) == kind) {
+                return child;
+            }
+        }
+        return SyntaxTree.NONE;
+    }
+
+    // Ity, Sity and Cwq are integers, Ifity and Sifity floats, CwqSequence a string pool index
+    private static byte valueType(TokenKind type) {
+        if (type == null) return IrCode.INT;
+        switch (type) {
+            case IFITY:
+            case SIFITY:
+                return IrCode.FLOAT;
+            case LOGICAL:
+                return IrCode.LOGICAL;
+            case CWQ_SEQUENCE:
+                return IrCode.STRING;
+            case VALUELESS:
+                return IrCode.VOID;
+            default:
+                return IrCode.INT;
+        }
+    }
+}
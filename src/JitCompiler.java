@@ -0,0 +1,547 @@
+import java.lang.invoke.*;
+import java.util.*;
+
+// Translates the Bytecode of a class into JVM bytecode so HotSpot can optimize it like any Java code. Each
+// function with a body becomes a static method f<n> of one hidden class, with its registers as typed JVM locals:
+// Ifity registers are doubles and every other register an int. Calls between functions are direct
+// invokestatics. Fields stay in the VirtualMachine's long[], passed to every method, so compiled and
+// interpreted code see the same values. The VirtualMachine enters function n through enter<n>, which takes the
+// arguments off its value stack.
+public class JitCompiler {
+    private static final String CLASS_NAME = "JitCode";
+    private static final String RUNTIME = "JitCompiler";
+    public static final MethodType ENTRY_TYPE =
+            MethodType.methodType(long.class, long[].class, long[].class, int.class);
+
+    // JVM opcodes
+    private static final int ICONST_0 = 3;
+    private static final int ICONST_1 = 4;
+    private static final int LCONST_0 = 9;
+    private static final int DCONST_0 = 14;
+    private static final int DCONST_1 = 15;
+    private static final int BIPUSH = 16;
+    private static final int SIPUSH = 17;
+    private static final int LDC = 18;
+    private static final int LDC_W = 19;
+    private static final int LDC2_W = 20;
+    private static final int ILOAD = 21;
+    private static final int DLOAD = 24;
+    private static final int ILOAD_2 = 28;
+    private static final int ALOAD_0 = 42;
+    private static final int ALOAD_1 = 43;
+    private static final int LALOAD = 47;
+    private static final int ISTORE = 54;
+    private static final int DSTORE = 57;
+    private static final int LASTORE = 80;
+    private static final int POP = 87;
+    private static final int POP2 = 88;
+    private static final int IADD = 96;
+    private static final int DADD = 99;
+    private static final int ISUB = 100;
+    private static final int DSUB = 103;
+    private static final int IMUL = 104;
+    private static final int DMUL = 107;
+    private static final int IDIV = 108;
+    private static final int DDIV = 111;
+    private static final int IXOR = 130;
+    private static final int I2L = 133;
+    private static final int I2D = 135;
+    private static final int L2I = 136;
+    private static final int DCMPL = 151;
+    private static final int DCMPG = 152;
+    private static final int IFEQ = 153;
+    private static final int IFNE = 154;
+    private static final int IFLT = 155;
+    private static final int IFGE = 156;
+    private static final int IFGT = 157;
+    private static final int IFLE = 158;
+    private static final int IF_ICMPEQ = 159;
+    private static final int IF_ICMPNE = 160;
+    private static final int IF_ICMPLT = 161;
+    private static final int IF_ICMPGE = 162;
+    private static final int IF_ICMPGT = 163;
+    private static final int IF_ICMPLE = 164;
+    private static final int GOTO = 167;
+    private static final int IRETURN = 172;
+    private static final int LRETURN = 173;
+    private static final int DRETURN = 175;
+    private static final int RETURN = 177;
+    private static final int INVOKESTATIC = 184;
+    private static final int ATHROW = 191;
+    private static final int WIDE = 196;
+
+    // For the comparisons in the order EQ, NE, LT, LE, GT, GE: the integer branch taken when it holds and when
+    // it does not, and for floats the dcmp that makes NaN compare false, then the same two branches
+    private static final int[] INT_TRUE = {IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPLE, IF_ICMPGT, IF_ICMPGE};
+    private static final int[] INT_FALSE = {IF_ICMPNE, IF_ICMPEQ, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE, IF_ICMPLT};
+    private static final int[] FLOAT_COMPARE = {DCMPL, DCMPL, DCMPG, DCMPG, DCMPL, DCMPL};
+    private static final int[] FLOAT_TRUE = {IFEQ, IFNE, IFLT, IFLE, IFGT, IFGE};
+    private static final int[] FLOAT_FALSE = {IFNE, IFEQ, IFGE, IFGT, IFLE, IFLT};
+
+    private final Bytecode bytecode;
+    private final IrCode ir;
+    private final ClassFileWriter writer = new ClassFileWriter(CLASS_NAME);
+
+    // Code of the method being written
+    private byte[] out = new byte[1024];
+    private int length;
+    private int function;
+    // JVM local of each register, and the JVM offset each bytecode offset of the function starts at
+    private int[] locals;
+    private int[] jvmOffsets;
+    // Branches whose target is a bytecode offset, patched once the function is written
+    private int[] branches = new int[16];
+    private int[] branchTargets = new int[16];
+    private int branchCount;
+    private int maxArguments;
+
+    private JitCompiler(Bytecode bytecode) {
+        this.bytecode = bytecode;
+        this.ir = bytecode.getIr();
+    }
+
+    // Compiles the whole class and returns the entry of each function, null for methods without a body.
+    // Fails with an IllegalStateException if a function does not fit in a JVM method.
+    public static MethodHandle[] compile(Bytecode bytecode) throws ReflectiveOperationException {
+        return new JitCompiler(bytecode).compileAll();
+    }
+
+    private MethodHandle[] compileAll() throws ReflectiveOperationException {
+        int count = bytecode.functionCount();
+        for (int f = 0; f < count; f++) {
+            if (bytecode.entry(f) != Bytecode.NONE) {
+                function(f);
+                entry(f);
+            }
+        }
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+        MethodHandle[] entries = new MethodHandle[count];
+        for (int f = 0; f < count; f++) {
+            if (bytecode.entry(f) != Bytecode.NONE) {
+                entries[f] = lookup.findStatic(lookup.lookupClass(), "enter" + f, ENTRY_TYPE);
+            }
+        }
+        return entries;
+    }
+
+    private void function(int f) {
+        function = f;
+        length = 0;
+        branchCount = 0;
+        maxArguments = 0;
+        int registers = bytecode.frameSize(f);
+        locals = new int[registers];
+        // Local 0 is the fields array
+        int next = 1;
+        for (int r = 0; r < registers; r++) {
+            locals[r] = next;
+            next += isDouble(r) ? 2 : 1;
+        }
+        // Registers other than the parameters start at zero, as in an interpreter frame
+        for (int r = ir.parameterCount(f); r < registers; r++) {
+            op(isDouble(r) ? DCONST_0 : ICONST_0);
+            store(r);
+        }
+
+        int start = bytecode.entry(f);
+        int end = bytecode.end(f);
+        jvmOffsets = new int[end - start];
+        for (int offset = start; offset < end; offset += bytecode.length(offset)) {
+            jvmOffsets[offset - start] = length;
+            instruction(offset);
+        }
+        for (int i = 0; i < branchCount; i++) {
+            patch(branches[i], jvmOffsets[branchTargets[i] - start]);
+        }
+        if (length > 0xFFFF || next > 0xFFFF) {
+            throw new IllegalStateException("'" + ir.functionName(f) + "' is too large to compile");
+        }
+        writer.addStaticMethod("f" + f, descriptor(f), out, length, 6 + 2 * maxArguments, next);
+    }
+
+    private void instruction(int offset) {
+        int[] code = bytecode.code();
+        int op = code[offset];
+        int dst = bytecode.length(offset) > 1 ? code[offset + 1] : Bytecode.NONE;
+        int a = bytecode.length(offset) > 2 ? code[offset + 2] : Bytecode.NONE;
+        switch (op) {
+            case Bytecode.CONST: {
+                long value = bytecode.constants()[a];
+                if (isDouble(dst)) {
+                    pushDouble(Double.longBitsToDouble(value));
+                } else {
+                    pushInt((int) value);
+                }
+                store(dst);
+                break;
+            }
+            case Bytecode.MOVE:
+                load(a, isDouble(dst));
+                store(dst);
+                break;
+            case Bytecode.LOAD_FIELD:
+                op(ALOAD_0);
+                pushInt(a);
+                op(LALOAD);
+                fromLong(isDouble(dst));
+                store(dst);
+                break;
+            case Bytecode.STORE_FIELD:
+                op(ALOAD_0);
+                pushInt(dst);
+                load(a, isDouble(a));
+                toLong(isDouble(a));
+                op(LASTORE);
+                break;
+            case Bytecode.ADD:
+            case Bytecode.SUB:
+            case Bytecode.MUL:
+                load(a, false);
+                load(code[offset + 3], false);
+                op(op == Bytecode.ADD ? IADD : op == Bytecode.SUB ? ISUB : IMUL);
+                store(dst);
+                break;
+            case Bytecode.DIV: {
+                load(code[offset + 3], false);
+                int divisorSet = forward(IFNE);
+                throwError("divisionByZero", ir.functionName(function));
+                land(divisorSet);
+                load(a, false);
+                load(code[offset + 3], false);
+                op(IDIV);
+                store(dst);
+                break;
+            }
+            case Bytecode.FADD:
+            case Bytecode.FSUB:
+            case Bytecode.FMUL:
+            case Bytecode.FDIV:
+                load(a, true);
+                load(code[offset + 3], true);
+                op(op == Bytecode.FADD ? DADD : op == Bytecode.FSUB ? DSUB : op == Bytecode.FMUL ? DMUL : DDIV);
+                store(dst);
+                break;
+            case Bytecode.EQ:
+            case Bytecode.NE:
+            case Bytecode.LT:
+            case Bytecode.LE:
+            case Bytecode.GT:
+            case Bytecode.GE:
+                load(a, false);
+                load(code[offset + 3], false);
+                truth(INT_TRUE[op - Bytecode.EQ]);
+                store(dst);
+                break;
+            case Bytecode.FEQ:
+            case Bytecode.FNE:
+            case Bytecode.FLT:
+            case Bytecode.FLE:
+            case Bytecode.FGT:
+            case Bytecode.FGE:
+                load(a, true);
+                load(code[offset + 3], true);
+                op(FLOAT_COMPARE[op - Bytecode.FEQ]);
+                truth(FLOAT_TRUE[op - Bytecode.FEQ]);
+                store(dst);
+                break;
+            case Bytecode.AND:
+            case Bytecode.OR: {
+                // a && b jumps to false on the first zero, a || b to true on the first non-zero
+                int decide = op == Bytecode.AND ? IFEQ : IFNE;
+                load(a, false);
+                int first = forward(decide);
+                load(code[offset + 3], false);
+                int second = forward(decide);
+                op(op == Bytecode.AND ? ICONST_1 : ICONST_0);
+                int done = forward(GOTO);
+                land(first);
+                land(second);
+                op(op == Bytecode.AND ? ICONST_0 : ICONST_1);
+                land(done);
+                store(dst);
+                break;
+            }
+            case Bytecode.XOR:
+                load(a, false);
+                truth(IFNE);
+                load(code[offset + 3], false);
+                truth(IFNE);
+                op(IXOR);
+                store(dst);
+                break;
+            case Bytecode.INT_TO_FLOAT:
+                load(a, false);
+                op(I2D);
+                store(dst);
+                break;
+            case Bytecode.JUMP:
+                branch(GOTO, dst);
+                break;
+            case Bytecode.JUMP_IF_FALSE:
+                load(dst, false);
+                branch(IFEQ, a);
+                break;
+            case Bytecode.JUMP_UNLESS_EQ:
+            case Bytecode.JUMP_UNLESS_NE:
+            case Bytecode.JUMP_UNLESS_LT:
+            case Bytecode.JUMP_UNLESS_LE:
+            case Bytecode.JUMP_UNLESS_GT:
+            case Bytecode.JUMP_UNLESS_GE:
+                load(dst, false);
+                load(a, false);
+                branch(INT_FALSE[op - Bytecode.JUMP_UNLESS_EQ], code[offset + 3]);
+                break;
+            case Bytecode.JUMP_UNLESS_FEQ:
+            case Bytecode.JUMP_UNLESS_FNE:
+            case Bytecode.JUMP_UNLESS_FLT:
+            case Bytecode.JUMP_UNLESS_FLE:
+            case Bytecode.JUMP_UNLESS_FGT:
+            case Bytecode.JUMP_UNLESS_FGE:
+                load(dst, true);
+                load(a, true);
+                op(FLOAT_COMPARE[op - Bytecode.JUMP_UNLESS_FEQ]);
+                branch(FLOAT_FALSE[op - Bytecode.JUMP_UNLESS_FEQ], code[offset + 3]);
+                break;
+            case Bytecode.CALL:
+                call(offset);
+                break;
+            case Bytecode.RETURN:
+                load(dst, isDouble(dst));
+                op(isDouble(dst) ? DRETURN : IRETURN);
+                break;
+            case Bytecode.RETURN_VOID:
+                // A method with a result that ends without Respondwith returns zero, like the interpreter
+                byte type = ir.returnType(function);
+                if (type == IrCode.VOID) {
+                    op(RETURN);
+                } else if (type == IrCode.FLOAT) {
+                    op(DCONST_0);
+                    op(DRETURN);
+                } else {
+                    op(ICONST_0);
+                    op(IRETURN);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown opcode " + op + " at " + offset);
+        }
+    }
+
+    // CALL dst, function, argument count, argument registers
+    private void call(int offset) {
+        int[] code = bytecode.code();
+        int dst = code[offset + 1];
+        int callee = code[offset + 2];
+        int count = code[offset + 3];
+        if (bytecode.entry(callee) == Bytecode.NONE) {
+            throwError("noBody", ir.functionName(callee));
+            return;
+        }
+        maxArguments = Math.max(maxArguments, count);
+        op(ALOAD_0);
+        for (int i = 0; i < count; i++) {
+            load(code[offset + 4 + i], ir.registerType(callee, i) == IrCode.FLOAT);
+        }
+        invokestatic(CLASS_NAME, "f" + callee, descriptor(callee));
+        byte type = ir.returnType(callee);
+        if (dst != Bytecode.NONE) {
+            if (isDouble(dst) != (type == IrCode.FLOAT)) {
+                throw new IllegalStateException("Result of '" + ir.functionName(callee) + "' has the wrong type");
+            }
+            store(dst);
+        } else if (type != IrCode.VOID) {
+            op(type == IrCode.FLOAT ? POP2 : POP);
+        }
+    }
+
+    // enter<n>(fields, stack, base) calls f<n> with the arguments at stack[base] on and returns its raw result
+    private void entry(int f) {
+        length = 0;
+        int count = ir.parameterCount(f);
+        op(ALOAD_0);
+        for (int i = 0; i < count; i++) {
+            op(ALOAD_1);
+            op(ILOAD_2);
+            pushInt(i);
+            op(IADD);
+            op(LALOAD);
+            fromLong(ir.registerType(f, i) == IrCode.FLOAT);
+        }
+        invokestatic(CLASS_NAME, "f" + f, descriptor(f));
+        byte type = ir.returnType(f);
+        if (type == IrCode.VOID) {
+            op(LCONST_0);
+        } else {
+            toLong(type == IrCode.FLOAT);
+        }
+        op(LRETURN);
+        writer.addStaticMethod("enter" + f, ENTRY_TYPE.toMethodDescriptorString(), out, length, 2 * count + 6, 3);
+    }
+
+    // Leaves 1 on the stack if the branch would be taken, else 0
+    private void truth(int branch) {
+        int taken = forward(branch);
+        op(ICONST_0);
+        int done = forward(GOTO);
+        land(taken);
+        op(ICONST_1);
+        land(done);
+    }
+
+    private void throwError(String factory, String function) {
+        ldc(writer.string(function));
+        invokestatic(RUNTIME, factory, "(Ljava/lang/String;)LExecutionError;");
+        op(ATHROW);
+    }
+
+    // Called from compiled code, which throws what they return; the messages are the interpreter's
+    public static ExecutionError divisionByZero(String function) {
+        return new ExecutionError("Division by zero in '" + function + "'");
+    }
+
+    public static ExecutionError noBody(String function) {
+        return new ExecutionError("'" + function + "' is declared without a body");
+    }
+
+    public static ExecutionError stackOverflow(String function) {
+        return new ExecutionError("Stack overflow calling '" + function + "'");
+    }
+
+    private String descriptor(int f) {
+        StringBuilder descriptor = new StringBuilder("([J");
+        for (int i = 0; i < ir.parameterCount(f); i++) {
+            descriptor.append(ir.registerType(f, i) == IrCode.FLOAT ? 'D' : 'I');
+        }
+        byte type = ir.returnType(f);
+        return descriptor.append(')').append(type == IrCode.VOID ? 'V' : type == IrCode.FLOAT ? 'D' : 'I').toString();
+    }
+
+    private boolean isDouble(int register) {
+        return ir.registerType(function, register) == IrCode.FLOAT;
+    }
+
+    // Registers are typed, so a load of the other kind means the bytecode is not what the compiler expects
+    private void load(int register, boolean asDouble) {
+        if (isDouble(register) != asDouble) {
+            throw new IllegalStateException("Register " + register + " of '" + ir.functionName(function)
+                    + "' has the wrong type");
+        }
+        local(asDouble ? DLOAD : ILOAD, locals[register]);
+    }
+
+    private void store(int register) {
+        local(isDouble(register) ? DSTORE : ISTORE, locals[register]);
+    }
+
+    private void local(int opcode, int index) {
+        if (index > 0xFF) {
+            op(WIDE);
+            op(opcode);
+            u2(index);
+        } else {
+            op(opcode);
+            op(index);
+        }
+    }
+
+    private void fromLong(boolean toDouble) {
+        if (toDouble) {
+            invokestatic("java/lang/Double", "longBitsToDouble", "(J)D");
+        } else {
+            op(L2I);
+        }
+    }
+
+    private void toLong(boolean fromDouble) {
+        if (fromDouble) {
+            invokestatic("java/lang/Double", "doubleToRawLongBits", "(D)J");
+        } else {
+            op(I2L);
+        }
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH);
+            op(value & 0xFF);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH);
+            u2(value & 0xFFFF);
+        } else {
+            ldc(writer.integer(value));
+        }
+    }
+
+    private void pushDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0) {
+            op(DCONST_0);
+        } else if (value == 1.0) {
+            op(DCONST_1);
+        } else {
+            op(LDC2_W);
+            u2(writer.doubleConstant(value));
+        }
+    }
+
+    private void ldc(int index) {
+        if (index > 0xFF) {
+            op(LDC_W);
+            u2(index);
+        } else {
+            op(LDC);
+            op(index);
+        }
+    }
+
+    private void invokestatic(String owner, String name, String descriptor) {
+        op(INVOKESTATIC);
+        u2(writer.methodRef(owner, name, descriptor));
+    }
+
+    // Branch to a bytecode offset of the function
+    private void branch(int opcode, int target) {
+        if (branchCount == branches.length) {
+            branches = Arrays.copyOf(branches, branchCount * 2);
+            branchTargets = Arrays.copyOf(branchTargets, branchCount * 2);
+        }
+        branches[branchCount] = length;
+        branchTargets[branchCount++] = target;
+        op(opcode);
+        u2(0);
+    }
+
+    // Branch to a point further on in the JVM code, given later with land
+    private int forward(int opcode) {
+        int at = length;
+        op(opcode);
+        u2(0);
+        return at;
+    }
+
+    private void land(int branch) {
+        patch(branch, length);
+    }
+
+    private void patch(int branch, int target) {
+        int delta = target - branch;
+        if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE) {
+            throw new IllegalStateException("'" + ir.functionName(function) + "' is too large to compile");
+        }
+        out[branch + 1] = (byte) (delta >> 8);
+        out[branch + 2] = (byte) delta;
+    }
+
+    private void op(int value) {
+        if (length == out.length) {
+            out = Arrays.copyOf(out, length * 2);
+        }
+        out[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        op(value >> 8);
+        op(value);
+    }
+}
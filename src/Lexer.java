@@ -0,0 +1,445 @@
+import java.nio.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.regex.*;
+
+public class Lexer {
+    // Character classes
+    private static final int C_OTHER = 0;
+    private static final int C_WS = 1;
+    private static final int C_NL = 2;
+    private static final int C_CR = 3;
+    private static final int C_LETTER = 4;
+    private static final int C_DIGIT = 5;
+    private static final int C_DOT = 6;
+    private static final int C_SLASH = 7;
+    private static final int C_LT = 8;
+    private static final int C_GT = 9;
+    private static final int C_EQ = 10;
+    private static final int C_BANG = 11;
+    private static final int C_AMP = 12;
+    private static final int C_PIPE = 13;
+    private static final int C_MINUS = 14;
+    private static final int C_PLUS = 15;
+    private static final int C_STAR = 16;
+    private static final int C_TILDE = 17;
+    private static final int C_START_SYMBOL = 18;
+    private static final int C_END_SYMBOL = 19;
+    private static final int C_BRACE = 20;
+    private static final int C_SEMICOLON = 21;
+    private static final int C_COMMA = 22;
+    private static final int C_DQUOTE = 23;
+    private static final int C_SQUOTE = 24;
+    private static final int C_EOF = 25;
+    private static final int CLASS_COUNT = 26;
+
+    // Scanning states
+    private static final int S_START = 0;
+    private static final int S_COMMENT = 1;
+    private static final int S_COMMENT_GT = 2;
+    private static final int S_IDENT = 3;
+    private static final int S_NUMBER = 4;
+    private static final int S_SLASH = 5;
+    private static final int S_LT = 6;
+    private static final int S_GT = 7;
+    private static final int S_EQ = 8;
+    private static final int S_BANG = 9;
+    private static final int S_AMP = 10;
+    private static final int S_PIPE = 11;
+    private static final int S_MINUS = 12;
+    private static final int S_STRING = 13;
+    private static final int S_CHAR = 14;
+    private static final int S_LINE_COMMENT = 15;
+    private static final int S_UNKNOWN = 16;
+    // Final states: every transition out of them emits
+    private static final int S_START_SYMBOL = 17;
+    private static final int S_END_SYMBOL = 18;
+    private static final int S_BRACE = 19;
+    private static final int S_SEMICOLON = 20;
+    private static final int S_COMMA = 21;
+    private static final int S_ARITH = 22;
+    private static final int S_TILDE = 23;
+    private static final int S_RELATIONAL2 = 24;
+    private static final int S_LOGIC2 = 25;
+    private static final int S_ARROW = 26;
+    private static final int S_STRING_DONE = 27;
+    private static final int S_CHAR_DONE = 28;
+    private static final int S_COMMENT_OPEN = 29;
+    private static final int S_COMMENT_CLOSE = 30;
+    private static final int STATE_COUNT = 31;
+
+    // What happens when a state has no transition for the current class
+    private static final byte A_END = 0;
+    private static final byte A_EMIT = 1;
+    private static final byte A_ERROR = 2;
+
+    private static final int NONE = -1;
+
+    private static final Pattern REQUIRE_PATTERN = Pattern.compile("Require\\s*\\(\\s*([\\w.]+)\\s*\\)");
+
+    private static final byte[] ASCII_CLASS = new byte[128];
+    private static final int[] TRANSITIONS = new int[STATE_COUNT * CLASS_COUNT];
+    private static final byte[] ACTION = new byte[STATE_COUNT];
+    private static final boolean[] SKIP = new boolean[STATE_COUNT];
+    private static final int[] RESTART = new int[STATE_COUNT];
+    private static final TokenKind[] ACCEPT_KIND = new TokenKind[STATE_COUNT];
+    // Final states shared by several single or two character tokens pick the kind by their first character
+    private static final TokenKind[] SYMBOL_KIND = new TokenKind[128];
+    private static final TokenKind[] OPERATOR_KIND = new TokenKind[128];
+    private static final String[] ERROR_MESSAGE = new String[STATE_COUNT];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            ASCII_CLASS[c] = (byte) classOfNonAscii(c);
+        }
+        ASCII_CLASS['\n'] = C_NL;
+        ASCII_CLASS['\r'] = C_CR;
+        ASCII_CLASS['_'] = C_LETTER;
+        ASCII_CLASS['.'] = C_DOT;
+        ASCII_CLASS['/'] = C_SLASH;
+        ASCII_CLASS['<'] = C_LT;
+        ASCII_CLASS['>'] = C_GT;
+        ASCII_CLASS['='] = C_EQ;
+        ASCII_CLASS['!'] = C_BANG;
+        ASCII_CLASS['&'] = C_AMP;
+        ASCII_CLASS['|'] = C_PIPE;
+        ASCII_CLASS['-'] = C_MINUS;
+        ASCII_CLASS['+'] = C_PLUS;
+        ASCII_CLASS['*'] = C_STAR;
+        ASCII_CLASS['~'] = C_TILDE;
+        ASCII_CLASS['@'] = C_START_SYMBOL;
+        ASCII_CLASS['^'] = C_START_SYMBOL;
+        ASCII_CLASS['$'] = C_END_SYMBOL;
+        ASCII_CLASS['#'] = C_END_SYMBOL;
+        for (char c : "{}[]()".toCharArray()) {
+            ASCII_CLASS[c] = C_BRACE;
+        }
+        ASCII_CLASS[';'] = C_SEMICOLON;
+        ASCII_CLASS[','] = C_COMMA;
+        ASCII_CLASS['"'] = C_DQUOTE;
+        ASCII_CLASS['\''] = C_SQUOTE;
+
+        Arrays.fill(TRANSITIONS, NONE);
+        Arrays.fill(ACTION, A_EMIT);
+
+        // Between tokens
+        ACTION[S_START] = A_END;
+        SKIP[S_START] = true;
+        fill(S_START, S_UNKNOWN);
+        transition(S_START, S_START, C_WS, C_NL, C_CR);
+        transition(S_START, S_IDENT, C_LETTER);
+        transition(S_START, S_NUMBER, C_DIGIT);
+        transition(S_START, S_SLASH, C_SLASH);
+        transition(S_START, S_LT, C_LT);
+        transition(S_START, S_GT, C_GT);
+        transition(S_START, S_EQ, C_EQ);
+        transition(S_START, S_BANG, C_BANG);
+        transition(S_START, S_AMP, C_AMP);
+        transition(S_START, S_PIPE, C_PIPE);
+        transition(S_START, S_MINUS, C_MINUS);
+        transition(S_START, S_ARITH, C_PLUS, C_STAR);
+        transition(S_START, S_TILDE, C_TILDE);
+        transition(S_START, S_START_SYMBOL, C_START_SYMBOL);
+        transition(S_START, S_END_SYMBOL, C_END_SYMBOL);
+        transition(S_START, S_BRACE, C_BRACE);
+        transition(S_START, S_SEMICOLON, C_SEMICOLON);
+        transition(S_START, S_COMMA, C_COMMA);
+        transition(S_START, S_STRING, C_DQUOTE);
+        transition(S_START, S_CHAR, C_SQUOTE);
+        TRANSITIONS[S_START * CLASS_COUNT + C_EOF] = NONE;
+
+        // Inside /< ... >/, which may span lines
+        ACTION[S_COMMENT] = A_END;
+        SKIP[S_COMMENT] = true;
+        fill(S_COMMENT, S_COMMENT);
+        transition(S_COMMENT, S_COMMENT_GT, C_GT);
+        TRANSITIONS[S_COMMENT * CLASS_COUNT + C_EOF] = NONE;
+        ACTION[S_COMMENT_GT] = A_END;
+        fill(S_COMMENT_GT, S_COMMENT);
+        transition(S_COMMENT_GT, S_COMMENT_GT, C_GT);
+        transition(S_COMMENT_GT, S_COMMENT_CLOSE, C_SLASH);
+        TRANSITIONS[S_COMMENT_GT * CLASS_COUNT + C_EOF] = NONE;
+
+        transition(S_IDENT, S_IDENT, C_LETTER, C_DIGIT);
+        transition(S_NUMBER, S_NUMBER, C_DIGIT, C_DOT);
+        transition(S_SLASH, S_COMMENT_OPEN, C_LT);
+        transition(S_SLASH, S_LINE_COMMENT, C_STAR);
+        transition(S_LT, S_RELATIONAL2, C_EQ);
+        transition(S_GT, S_RELATIONAL2, C_EQ);
+        transition(S_EQ, S_RELATIONAL2, C_EQ);
+        transition(S_BANG, S_RELATIONAL2, C_EQ);
+        transition(S_AMP, S_LOGIC2, C_AMP);
+        transition(S_PIPE, S_LOGIC2, C_PIPE);
+        transition(S_MINUS, S_ARROW, C_GT);
+
+        // Literals and line comments run to the end of the line at most
+        fill(S_STRING, S_STRING);
+        transition(S_STRING, S_STRING_DONE, C_DQUOTE);
+        transition(S_STRING, NONE, C_NL, C_CR, C_EOF);
+        fill(S_CHAR, S_CHAR);
+        transition(S_CHAR, S_CHAR_DONE, C_SQUOTE);
+        transition(S_CHAR, NONE, C_NL, C_CR, C_EOF);
+        fill(S_LINE_COMMENT, S_LINE_COMMENT);
+        transition(S_LINE_COMMENT, NONE, C_NL, C_CR, C_EOF);
+
+        accept(S_IDENT, TokenKind.IDENTIFIER);
+        accept(S_NUMBER, TokenKind.CONSTANT);
+        accept(S_SLASH, TokenKind.SLASH);
+        accept(S_MINUS, TokenKind.MINUS);
+        accept(S_LT, TokenKind.LESS);
+        accept(S_GT, TokenKind.GREATER);
+        accept(S_EQ, TokenKind.ASSIGN);
+        accept(S_TILDE, TokenKind.NOT);
+        accept(S_ARROW, TokenKind.ARROW);
+        accept(S_START_SYMBOL, TokenKind.START_SYMBOL);
+        accept(S_END_SYMBOL, TokenKind.END_SYMBOL);
+        accept(S_SEMICOLON, TokenKind.SEMICOLON);
+        accept(S_COMMA, TokenKind.COMMA);
+        accept(S_STRING_DONE, TokenKind.STRING_LITERAL);
+        accept(S_CHAR_DONE, TokenKind.CHARACTER_LITERAL);
+        accept(S_LINE_COMMENT, TokenKind.LINE_COMMENT);
+        accept(S_COMMENT_OPEN, TokenKind.COMMENT_START);
+        accept(S_COMMENT_CLOSE, TokenKind.COMMENT_END);
+        SYMBOL_KIND['{'] = TokenKind.LEFT_BRACE;
+        SYMBOL_KIND['}'] = TokenKind.RIGHT_BRACE;
+        SYMBOL_KIND['['] = TokenKind.LEFT_BRACKET;
+        SYMBOL_KIND[']'] = TokenKind.RIGHT_BRACKET;
+        SYMBOL_KIND['('] = TokenKind.LEFT_PAREN;
+        SYMBOL_KIND[')'] = TokenKind.RIGHT_PAREN;
+        SYMBOL_KIND['+'] = TokenKind.PLUS;
+        SYMBOL_KIND['*'] = TokenKind.STAR;
+        OPERATOR_KIND['='] = TokenKind.EQUAL;
+        OPERATOR_KIND['!'] = TokenKind.NOT_EQUAL;
+        OPERATOR_KIND['<'] = TokenKind.LESS_EQUAL;
+        OPERATOR_KIND['>'] = TokenKind.GREATER_EQUAL;
+        OPERATOR_KIND['&'] = TokenKind.AND;
+        OPERATOR_KIND['|'] = TokenKind.OR;
+        RESTART[S_COMMENT_OPEN] = S_COMMENT;
+
+        error(S_STRING, "Unclosed string literal");
+        error(S_CHAR, "Unclosed character literal");
+        error(S_BANG, "Unknown character: ");
+        error(S_AMP, "Unknown character: ");
+        error(S_PIPE, "Unknown character: ");
+        error(S_UNKNOWN, "Unknown character: ");
+    }
+
+    private static void fill(int state, int next) {
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            TRANSITIONS[state * CLASS_COUNT + c] = next;
+        }
+    }
+
+    private static void transition(int state, int next, int... classes) {
+        for (int c : classes) {
+            TRANSITIONS[state * CLASS_COUNT + c] = next;
+        }
+    }
+
+    private static void accept(int state, TokenKind kind) {
+        ACCEPT_KIND[state] = kind;
+    }
+
+    private static void error(int state, String message) {
+        ACTION[state] = A_ERROR;
+        ERROR_MESSAGE[state] = message;
+    }
+
+    private static int classOfNonAscii(char c) {
+        if (Character.isWhitespace(c)) return C_WS;
+        if (Character.isLetter(c)) return C_LETTER;
+        if (Character.isDigit(c)) return C_DIGIT;
+        return C_OTHER;
+    }
+
+    private final CharBuffer source;
+    private final char[] chars;
+    private final int end;
+    private final TokenBuffer tokens;
+    private final BiConsumer<String, Integer> errorHandler;
+    private final List<String> includes = new ArrayList<>();
+    private final List<Integer> includeLines = new ArrayList<>();
+
+    // Where the DFA stopped, so lexing can resume from a token boundary
+    private int state = S_START;
+    private int index = 0;
+    private int lineNumber = 1;
+    private boolean firstOnLine = true;
+    private boolean started = false;
+    private boolean finished = false;
+
+    // Told about every line start after the first; returning true stops the lexer there
+    public interface LineListener {
+        boolean lineStarted(int offset, int lineNumber, boolean inComment);
+    }
+
+    public Lexer(CharBuffer source, TokenBuffer tokens, BiConsumer<String, Integer> errorHandler) {
+        this.source = source;
+        this.chars = source.array();
+        this.end = source.limit();
+        this.tokens = tokens;
+        this.errorHandler = errorHandler;
+    }
+
+    // Runs the DFA over the whole buffer, one table lookup per character
+    public void tokenize() {
+        tokens.beginSource(chars);
+        started = true;
+        run(null, Integer.MAX_VALUE);
+    }
+
+    // Lexes up to maxTokens more tokens from where the last call stopped; false once the source is exhausted
+    public boolean tokenize(int maxTokens) {
+        if (!started) {
+            tokens.beginSource(chars);
+            started = true;
+        }
+        if (!finished) {
+            run(null, maxTokens);
+        }
+        return !finished;
+    }
+
+    // Lexes from the start of a line whose lexer state is known and returns the offset where it stopped.
+    // Between tokens the only state that survives a line break is being inside /< ... >/
+    public int tokenize(int from, int firstLine, boolean inComment, LineListener lineListener) {
+        state = inComment ? S_COMMENT : S_START;
+        index = from;
+        lineNumber = firstLine;
+        firstOnLine = true;
+        finished = false;
+        started = true;
+        run(lineListener, Integer.MAX_VALUE);
+        return index;
+    }
+
+    private void run(LineListener lineListener, int maxTokens) {
+        int state = this.state;
+        int index = this.index;
+        int lineNumber = this.lineNumber;
+        boolean firstOnLine = this.firstOnLine;
+        int tokenStart = index;
+        int tokenLine = lineNumber;
+        int emitted = 0;
+
+        while (true) {
+            int charClass;
+            if (index < end) {
+                char c = chars[index];
+                charClass = c < 128 ? ASCII_CLASS[c] : classOfNonAscii(c);
+            } else {
+                charClass = C_EOF;
+            }
+
+            int next = TRANSITIONS[state * CLASS_COUNT + charClass];
+            if (next != NONE) {
+                if (SKIP[state]) {
+                    tokenStart = index;
+                    tokenLine = lineNumber;
+                }
+                index++;
+                state = next;
+                if (charClass == C_NL || (charClass == C_CR && (index >= end || chars[index] != '\n'))) {
+                    lineNumber++;
+                    firstOnLine = true;
+                    if (lineListener != null && lineListener.lineStarted(index, lineNumber, state != S_START)) {
+                        break;
+                    }
+                }
+                continue;
+            }
+
+            if (ACTION[state] == A_END) {
+                finished = true;
+                break;
+            }
+            if (ACTION[state] == A_ERROR) {
+                String message = ERROR_MESSAGE[state];
+                if (state != S_STRING && state != S_CHAR) {
+                    message += chars[tokenStart];
+                }
+                errorHandler.accept(message, tokenLine);
+                state = S_START;
+            } else {
+                if (state == S_IDENT && firstOnLine && isRequireDirective(tokenStart, index, tokenLine)) {
+                    // The whole line is the directive and produces no tokens
+                    index = findLineEnd(index);
+                    state = S_START;
+                    continue;
+                }
+                tokens.add(tokenKind(state, tokenStart, index), tokenStart, index - tokenStart, tokenLine);
+                state = RESTART[state];
+                if (++emitted == maxTokens) {
+                    firstOnLine = false;
+                    break;
+                }
+            }
+            firstOnLine = false;
+        }
+
+        this.state = state;
+        this.index = index;
+        this.lineNumber = lineNumber;
+        this.firstOnLine = firstOnLine;
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public List<Integer> getIncludeLines() {
+        return includeLines;
+    }
+
+    private TokenKind tokenKind(int state, int start, int end) {
+        if (state == S_IDENT) {
+            TokenKind keywordKind = Scanner.keywordKind(chars, start, end - start);
+            if (keywordKind != null) {
+                return keywordKind;
+            }
+        }
+        if (state == S_BRACE || state == S_ARITH) {
+            return SYMBOL_KIND[chars[start]];
+        }
+        if (state == S_RELATIONAL2 || state == S_LOGIC2) {
+            return OPERATOR_KIND[chars[start]];
+        }
+        return ACCEPT_KIND[state];
+    }
+
+    // Require ( name.txt ) at the start of a line pulls in another file
+    private boolean isRequireDirective(int start, int wordEnd, int lineNumber) {
+        if (wordEnd - start != 7 || !regionMatches(start, "Require")) {
+            return false;
+        }
+        int lineEnd = findLineEnd(wordEnd);
+        boolean mentionsTxt = false;
+        for (int i = start; i + 4 <= lineEnd && !mentionsTxt; i++) {
+            mentionsTxt = regionMatches(i, ".txt");
+        }
+        if (!mentionsTxt) {
+            return false;
+        }
+        Matcher fileMatcher = REQUIRE_PATTERN.matcher(source.subSequence(start, lineEnd));
+        if (!fileMatcher.find()) {
+            return false;
+        }
+        includes.add(fileMatcher.group(1));
+        includeLines.add(lineNumber);
+        return true;
+    }
+
+    private boolean regionMatches(int index, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (chars[index + i] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int findLineEnd(int index) {
+        while (index < end && chars[index] != '\n' && chars[index] != '\r') {
+            index++;
+        }
+        return index;
+    }
+}
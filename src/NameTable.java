@@ -0,0 +1,106 @@
+import java.util.*;
+
+// Interns identifier text to dense ids, so later passes compare and hash names as ints.
+// Open addressing with linear probing; a slot holds id + 1, or 0 when empty.
+public class NameTable {
+    public static final int NONE = -1;
+
+    private String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int count;
+    private int[] slots = new int[512];
+
+    public int intern(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id == NONE) {
+                return add(name, hash, slot);
+            }
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    // Same as intern(new String(text, start, length)), without making the string unless the name is new
+    public int intern(char[] text, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + text[start + i];
+        }
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id == NONE) {
+                return add(new String(text, start, length), hash, slot);
+            }
+            if (hashes[id] == hash && sameText(names[id], text, start, length)) {
+                return id;
+            }
+        }
+    }
+
+    // Id of a name interned before, or NONE
+    public int find(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id == NONE || (hashes[id] == hash && names[id].equals(name))) {
+                return id;
+            }
+        }
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private int add(String name, int hash, int slot) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        int id = count++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        // Kept at most half full so probe runs stay short
+        if (count * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < count; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static boolean sameText(String name, char[] text, int start, int length) {
+        if (name.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != text[start + i]) return false;
+        }
+        return true;
+    }
+
+    // String hashes of similar names differ mostly in the low bits, so spread them before masking
+    static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
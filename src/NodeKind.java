@@ -0,0 +1,38 @@
+public enum NodeKind {
+    // Grammar rules
+    PROGRAM,
+    CLASS_DECLARATION,
+    CLASS_BODY,
+    VARIABLE_DECL,
+    METHOD_DECL,
+    FUNC_DECL,
+    PARAMETER_LIST,
+    PARAMETER,
+    ASSIGNMENT,
+    FUNC_CALL_STMT,
+    FUNC_CALL,
+    ARGUMENT_LIST,
+    TRUE_FOR_STMT,
+    HOWEVER_STMT,
+    WHEN_STMT,
+    RESPONDWITH_STMT,
+    ENDTHIS_STMT,
+    SCAN_STMT,
+    SRAP_STMT,
+    BLOCK,
+    CONDITION_EXPRESSION,
+    CONDITION,
+    EXPRESSION,
+    TERM,
+    COMMENT,
+    REQUIRE_COMMAND,
+
+    // A consumed token; its token kind tells which one
+    TOKEN;
+
+    private static final NodeKind[] VALUES = values();
+
+    public static NodeKind of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
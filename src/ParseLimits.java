@@ -0,0 +1,48 @@
+// Bounds on how much work one parse may do: an error budget, a wall-clock deadline and a flag any thread can set
+// to stop it. The parser checks them as it consumes tokens and reports errors, and stops with a partial result.
+public class ParseLimits {
+    public static final int NO_ERROR_LIMIT = Integer.MAX_VALUE;
+    public static final long NO_TIMEOUT = 0;
+
+    private final int maxErrors;
+    private final long deadline;
+    private final boolean hasDeadline;
+    private volatile boolean cancelled;
+
+    // The timeout runs from here; NO_TIMEOUT leaves only the error budget and cancellation
+    public ParseLimits(int maxErrors, long timeoutMillis) {
+        if (maxErrors <= 0) {
+            throw new IllegalArgumentException("Error limit must be positive: " + maxErrors);
+        }
+        this.maxErrors = maxErrors;
+        this.hasDeadline = timeoutMillis > 0;
+        this.deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+    }
+
+    public static ParseLimits unlimited() {
+        return new ParseLimits(NO_ERROR_LIMIT, NO_TIMEOUT);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    // The status to stop with once cancelled or past the deadline, or null to keep going
+    ParseStatus check() {
+        if (cancelled) {
+            return ParseStatus.CANCELLED;
+        }
+        if (hasDeadline && System.nanoTime() - deadline >= 0) {
+            return ParseStatus.DEADLINE;
+        }
+        return null;
+    }
+}
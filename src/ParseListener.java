@@ -0,0 +1,17 @@
+// Receives the parser's trace; which calls arrive depends on the parser's TraceLevel
+public interface ParseListener {
+    // Line passed when there are no tokens at all
+    int NO_LINE = 0;
+
+    void ruleMatched(String rule, int line);
+
+    void errorReported(String message, int line);
+
+    // Called before parseFinished when the parse hit its ParseLimits and stopped early
+    default void parseAborted(ParseStatus status) {
+    }
+
+    // Called once when parsing stops, so buffered output can be written; errorCount is every error found,
+    // including those the TraceLevel kept from errorReported
+    void parseFinished(int errorCount);
+}
@@ -0,0 +1,55 @@
+import java.io.*;
+import java.util.*;
+
+// Listener that writes the parser output as the parse goes: rules stream out as they match, and since the
+// report lists errors after all rules, only the errors are held until the parse finishes
+public class ParseReport implements ParseListener {
+    private final Appendable out;
+    private final List<String> errors = new ArrayList<>();
+    private ParseStatus status = ParseStatus.COMPLETED;
+
+    public ParseReport(Appendable out) {
+        this.out = out;
+    }
+
+    @Override
+    public void ruleMatched(String rule, int line) {
+        write(ParseTrace.formatRule(rule, line));
+    }
+
+    @Override
+    public void errorReported(String message, int line) {
+        errors.add(ParseTrace.formatError(message, line));
+    }
+
+    @Override
+    public void parseAborted(ParseStatus status) {
+        this.status = status;
+    }
+
+    @Override
+    public void parseFinished(int errorCount) {
+        for (String error : errors) {
+            write(error);
+        }
+        if (status.isAborted()) {
+            write("Parsing aborted: " + status.getDescription());
+        }
+        try {
+            out.append("Total NO of errors: ").append(String.valueOf(errorCount));
+            if (out instanceof Flushable) {
+                ((Flushable) out).flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(String line) {
+        try {
+            out.append(line).append("\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
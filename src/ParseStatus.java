@@ -0,0 +1,21 @@
+// How a parse ended; anything but COMPLETED means the tree and errors only cover the input up to where it stopped
+public enum ParseStatus {
+    COMPLETED("completed"),
+    ERROR_LIMIT("too many errors"),
+    DEADLINE("deadline passed"),
+    CANCELLED("cancelled");
+
+    private final String description;
+
+    ParseStatus(String description) {
+        this.description = description;
+    }
+
+    public boolean isAborted() {
+        return this != COMPLETED;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
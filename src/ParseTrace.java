@@ -0,0 +1,82 @@
+import java.io.*;
+import java.util.*;
+
+// Default listener: keeps the rule and error lines for the parser output and echoes them in batches, followed by
+// how the parse ended
+public class ParseTrace implements ParseListener {
+    private static final int BATCH_SIZE = 8192;
+
+    private final PrintStream out;
+    private final StringBuilder batch = new StringBuilder();
+    private final List<String> matchedRules = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private ParseStatus status = ParseStatus.COMPLETED;
+
+    // Lines are echoed to out, or only kept when out is null
+    public ParseTrace(PrintStream out) {
+        this.out = out;
+    }
+
+    public static String formatRule(String rule, int line) {
+        if (line != NO_LINE) {
+            return "Line #: " + line + " Matched Rule Used: " + rule;
+        }
+        return "Matched Rule Used: " + rule + " (end of file)";
+    }
+
+    public static String formatError(String message, int line) {
+        if (line != NO_LINE) {
+            return "Line #: " + line + " Not Matched: " + message;
+        }
+        return "Not Matched: " + message + " (end of file)";
+    }
+
+    @Override
+    public void ruleMatched(String rule, int line) {
+        String matchedRule = formatRule(rule, line);
+        matchedRules.add(matchedRule);
+        echo(matchedRule);
+    }
+
+    @Override
+    public void errorReported(String message, int line) {
+        String errorMsg = formatError(message, line);
+        errors.add(errorMsg);
+        echo(errorMsg);
+    }
+
+    @Override
+    public void parseAborted(ParseStatus status) {
+        this.status = status;
+    }
+
+    @Override
+    public void parseFinished(int errorCount) {
+        if (status.isAborted()) {
+            echo("Parsing aborted: " + status.getDescription());
+        }
+        echo("Total NO of errors: " + errorCount);
+        if (out != null && batch.length() > 0) {
+            out.print(batch);
+            out.flush();
+            batch.setLength(0);
+        }
+    }
+
+    private void echo(String line) {
+        if (out == null) return;
+        batch.append(line).append(System.lineSeparator());
+        if (batch.length() >= BATCH_SIZE) {
+            out.print(batch);
+            batch.setLength(0);
+        }
+    }
+
+    public List<String> getMatchedRules() {
+        return matchedRules;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+}
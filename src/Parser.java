@@ -1,120 +1,316 @@
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class Parser {
-    private List<Token> tokens;
+    // The parser never backs up more than two tokens, so older ones can be released
+    private static final int LOOK_BEHIND = 2;
+    // Members per parallel task, so small members do not each pay for a parser of their own
+    private static final int MEMBERS_PER_TASK = 16;
+    // Tokens consumed between two checks of the deadline and cancellation flag; a power of two
+    private static final int LIMIT_CHECK_INTERVAL = 1024;
+
+    private TokenSource tokens;
     private int currentTokenIndex;
-    private Token currentToken;
-    private List<String> errors;
-    private List<String> matchedRules;
+    // Recovery sets: where each rule can safely resume after an error, built once from the grammar
+    private static final long SYNC_SEMICOLON = kindSet(TokenKind.SEMICOLON);
+    private static final long SYNC_OPEN_BRACE = kindSet(TokenKind.LEFT_BRACE);
+    private static final long SYNC_BLOCK = kindSet(TokenKind.LEFT_BRACE, TokenKind.RIGHT_BRACE);
+    private static final long SYNC_CLASS_START = kindSet(TokenKind.LEFT_BRACE, TokenKind.END_SYMBOL);
+    private static final long SYNC_CLASS_END = kindSet(TokenKind.RIGHT_BRACE, TokenKind.END_SYMBOL);
+    private static final long SYNC_MEMBER = kindSet(TokenKind.SEMICOLON, TokenKind.LEFT_BRACE, TokenKind.RIGHT_BRACE);
+    private static final long SYNC_METHOD_BODY = kindSet(TokenKind.SEMICOLON, TokenKind.LEFT_BRACE);
+    private static final long SYNC_FUNC_NAME = kindSet(TokenKind.LEFT_PAREN, TokenKind.SEMICOLON, TokenKind.LEFT_BRACE);
+    private static final long SYNC_PARAMETER_LIST = kindSet(TokenKind.RIGHT_PAREN, TokenKind.SEMICOLON, TokenKind.LEFT_BRACE);
+    private static final long SYNC_PARAMETER = kindSet(TokenKind.COMMA, TokenKind.RIGHT_PAREN);
+    private static final long SYNC_ID_LIST = kindSet(TokenKind.COMMA, TokenKind.SEMICOLON);
+    private static final long SYNC_ARRAY_DECL = kindSet(TokenKind.SEMICOLON, TokenKind.LEFT_BRACKET, TokenKind.RIGHT_BRACE);
+    // FIRST(Statement) and the } that closes the enclosing block
+    private static final long SYNC_STATEMENT = kindSet(TokenKind.IDENTIFIER, TokenKind.TRUE_FOR, TokenKind.HOWEVER,
+            TokenKind.WHEN, TokenKind.RESPONDWITH, TokenKind.ENDTHIS, TokenKind.SCAN, TokenKind.SRAP, TokenKind.RIGHT_BRACE);
+    private static final long SYNC_STATEMENT_END = kindSet(TokenKind.SEMICOLON, TokenKind.RIGHT_BRACE);
+    private static final long SYNC_CONDITION = kindSet(TokenKind.LEFT_PAREN, TokenKind.LEFT_BRACE);
+    private static final long SYNC_CALL = kindSet(TokenKind.LEFT_PAREN, TokenKind.SEMICOLON);
+    private static final long SYNC_CLAUSE_END = kindSet(TokenKind.SEMICOLON, TokenKind.RIGHT_PAREN);
+    private static final long SYNC_ARGUMENT = kindSet(TokenKind.COMMA, TokenKind.SEMICOLON, TokenKind.RIGHT_PAREN);
+    private static final long SYNC_FACTOR = kindSet(TokenKind.PLUS, TokenKind.MINUS, TokenKind.STAR, TokenKind.SLASH,
+            TokenKind.RIGHT_PAREN, TokenKind.SEMICOLON);
+
+    // Binary operator levels, loosest first:
+    // 32. ConditionExpression -> Condition | Condition LogicalOp Condition     33. LogicalOp -> && | || | ~
+    // 34. Condition -> Expression ComparisonOp Expression                     35. ComparisonOp -> == | != | > | >= | < | <=
+    // 36. Expression -> Term | Expression AddOp Term                          37. AddOp -> + | -
+    // 38. Term -> Factor | Term MulOp Factor                                  39. MulOp -> * | /
+    private static final int CONDITION_EXPRESSION_LEVEL = 0;
+    private static final int CONDITION_LEVEL = 1;
+    private static final int EXPRESSION_LEVEL = 2;
+    private static final int FACTOR_LEVEL = 4;
+    // Marks an open parenthesis on the operator stack
+    private static final int PARENTHESIS = -1;
+    private static final NodeKind[] LEVEL_NODES = {NodeKind.CONDITION_EXPRESSION, NodeKind.CONDITION,
+            NodeKind.EXPRESSION, NodeKind.TERM};
+    private static final String[] LEVEL_RULES = {"ConditionExpression", "Condition", "Expression", "Term"};
+    private static final String[] OPERATOR_RULES = {"LogicalOp", "ComparisonOp", "AddOp", "MulOp"};
+    private static final long[] LEVEL_OPERATORS = {
+            kindSet(TokenKind.AND, TokenKind.OR, TokenKind.NOT),
+            kindSet(TokenKind.EQUAL, TokenKind.NOT_EQUAL, TokenKind.GREATER, TokenKind.GREATER_EQUAL,
+                    TokenKind.LESS, TokenKind.LESS_EQUAL),
+            kindSet(TokenKind.PLUS, TokenKind.MINUS),
+            kindSet(TokenKind.STAR, TokenKind.SLASH)};
+    private static final int[] MAX_OPERATORS = {1, 1, Integer.MAX_VALUE, Integer.MAX_VALUE};
+    private static final long OPERANDS = kindSet(TokenKind.IDENTIFIER, TokenKind.CONSTANT, TokenKind.STRING_LITERAL);
+
+    // Work stack actions for statements and blocks
+    private static final int CONTINUE_STATEMENTS = 0;
+    private static final int OPEN_BLOCK = 1;
+    private static final int CLOSE_BLOCK = 2;
+    private static final int ELSE_PART = 3;
+    private static final int FINISH_STATEMENT = 4;
+
+    private SyntaxTree tree = new SyntaxTree();
+    private int openNode = SyntaxTree.NONE;
+    private ParseListener listener;
+    private TraceLevel traceLevel;
     private int errorCount;
+    private boolean tableDriven;
+    private boolean parallel;
+    private int[] continuations = new int[64];
+    private int continuationCount;
+    private ParseLimits limits;
+    private ParseStatus status = ParseStatus.COMPLETED;
+    private int tokensSinceCheck;
+    // Set on the parsers of member tasks, which share it with the other tasks of the same class body
+    private Speculation speculation;
 
     public Parser(List<Token> tokens) {
+        this(TokenBuffer.fromTokens(tokens));
+    }
+
+    public Parser(TokenSource tokens) {
+        this(tokens, new ParseTrace(System.out), TraceLevel.FULL);
+    }
+
+    public Parser(TokenSource tokens, ParseListener listener, TraceLevel traceLevel) {
         this.tokens = tokens;
         this.currentTokenIndex = 0;
-        this.errors = new ArrayList<>();
-        this.matchedRules = new ArrayList<>();
+        this.listener = listener;
+        this.traceLevel = traceLevel;
         this.errorCount = 0;
+    }
 
-        if (!tokens.isEmpty()) {
-            this.currentToken = tokens.get(currentTokenIndex);
-        }
-//        else {
-//            // Create a special EOF token to avoid null pointer exceptions
-//            this.currentToken = new Token("EOF", "END_OF_FILE", 0);
-//        }
+    // Parses with the PredictiveParser tables first and falls back to the rule methods for input with errors,
+    // which then costs a table parse up to the first error on top; meant for input that is expected to be valid
+    public void setTableDriven(boolean tableDriven) {
+        this.tableDriven = tableDriven;
+    }
+
+    // Parses the members of the class body on the common ForkJoinPool; only used when all tokens are in a TokenBuffer
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    // Stops the parse once the limits are hit; the tree and errors so far are kept and getStatus() says why
+    public void setLimits(ParseLimits limits) {
+        this.limits = limits;
     }
 
     public void parseProgram() {
         try {
-            program();
-            System.out.println("Total NO of errors: " + errorCount);
+            if (!tableDriven || !parsePredictive()) {
+                program();
+            }
+            listener.parseFinished(errorCount);
+        } catch (ParseAborted e) {
+            listener.parseAborted(status);
+            listener.parseFinished(errorCount);
         } catch (Exception e) {
+            listener.parseFinished(errorCount);
             System.out.println("Parsing error: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private void error(String message) {
-        if (currentToken != null) {
-            String errorMsg = "Line #: " + currentToken.getLine() + " Not Matched: " + message;
-            errors.add(errorMsg);
-            System.out.println(errorMsg);
-            errorCount++;
+    // Parses a single method or block starting at firstToken, as if the rule had been reached from program()
+    public void parseUnit(NodeKind kind, int firstToken) {
+        currentTokenIndex = firstToken;
+        if (kind == NodeKind.METHOD_DECL) {
+            methodDecl();
+        } else if (kind == NodeKind.BLOCK) {
+            block();
         } else {
-            String errorMsg = "Not Matched: " + message + " (end of file)";
-            errors.add(errorMsg);
-            System.out.println(errorMsg);
-            errorCount++;
+            throw new IllegalArgumentException("Cannot parse " + kind + " on its own");
+        }
+    }
+
+    // The table parser has no error recovery and stops at the first error, so the rule methods reparse from the
+    // start for the diagnostics
+    private boolean parsePredictive() {
+        PredictiveParser predictive = new PredictiveParser(tokens, traceLevel == TraceLevel.FULL);
+        predictive.setLimits(limits);
+        if (!predictive.parse()) {
+            return false;
+        }
+        tree = predictive.getSyntaxTree();
+        currentTokenIndex = predictive.getTokenIndex();
+        predictive.replayTrace(listener);
+        return true;
+    }
+
+    // Errors are always counted; the listener only hears about them unless tracing is off
+    private void error(String message) {
+        errorCount++;
+        if (traceLevel != TraceLevel.OFF) {
+            listener.errorReported(message, hasToken() ? currentLine() : ParseListener.NO_LINE);
+        }
+        if (limits != null) {
+            if (errorCount >= limits.getMaxErrors()) {
+                abort(ParseStatus.ERROR_LIMIT);
+            }
+            if (speculation != null && speculation.errors.incrementAndGet() >= limits.getMaxErrors()) {
+                speculation.stopped = true;
+                abort(ParseStatus.ERROR_LIMIT);
+            }
+            checkLimits();
+        }
+    }
+
+    private void checkLimits() {
+        ParseStatus stop = limits.check();
+        if (stop != null) {
+            abort(stop);
+        }
+    }
+
+    // Unwinds every rule method and work stack at once; parseProgram keeps what was built so far
+    private void abort(ParseStatus stop) {
+        status = stop;
+        throw new ParseAborted();
+    }
+
+    private static class ParseAborted extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ParseAborted() {
+            super(null, null, false, false);
         }
     }
 
     private void matchRule(String rule) {
-        if (currentToken != null) {
-            String matchedRule = "Line #: " + currentToken.getLine() + " Matched Rule Used: " + rule;
-            matchedRules.add(matchedRule);
-            System.out.println(matchedRule);
-        } else {
-            String matchedRule = "Matched Rule Used: " + rule + " (end of file)";
-            matchedRules.add(matchedRule);
-            System.out.println(matchedRule);
+        if (traceLevel == TraceLevel.FULL) {
+            listener.ruleMatched(rule, hasToken() ? currentLine() : ParseListener.NO_LINE);
         }
     }
 
+    // Consumed tokens become leaves of the node being built
     private void consume() {
+        if (!atEnd()) {
+            tree.addToken(openNode, tokens, currentTokenIndex);
+        }
+        skip();
+    }
+
+    // Moves past a token without adding it to the tree, as error recovery does
+    private void skip() {
         currentTokenIndex++;
-        if (currentTokenIndex < tokens.size()) {
-            currentToken = tokens.get(currentTokenIndex);
-        } else {
-            // We're at the end of the token stream
-            // Create a special EOF token to avoid null pointer exceptions
-            currentToken = new Token("EOF", "END_OF_FILE",
-                    tokens.isEmpty() ? 1 : tokens.get(tokens.size() - 1).getLine());
+        tokens.release(currentTokenIndex - LOOK_BEHIND);
+        if (limits != null && ++tokensSinceCheck == LIMIT_CHECK_INTERVAL) {
+            tokensSinceCheck = 0;
+            checkLimits();
         }
     }
 
-    private boolean match(String type) {
-        if (currentToken.getType().equals(type)) {
-            consume();
-            return true;
+    // Nodes open and close with the rule methods; a node's children are what the rule consumed
+    private int startNode(NodeKind kind) {
+        openNode = tree.addNode(kind, openNode, currentTokenIndex, currentLine());
+        return openNode;
+    }
+
+    private void finishNode(int node) {
+        openNode = tree.parent(node);
+    }
+
+    // The current token is read straight from the source; past the end it is a virtual EOF token
+    private boolean hasToken() {
+        return tokens.ensure(0);
+    }
+
+    private boolean atEnd() {
+        return !tokens.ensure(currentTokenIndex);
+    }
+
+    private TokenKind currentKind() {
+        return atEnd() ? TokenKind.END_OF_FILE : tokens.kind(currentTokenIndex);
+    }
+
+    private String currentText() {
+        return atEnd() ? TokenKind.END_OF_FILE.getText() : tokens.text(currentTokenIndex);
+    }
+
+    private boolean is(TokenKind kind) {
+        return currentKind() == kind;
+    }
+
+    private int currentLine() {
+        if (!atEnd()) {
+            return tokens.line(currentTokenIndex);
         }
-        return false;
+        return tokens.size() == 0 ? 1 : tokens.line(tokens.size() - 1);
     }
 
-    private boolean matchText(String text) {
-        if (currentToken != null && currentToken.getText().equals(text)) {
+    private boolean match(TokenKind kind) {
+        if (currentKind() == kind) {
             consume();
             return true;
         }
         return false;
     }
     private boolean checkEOF() {
-        return currentToken == null || currentToken.getType().equals("END_OF_FILE");
+        return !hasToken() || is(TokenKind.END_OF_FILE);
     }
     // Error recovery - skip tokens until finding a synchronization point
-    private void synchronize(String... syncTokens) {
-        Set<String> syncSet = new HashSet<>(Arrays.asList(syncTokens));
+    private void synchronize(long syncSet) {
+        skipTo(syncSet);
 
-        while (currentToken != null && !syncSet.contains(currentToken.getText()) &&
+        if (hasToken() && inSet(syncSet, currentKind())) {
+            skip(); // Consume the synchronization token
+        }
+    }
+
+    // Skips to the next token in the set and leaves it for the rule that starts there
+    private void skipTo(long syncSet) {
+        while (hasToken() && !inSet(syncSet, currentKind()) &&
                 !checkEOF()) {
-            consume();
+            skip();
         }
+    }
 
-        if (currentToken != null && syncSet.contains(currentToken.getText())) {
-            consume(); // Consume the synchronization token
+    private static boolean inSet(long set, TokenKind kind) {
+        return (set & (1L << kind.ordinal())) != 0;
+    }
+
+    // Token kinds as bits of a long; TokenKind has fewer than 64 constants
+    private static long kindSet(TokenKind... kinds) {
+        long set = 0;
+        for (TokenKind kind : kinds) {
+            set |= 1L << kind.ordinal();
         }
+        return set;
     }
 
     // 1. Program -> Start_Symbols ClassDeclaration End_Symbols .
     private void program() {
+        int node = startNode(NodeKind.PROGRAM);
         matchRule("Program");
         startSymbols();
         classDeclaration();
         endSymbols();
+        finishNode(node);
     }
 
     // 2. Start_Symbols -> @ | ^
     private void startSymbols() {
-        if (currentToken != null && currentToken.getType().equals("Start Symbol")) {
+        if (hasToken() && is(TokenKind.START_SYMBOL)) {
             matchRule("Start_Symbols");
             consume();
         } else {
@@ -125,7 +321,7 @@ public class Parser {
 
     // 3. End_Symbols -> $ | #
     private void endSymbols() {
-        if (currentToken != null && currentToken.getType().equals("End Symbol")) {
+        if (hasToken() && is(TokenKind.END_SYMBOL)) {
             matchRule("End_Symbols");
             consume();
         } else {
@@ -135,502 +331,399 @@ public class Parser {
 
     // 4. ClassDeclaration -> Type ID ClassBody | Type ID DerivedFrom ClassBody
     private void classDeclaration() {
+        int node = startNode(NodeKind.CLASS_DECLARATION);
         matchRule("ClassDeclaration");
 
-        if (matchText("Type")) {
-            if (currentToken != null && currentToken.getType().equals("Identifier")) {
+        if (match(TokenKind.TYPE)) {
+            if (hasToken() && is(TokenKind.IDENTIFIER)) {
                 consume();
 
-                if (currentToken != null && matchText("DerivedFrom")) {
-                    if (currentToken != null && currentToken.getType().equals("Identifier")) {
+                if (hasToken() && match(TokenKind.DERIVED_FROM)) {
+                    if (hasToken() && is(TokenKind.IDENTIFIER)) {
                         consume();
                     } else {
                         error("Expected identifier after DerivedFrom");
-                        synchronize("{");
+                        synchronize(SYNC_OPEN_BRACE);
                     }
                 }
 
                 classBody();
             } else {
                 error("Expected identifier after Type");
-                synchronize("{");
+                synchronize(SYNC_OPEN_BRACE);
             }
         } else {
             error("Expected Type in class declaration");
-            synchronize("{", "$", "#");
+            synchronize(SYNC_CLASS_START);
         }
+        finishNode(node);
     }
 
    //  5. ClassBody -> { ClassMembers }
     private void classBody() {
+        int node = startNode(NodeKind.CLASS_BODY);
         matchRule("ClassBody");
 
-        if (matchText("{")) {
+        if (match(TokenKind.LEFT_BRACE)) {
             classMembers();
 
-            if (matchText("}")) {
+            if (match(TokenKind.RIGHT_BRACE)) {
                 // Successfully parsed class body
             } else {
                 error("Expected } at end of class body");
             }
         } else {
             error("Expected { at beginning of class body");
-            synchronize("}", "$", "#");
+            synchronize(SYNC_CLASS_END);
         }
+        finishNode(node);
     }
 
 
-    // 6. ClassMembers -> ClassMember ClassMembers | ε
-//    private void classMembers() {
-//        matchRule("ClassMembers");
-//
-//        // Check if we have a class member
-//        if (isClassMemberStart()) {
-//            classMember();
-//            classMembers();
-//        }
-//        // If not, it's epsilon (do nothing)
-//    }
+    // 6. ClassMembers -> ClassMember ClassMembers | epsilon
     private void classMembers() {
         matchRule("ClassMembers");
 
-        // Check if current token could start a class member and we're not at closing brace
-        while (currentToken != null &&
-                !currentToken.getText().equals("}") &&
-                !checkEOF() &&
-        isClassMemberStart()) {
+        if (parallel && tokens instanceof TokenBuffer) {
+            parallelClassMembers();
+            return;
+        }
+        while (atClassMember()) {
             classMember();
         }
-        // Implicit ε case when we hit } or end of input
+        // Implicit epsilon case when we hit } or end of input
+    }
+
+    // Check if current token could start a class member and we're not at closing brace
+    private boolean atClassMember() {
+        return hasToken() &&
+                !is(TokenKind.RIGHT_BRACE) &&
+                !checkEOF() &&
+                isClassMemberStart();
+    }
+
+    // Splits the body at the member boundaries a brace count finds, then walks the body as the sequential loop
+    // would, taking a group's result wherever one starts. Groups are parsed concurrently only a window ahead of
+    // the walk, so little is parsed past where the sequential loop stops. A member that recovers past its
+    // boundary just means the next groups are parsed here instead.
+    private void parallelClassMembers() {
+        if (limits != null) {
+            checkLimits();
+        }
+        int[] starts = memberStarts(currentTokenIndex);
+        Speculation speculation = new Speculation(errorCount);
+        MemberTask[] tasks = new MemberTask[(starts.length + MEMBERS_PER_TASK - 2) / MEMBERS_PER_TASK];
+        int window = 2 * ForkJoinPool.getCommonPoolParallelism();
+        int forked = 0;
+        int next = 0;
+        try {
+            while (atClassMember()) {
+                while (next < tasks.length && groupStart(starts, next) < currentTokenIndex) {
+                    next++;
+                }
+                // Each group's parser is only made when it is forked, as most are never needed after many errors
+                for (; forked < tasks.length && forked <= next + window; forked++) {
+                    int end = starts[Math.min((forked + 1) * MEMBERS_PER_TASK, starts.length - 1)];
+                    tasks[forked] = new MemberTask(tokens, traceLevel, limits, speculation, groupStart(starts, forked),
+                            end);
+                    tasks[forked].fork();
+                }
+                if (next < tasks.length && tasks[next].start == currentTokenIndex && adoptable(tasks[next])) {
+                    MemberTask task = tasks[next++];
+                    task.trace.replay(listener);
+                    errorCount += task.parser.errorCount;
+                    tree.appendTree(task.parser.tree, openNode);
+                    currentTokenIndex = task.parser.currentTokenIndex;
+                } else {
+                    classMember();
+                }
+            }
+        } finally {
+            // Groups still running past where the walk stopped give up at their next member
+            speculation.stopped = true;
+            for (int i = 0; i < forked; i++) {
+                tasks[i].quietlyJoin();
+            }
+        }
+    }
+
+    private static int groupStart(int[] starts, int group) {
+        return starts[group * MEMBERS_PER_TASK];
+    }
+
+    // A group that stopped early is parsed again here, and so is one that would use up the error budget, so the
+    // parse stops at the same error as a sequential one. One that ran out of time or was cancelled stops this
+    // parse too.
+    private boolean adoptable(MemberTask task) {
+        task.join();
+        if (!task.finished) {
+            if (limits != null) {
+                checkLimits();
+            }
+            return false;
+        }
+        return limits == null || errorCount + task.parser.errorCount < limits.getMaxErrors();
+    }
+
+    // Start of each member from the given token on, followed by where the body ends: members end with a ;
+    // or a } outside any braces, and a comment outside braces is a member of its own
+    private int[] memberStarts(int from) {
+        int[] starts = new int[64];
+        int count = 0;
+        starts[count++] = from;
+        int depth = 0;
+        int index = from;
+        while (tokens.ensure(index)) {
+            TokenKind kind = tokens.kind(index);
+            if (depth == 0 && (kind == TokenKind.RIGHT_BRACE || kind == TokenKind.END_SYMBOL)) {
+                break;
+            }
+            index++;
+            if (kind == TokenKind.LEFT_BRACE) {
+                depth++;
+            } else if (kind == TokenKind.RIGHT_BRACE) {
+                depth--;
+            }
+            if (depth == 0 && (kind == TokenKind.SEMICOLON || kind == TokenKind.RIGHT_BRACE || kind.isComment())) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = index;
+            }
+        }
+        if (starts[count - 1] != index) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count + 1);
+            }
+            starts[count++] = index;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    // What the member tasks of one class body share: the errors they have found between them, counted from
+    // those found before the body, and whether their results are still wanted
+    private static class Speculation {
+        private final AtomicInteger errors;
+        private volatile boolean stopped;
+
+        Speculation(int errorsBefore) {
+            errors = new AtomicInteger(errorsBefore);
+        }
+    }
+
+    // Runs the member loop from start until it reaches end, with its own tree, trace and error count. It gives
+    // up once the tasks have found as many errors as the budget allows between them, or the walk has stopped.
+    private static class MemberTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final RecordedTrace trace = new RecordedTrace();
+        private final Parser parser;
+        private boolean finished;
+
+        MemberTask(TokenSource tokens, TraceLevel traceLevel, ParseLimits limits, Speculation speculation, int start,
+                   int end) {
+            this.start = start;
+            this.end = end;
+            this.parser = new Parser(tokens, trace, traceLevel);
+            parser.limits = limits;
+            parser.speculation = speculation;
+        }
+
+        @Override
+        protected void compute() {
+            parser.currentTokenIndex = start;
+            try {
+                if (parser.limits != null) {
+                    parser.checkLimits();
+                }
+                while (parser.currentTokenIndex < end && parser.atClassMember()) {
+                    if (parser.speculation.stopped) {
+                        return;
+                    }
+                    parser.classMember();
+                }
+                finished = true;
+            } catch (ParseAborted e) {
+                // The merge parses the group again and checks the limits itself
+            }
+        }
+    }
+
+    // Keeps rules and errors in the order they were reported so they can be passed on later
+    private static class RecordedTrace implements ParseListener {
+        private final List<String> messages = new ArrayList<>();
+        private final List<Integer> lines = new ArrayList<>();
+        private final BitSet errors = new BitSet();
+
+        @Override
+        public void ruleMatched(String rule, int line) {
+            messages.add(rule);
+            lines.add(line);
+        }
+
+        @Override
+        public void errorReported(String message, int line) {
+            errors.set(messages.size());
+            messages.add(message);
+            lines.add(line);
+        }
+
+        @Override
+        public void parseFinished(int errorCount) {
+        }
+
+        void replay(ParseListener listener) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (errors.get(i)) {
+                    listener.errorReported(messages.get(i), lines.get(i));
+                } else {
+                    listener.ruleMatched(messages.get(i), lines.get(i));
+                }
+            }
+        }
     }
 
     private boolean isClassMemberStart() {
-        if (currentToken == null) return false;
-        String type = currentToken.getType();
-        String text = currentToken.getText();
-
-        return type.equals("Class") ||
-                type.equals("Integer") ||
-                type.equals("SInteger") ||
-                type.equals("Character") ||
-                type.equals("String") ||
-                type.equals("Float") ||
-                type.equals("SFloat") ||
-                type.equals("Void") ||
-                type.equals("Boolean") ||
-                type.equals("Comment") ||
-                text.equals("Require") ||
-                (type.equals("Identifier") && !text.equals("}"));
+        if (!hasToken()) return false;
+        TokenKind kind = currentKind();
+
+        return kind == TokenKind.TYPE ||
+                kind.isDataType() ||
+                kind.isComment() ||
+                kind == TokenKind.REQUIRE ||
+                kind == TokenKind.IDENTIFIER;
     }
 
     // 7. ClassMember -> VariableDecl | MethodDecl | FuncCall | Comment | RequireCommand
     private void classMember() {
         matchRule("ClassMember");
 
-        if (currentToken.getType().equals("Comment")) {
+        if (currentKind().isComment()) {
             comment();
-        } else if (currentToken.getText().equals("Require")) {
+        } else if (is(TokenKind.REQUIRE)) {
             requireCommand();
         } else if (isType()) {
             // Check next tokens to determine if it's a variable or method declaration
             int saveIndex = currentTokenIndex;
-            Token saveToken = currentToken;
+            int saveNodes = tree.size();
 
             consume(); // Skip type
-            if (currentTokenIndex < tokens.size() && currentToken.getType().equals("Identifier")) {
+            if (!atEnd() && is(TokenKind.IDENTIFIER)) {
                 consume(); // Skip ID
-                if (currentTokenIndex < tokens.size() && currentToken.getText().equals("(")) {
+                if (!atEnd() && is(TokenKind.LEFT_PAREN)) {
                     // It's a method declaration
                     currentTokenIndex = saveIndex;
-                    currentToken = saveToken;
+                    tree.truncate(saveNodes);
                     methodDecl();
                 } else {
                     // It's a variable declaration
                     currentTokenIndex = saveIndex;
-                    currentToken = saveToken;
+                    tree.truncate(saveNodes);
                     variableDecl();
                 }
             } else {
                 error("Expected identifier after type");
                 currentTokenIndex = saveIndex;
-                currentToken = saveToken;
-                synchronize(";", "{", "}");
+                tree.truncate(saveNodes);
+                synchronize(SYNC_MEMBER);
             }
-        } else if (currentToken.getType().equals("Identifier")) {
+        } else if (is(TokenKind.IDENTIFIER)) {
             // Handle unknown type case - give specific error
-            error("Unknown type '" + currentToken.getText() + "'");
-            synchronize(";", "{", "}");
+            error("Unknown type '" + currentText() + "'");
+            synchronize(SYNC_MEMBER);
             //funcCall();
         } else {
             error("Invalid class member");
-            synchronize(";", "{", "}");
+            synchronize(SYNC_MEMBER);
         }
     }
 
     private boolean isType() {
-        String type = currentToken.getType();
-        return type.equals("Integer") ||
-                type.equals("SInteger") ||
-                type.equals("Character") ||
-                type.equals("String") ||
-                type.equals("Float") ||
-                type.equals("SFloat") ||
-                type.equals("Void") ||
-                type.equals("Boolean");
+        return currentKind().isDataType();
     }
 
     // 8. MethodDecl -> FuncDecl ; | FuncDecl { VariableDecls Statements }
     private void methodDecl() {
+        int node = startNode(NodeKind.METHOD_DECL);
         matchRule("MethodDecl");
 
         funcDecl();
 
-        if (matchText(";")) {
+        if (match(TokenKind.SEMICOLON)) {
             // Method with just declaration
-        } else if (matchText("{")) {
+        } else if (match(TokenKind.LEFT_BRACE)) {
             variableDecls();
             statements();
 
-            if (matchText("}")) {
+            if (match(TokenKind.RIGHT_BRACE)) {
                 // Successfully parsed method body
             } else {
                 error("Expected } at end of method body");
-                synchronize("}", ";");
+                synchronize(SYNC_STATEMENT_END);
             }
         } else {
             error("Expected ; or { after function declaration");
-            synchronize("{", ";", "}");
+            synchronize(SYNC_MEMBER);
         }
+        finishNode(node);
     }
 
     // 9. FuncDecl -> Type ID ( ParameterList )
     private void funcDecl() {
+        int node = startNode(NodeKind.FUNC_DECL);
         matchRule("FuncDecl");
 
         if (isType()) {
             consume(); // Type
 
-            if (currentToken != null && currentToken.getType().equals("Identifier")) {
+            if (hasToken() && is(TokenKind.IDENTIFIER)) {
                 consume(); // ID
 
-                if (matchText("(")) {
+                if (match(TokenKind.LEFT_PAREN)) {
                     parameterList();
 
-                    if (matchText(")")) {
+                    if (match(TokenKind.RIGHT_PAREN)) {
                         // Successfully parsed function declaration
                     } else {
                         error("Expected ) at end of parameter list");
-                        synchronize(";", "{");
+                        synchronize(SYNC_METHOD_BODY);
                     }
                 } else {
                     error("Expected ( after function name");
-                    synchronize(")", ";", "{");
+                    synchronize(SYNC_PARAMETER_LIST);
                 }
             } else {
                 error("Expected identifier for function name");
-                synchronize("(", ";", "{");
+                synchronize(SYNC_FUNC_NAME);
             }
         } else {
             error("Expected type for function declaration");
-            synchronize(";", "{");
-        }
-    }
-    /*
-    // 10. ParameterList -> ε | Parameters
-    private void parameterList() {
-        matchRule("ParameterList");
-
-        if (isType()) {
-            parameters();
-        }
-        // Otherwise it's epsilon (empty)
-    }
-
-    // 11. Parameters -> Parameter | Parameters , Parameter
-    private void parameters() {
-        matchRule("Parameters");
-
-        parameter();
-
-        while (matchText(",")) {
-            parameter();
-        }
-    }
-
-    // 12. Parameter -> Type ID
-    private void parameter() {
-        matchRule("Parameter");
-
-        if (isType()) {
-            consume(); // Type
-
-            if (currentToken != null && currentToken.getType().equals("Identifier")) {
-                consume(); // ID
-            } else {
-                error("Expected identifier in parameter");
-                synchronize(",", ")");
-            }
-        } else {
-            error("Expected type in parameter");
-            synchronize(",", ")");
-        }
-    }
-
-    // 13. VariableDecl -> Type IDList ; | Type IDList [ ID ] ;
-    private void variableDecl() {
-        matchRule("VariableDecl");
-
-        if (isType()) {
-            consume(); // Type
-
-            idList();
-
-            // Handle initialization if present
-            if (currentToken != null && matchText("=")) {
-                expression();
-            }
-            if (currentToken != null && matchText("[")) {
-                if (currentToken != null && (currentToken.getType().equals("Identifier") || currentToken.getType().equals("Constant"))) {
-                    consume(); // ID
-
-                    if (matchText("]")) {
-                        // Array declaration
-                    } else {
-                        error("Expected ] in array declaration");
-                        synchronize(";");
-                    }
-                } else {
-                    error("Expected identifier in array size");
-                    synchronize("]", ";");
-                }
-            }
-
-            if (matchText(";")) {
-                // Successfully parsed variable declaration
-            } else {
-                error("Expected ; at end of variable declaration");
-                synchronize("}", "Ity", "Sity", "Cwq", "CwqSequence", "Ifity", "Sifity", "Valueless", "Logical");
-            }
-        } else {
-            error("Expected type in variable declaration");
-            synchronize(";", "{", "}");
-        }
-    }
-
-    // 14. VariableDecls -> VariableDecl VariableDecls | ε
-    private void variableDecls() {
-        matchRule("VariableDecls");
-
-        if (isType()) {
-            variableDecl();
-            variableDecls();
-        }
-        else if (currentToken != null &&
-                currentToken.getType().equals("Identifier")) {
-            // This catches `int`, `float`, etc. inside methods
-            error("Unknown type '" + currentToken.getText() + "'");
-            synchronize(";", "{", "}");
-            }
-        // Otherwise it's epsilon (empty)
-    }
-
-    // 15. IDList -> ID | IDList , ID
-    private void idList() {
-        matchRule("IDList");
-
-        if (currentToken != null && currentToken.getType().equals("Identifier")) {
-            consume(); // ID
-
-            while (currentToken != null && matchText(",")) {
-                if (currentToken != null && currentToken.getType().equals("Identifier")) {
-                    consume(); // ID
-                } else {
-                    error("Expected identifier after comma in ID list");
-                    break;
-                }
-            }
-        } else {
-            error("Expected identifier in ID list");
-            synchronize(";", "[", "=");
-        }
-    }
-
-    // 16. Statements -> Statement Statements | ε
-    private void statements() {
-        matchRule("Statements");
-
-        while (currentToken != null && !currentToken.getText().equals("}") && isStatementStart()) {
-            statement();
-        }
-        // Otherwise it's epsilon (empty)
-    }
-
-    private boolean isStatementStart() {
-        String type = currentToken.getType();
-        String text = currentToken.getText();
-
-        return type.equals("Identifier") ||
-                text.equals("TrueFor") ||
-                text.equals("However") ||
-                text.equals("When") ||
-                text.equals("Respondwith") ||
-                text.equals("Endthis") ||
-                text.equals("Scan") ||
-                text.equals("Srap");
-    }
-
-    // 17. Statement -> Assignment | TrueForStmt | HoweverStmt | WhenStmt |
-    //                 RespondwithStmt | EndthisStmt | ScanStmt | SrapStmt | FuncCallStmt
-    private void statement() {
-        matchRule("Statement");
-
-        if (currentToken == null) return;
-
-        String text = currentToken.getText();
-
-        if (currentToken.getType().equals("Identifier")) {
-            // Check next token to determine if it's an assignment or function call
-            int saveIndex = currentTokenIndex;
-            Token saveToken = currentToken;
-
-            consume(); // Skip ID
-            if (currentTokenIndex < tokens.size() &&
-                    currentToken != null &&
-                    currentToken.getText().equals("=")) {
-
-                // It's an assignment
-                currentTokenIndex = saveIndex;
-                currentToken = saveToken;
-                assignment();
-            } else if (currentTokenIndex < tokens.size() &&
-                    currentToken != null &&
-                    currentToken.getText().equals("(")) {
-
-                // It's a function call
-                currentTokenIndex = saveIndex;
-                currentToken = saveToken;
-                funcCallStmt();
-            } else {
-                error("Expected = or ( after identifier in statement");
-                currentTokenIndex = saveIndex;
-                currentToken = saveToken;
-                synchronize(";");
-            }
-        } else if (text.equals("TrueFor")) {
-            trueForStmt();
-        } else if (text.equals("However")) {
-            howeverStmt();
-        } else if (text.equals("When")) {
-            whenStmt();
-        } else if (text.equals("Respondwith")) {
-            respondwithStmt();
-        } else if (text.equals("Endthis")) {
-            endthisStmt();
-        } else if (text.equals("Scan")) {
-            scanStmt();
-        } else if (text.equals("Srap")) {
-            srapStmt();
-        } else {
-            error("Invalid statement");
-            synchronize(";", "{", "}");
+            synchronize(SYNC_METHOD_BODY);
         }
+        finishNode(node);
     }
-
-    // 18. Assignment -> ID = Expression ;
-    private void assignment() {
-        matchRule("Assignment");
-
-        if (currentToken.getType().equals("Identifier")) {
-            consume(); // ID
-
-            if (matchText("=")) {
-                expression();
-
-                if (matchText(";")) {
-                    // Successfully parsed assignment
-                } else {
-                    error("Expected ; at end of assignment");
-                    synchronize("Identifier", "TrueFor", "However", "When", "Respondwith", "Endthis", "Scan", "Srap", "}");
-                }
-            } else {
-                error("Expected = in assignment");
-                synchronize(";");
-            }
-        } else {
-            error("Expected identifier in assignment");
-            synchronize(";");
-        }
-    }
-
-    // 19. FuncCall -> ID ( ArgumentList ) ;
-    private void funcCall() {
-        matchRule("FuncCall");
-
-        if (currentToken != null && currentToken.getType().equals("Identifier")) {
-            consume(); // ID
-
-            if (matchText("(")) {
-                argumentList();
-
-                if (matchText(")")) {
-                    if (matchText(";")) {
-                        // Successfully parsed function call
-                    } else {
-                        error("Expected ; after function call");
-                        synchronize("Identifier", "TrueFor", "However", "When", "Respondwith", "Endthis", "Scan", "Srap", "}");
-                    }
-                } else {
-                    error("Expected ) at end of argument list");
-                    synchronize(";");
-                }
-            } else {
-                error("Expected ( after function name");
-                synchronize(";");
-            }
-        } else {
-            error("Expected identifier for function call");
-            synchronize(";");
-        }
-    }
-
-    // 20. FuncCallStmt -> FuncCall ;
-    private void funcCallStmt() {
-        matchRule("FuncCallStmt");
-        funcCall();
-    }
-
-    // 21. ArgumentList -> ε | ArgumentSequence
-    private void argumentList() {
-        matchRule("ArgumentList");
-
-        if (isExpressionStart()) {
-            argumentSequence();
-        }
-        // Otherwise it's epsilon (empty)
-    }
-    */
-
-    private boolean isValidType() {
-        String t = currentToken.getText();
-        return t.equals("Ity") || t.equals("Sity") || t.equals("Float") || t.equals("SFloat")
-                || t.equals("Character") || t.equals("String") || t.equals("Void") || t.equals("Logical");
-    }
-
+    // 10. ParameterList -> epsilon | Parameters
     private void parameterList() {
-        if (currentToken.getText().equals(")")) {
-            matchRule("ParameterList -> ε");
+        int node = startNode(NodeKind.PARAMETER_LIST);
+        if (is(TokenKind.RIGHT_PAREN)) {
+            matchRule("ParameterList -> \u03b5");
+            finishNode(node);
             return;
         }
         parameters();
         matchRule("ParameterList -> Parameters");
+        finishNode(node);
     }
 
+    // 11. Parameters -> Parameter | Parameters , Parameter
     private void parameters() {
         parameter();
         while (true) {
-            if (matchText(",")) {
+            if (match(TokenKind.COMMA)) {
                 parameter();
-            } else if (isValidType()) {
+            } else if (isType()) {
                 error("Expected ',' between parameters");
                 parameter();
             } else {
@@ -640,709 +733,775 @@ public class Parser {
         matchRule("Parameters -> Parameter | Parameters , Parameter");
     }
 
+    // 12. Parameter -> Type ID
     private void parameter() {
-        if (isValidType()) {
+        int node = startNode(NodeKind.PARAMETER);
+        if (isType()) {
             consume();
-            if (match("Identifier")) {
+            if (match(TokenKind.IDENTIFIER)) {
                 matchRule("Parameter -> Type ID");
             } else {
                 error("Expected ID in parameter");
-                synchronize(",", ")");
+                synchronize(SYNC_PARAMETER);
             }
         } else {
             error("Expected Type in parameter");
-            synchronize(",", ")");
+            synchronize(SYNC_PARAMETER);
         }
+        finishNode(node);
     }
 
+    // 13. VariableDecl -> Type IDList ; | Type IDList [ ID ] ;
     private void variableDecl() {
-        if (isValidType()) {
+        int node = startNode(NodeKind.VARIABLE_DECL);
+        if (isType()) {
             consume();
             idList();
-            if (matchText(";")) {
+            if (match(TokenKind.SEMICOLON)) {
                 matchRule("VariableDecl -> Type IDList ;");
-            } else if (matchText("[")) {
-                if (match("Identifier") && matchText("]") && matchText(";")) {
+            } else if (match(TokenKind.LEFT_BRACKET)) {
+                if (match(TokenKind.IDENTIFIER) && match(TokenKind.RIGHT_BRACKET) && match(TokenKind.SEMICOLON)) {
                     matchRule("VariableDecl -> Type IDList [ ID ] ;");
                 } else {
                     error("Invalid array declaration");
-                    synchronize(";", "}");
+                    synchronize(SYNC_STATEMENT_END);
                 }
             } else {
                 error("Expected ; or [ in variable declaration");
-                synchronize(";", "[", "}");
+                synchronize(SYNC_ARRAY_DECL);
             }
         } else {
             error("Expected Type in variable declaration");
-            synchronize(";", "}");
+            synchronize(SYNC_STATEMENT_END);
         }
+        finishNode(node);
     }
 
+    // 14. VariableDecls -> VariableDecl VariableDecls | epsilon
     private void variableDecls() {
-        while (isValidType()) {
+        while (isType()) {
             variableDecl();
         }
-        matchRule("VariableDecls -> VariableDecl VariableDecls | ε");
+        matchRule("VariableDecls -> VariableDecl VariableDecls | \u03b5");
     }
 
+    // 15. IDList -> ID | IDList , ID
     private void idList() {
-        if (match("Identifier")) {
-            while (matchText(",")) {
-                if (!match("Identifier")) {
+        if (match(TokenKind.IDENTIFIER)) {
+            while (match(TokenKind.COMMA)) {
+                if (!match(TokenKind.IDENTIFIER)) {
                     error("Expected ID in IDList");
-                    synchronize(",", ";");
+                    synchronize(SYNC_ID_LIST);
                 }
             }
             matchRule("IDList -> ID | IDList , ID");
         } else {
             error("Expected ID in IDList");
-            synchronize(",", ";");
+            synchronize(SYNC_ID_LIST);
         }
     }
 
+    // 16. Statements -> Statement Statements | epsilon
     private void statements() {
-        while (isStatementStart()) {
-            statement();
+        runStatements(CONTINUE_STATEMENTS, SyntaxTree.NONE);
+    }
+
+    // Statements and blocks nest through each other, so instead of calling block() a statement pushes what is
+    // left of it onto a work stack of (action, node) pairs and this loop carries on. Nesting is only limited by
+    // memory, and the rules match in the same order as the recursive methods they replace.
+    private void runStatements(int action, int node) {
+        int base = continuationCount;
+        pushContinuation(action, node);
+        while (continuationCount > base) {
+            continuationCount -= 2;
+            action = continuations[continuationCount];
+            node = continuations[continuationCount + 1];
+            switch (action) {
+                case CONTINUE_STATEMENTS:
+                    if (isStatementStart()) {
+                        pushContinuation(CONTINUE_STATEMENTS, SyntaxTree.NONE);
+                        statement();
+                    } else {
+                        matchRule("Statements -> Statement Statements | \u03b5");
+                    }
+                    break;
+                case OPEN_BLOCK:
+                    openBlock();
+                    break;
+                case CLOSE_BLOCK:
+                    if (match(TokenKind.RIGHT_BRACE)) {
+                        // Successfully parsed block
+                    } else {
+                        error("Expected } at end of block");
+                        // Try to recover - statements after the bad tokens still belong to this block
+                        skipTo(SYNC_STATEMENT);
+                        if (isStatementStart()) {
+                            pushContinuation(CLOSE_BLOCK, node);
+                            pushContinuation(CONTINUE_STATEMENTS, SyntaxTree.NONE);
+                            break;
+                        }
+                        match(TokenKind.RIGHT_BRACE);
+                    }
+                    finishNode(node);
+                    break;
+                case ELSE_PART:
+                    if (hasToken() && is(TokenKind.ELSE)) {
+                        trueForElse();
+                        pushContinuation(FINISH_STATEMENT, node);
+                        pushContinuation(OPEN_BLOCK, SyntaxTree.NONE);
+                    } else {
+                        finishNode(node);
+                    }
+                    break;
+                default:
+                    finishNode(node);
+                    break;
+            }
+        }
+    }
+
+    private void pushContinuation(int action, int node) {
+        if (continuationCount + 2 > continuations.length) {
+            continuations = Arrays.copyOf(continuations, continuations.length * 2);
         }
-        matchRule("Statements -> Statement Statements | ε");
+        continuations[continuationCount++] = action;
+        continuations[continuationCount++] = node;
+    }
+
+    // Ends a statement with a block: the block is parsed next, then the statement node is closed
+    private void blockThenFinish(int node) {
+        pushContinuation(FINISH_STATEMENT, node);
+        pushContinuation(OPEN_BLOCK, SyntaxTree.NONE);
     }
 
     private boolean isStatementStart() {
-        String t = currentToken.getType();
-        return t.equals("Identifier") || t.equals("TrueFor") || t.equals("However") ||
-                t.equals("When") || t.equals("Respondwith") || t.equals("Endthis") ||
-                t.equals("Scan") || t.equals("Srap");
+        switch (currentKind()) {
+            case IDENTIFIER:
+            case TRUE_FOR:
+            case HOWEVER:
+            case WHEN:
+            case RESPONDWITH:
+            case ENDTHIS:
+            case SCAN:
+            case SRAP:
+                return true;
+            default:
+                return false;
+        }
     }
 
+    // 17. Statement -> Assignment | TrueForStmt | HoweverStmt | WhenStmt |
+    //                 RespondwithStmt | EndthisStmt | ScanStmt | SrapStmt | FuncCallStmt
     private void statement() {
         matchRule("Statement");
 
-        if (currentToken == null) return;
+        if (!hasToken()) return;
 
-        String text = currentToken.getText();
+        TokenKind kind = currentKind();
 
-        if (currentToken.getType().equals("Identifier")) {
+        if (kind == TokenKind.IDENTIFIER) {
             // Check next token to determine if it's an assignment or function call
             int saveIndex = currentTokenIndex;
-            Token saveToken = currentToken;
+            int saveNodes = tree.size();
 
             consume(); // Skip ID
-            if (currentTokenIndex < tokens.size() &&
-                    currentToken != null &&
-                    currentToken.getText().equals("=")) {
+            if (!atEnd() &&
+                    hasToken() &&
+                    is(TokenKind.ASSIGN)) {
 
                 // It's an assignment
                 currentTokenIndex = saveIndex;
-                currentToken = saveToken;
+                tree.truncate(saveNodes);
                 assignment();
-            } else if (currentTokenIndex < tokens.size() &&
-                    currentToken != null &&
-                    currentToken.getText().equals("(")) {
+            } else if (!atEnd() &&
+                    hasToken() &&
+                    is(TokenKind.LEFT_PAREN)) {
 
                 // It's a function call
                 currentTokenIndex = saveIndex;
-                currentToken = saveToken;
+                tree.truncate(saveNodes);
                 funcCallStmt();
             } else {
                 error("Expected = or ( after identifier in statement");
                 currentTokenIndex = saveIndex;
-                currentToken = saveToken;
-                synchronize(";");
+                tree.truncate(saveNodes);
+                synchronize(SYNC_SEMICOLON);
             }
-        } else if (text.equals("TrueFor")) {
+        } else if (kind == TokenKind.TRUE_FOR) {
             trueForStmt();
-        } else if (text.equals("However")) {
+        } else if (kind == TokenKind.HOWEVER) {
             howeverStmt();
-        } else if (text.equals("When")) {
+        } else if (kind == TokenKind.WHEN) {
             whenStmt();
-        } else if (text.equals("Respondwith")) {
+        } else if (kind == TokenKind.RESPONDWITH) {
             respondwithStmt();
-        } else if (text.equals("Endthis")) {
+        } else if (kind == TokenKind.ENDTHIS) {
             endthisStmt();
-        } else if (text.equals("Scan")) {
+        } else if (kind == TokenKind.SCAN) {
             scanStmt();
-        } else if (text.equals("Srap")) {
+        } else if (kind == TokenKind.SRAP) {
             srapStmt();
         } else {
             error("Invalid statement");
-            synchronize(";", "{", "}");
+            synchronize(SYNC_MEMBER);
         }
     }
+    // 18. Assignment -> ID = Expression ;
     private void assignment() {
-        if (match("Identifier") && matchText("=")) {
-            simpleExpression();
-            if (matchText(";")) {
+        int node = startNode(NodeKind.ASSIGNMENT);
+        if (match(TokenKind.IDENTIFIER) && match(TokenKind.ASSIGN)) {
+            if (isExpressionStart()) {
+                expression();
+            } else {
+                error("Invalid expression");
+                synchronize(SYNC_ARGUMENT);
+            }
+            if (match(TokenKind.SEMICOLON)) {
                 matchRule("Assignment -> ID = Expression ;");
             } else {
                 error("Expected ; after assignment");
-                synchronize(";", "}");
+                synchronize(SYNC_STATEMENT_END);
             }
         } else {
             error("Invalid assignment");
-            synchronize(";", "}");
+            synchronize(SYNC_STATEMENT_END);
         }
+        finishNode(node);
     }
 
+    // 19. FuncCall -> ID ( ArgumentList ) ;
     private void funcCall() {
-        if (match("Identifier") && matchText("(")) {
+        int node = startNode(NodeKind.FUNC_CALL);
+        if (match(TokenKind.IDENTIFIER) && match(TokenKind.LEFT_PAREN)) {
             argumentList();
-            if (matchText(")")) {
+            if (match(TokenKind.RIGHT_PAREN)) {
                 matchRule("FuncCall -> ID ( ArgumentList ) ;");
             } else {
                 error("Expected ) after arguments");
-                synchronize(")", ";");
+                synchronize(SYNC_CLAUSE_END);
             }
         } else {
             error("Invalid function call");
-            synchronize(")", ";");
+            synchronize(SYNC_CLAUSE_END);
         }
+        finishNode(node);
     }
 
+    // 20. FuncCallStmt -> FuncCall ;
     private void funcCallStmt() {
+        int node = startNode(NodeKind.FUNC_CALL_STMT);
         funcCall();
-        if (matchText(";")) {
+        if (match(TokenKind.SEMICOLON)) {
             matchRule("FuncCallStmt -> FuncCall ;");
         } else {
             error("Expected ; after function call statement");
-            synchronize(";", "}");
+            synchronize(SYNC_STATEMENT_END);
         }
+        finishNode(node);
     }
 
+    // 21. ArgumentList -> epsilon | ArgumentSequence
     private void argumentList() {
-        if (currentToken.getText().equals(")")) {
-            matchRule("ArgumentList -> ε");
+        int node = startNode(NodeKind.ARGUMENT_LIST);
+        if (is(TokenKind.RIGHT_PAREN)) {
+            matchRule("ArgumentList -> \u03b5");
+            finishNode(node);
             return;
         }
         simpleExpression();
-        while (matchText(",")) {
+        while (match(TokenKind.COMMA)) {
             simpleExpression();
         }
         matchRule("ArgumentList -> ArgumentSequence");
+        finishNode(node);
     }
 
     private void simpleExpression() {
-        if (match("Identifier") || match("Number")) {
+        if (match(TokenKind.IDENTIFIER) || match(TokenKind.CONSTANT)) {
             return;
         } else {
             error("Invalid expression");
-            synchronize(",", ";", ")");
+            synchronize(SYNC_ARGUMENT);
         }
     }
 
-    private String lookAhead() {
-        if (currentTokenIndex + 1 < tokens.size()) {
-            return tokens.get(currentTokenIndex + 1).getText();
-        }
-        return "";
-    }
-
     private boolean isExpressionStart() {
-        if (currentToken == null) return false;
-
-        return currentToken.getType().equals("Identifier") ||
-                currentToken.getType().equals("Constant") ||
-                currentToken.getType().equals("String Literal") ||
-                currentToken.getText().equals("(");
-    }
+        if (!hasToken()) return false;
 
-    // 22. ArgumentSequence -> Expression | ArgumentSequence , Expression
-    private void argumentSequence() {
-        matchRule("ArgumentSequence");
-
-        expression();
-
-        while (currentToken != null && matchText(",")) {
-            expression();
-        }
+        return is(TokenKind.IDENTIFIER) ||
+                is(TokenKind.CONSTANT) ||
+                is(TokenKind.STRING_LITERAL) ||
+                is(TokenKind.LEFT_PAREN);
     }
 
     // 23. TrueForStmt -> TrueFor ( ConditionExpression ) Block
     //                   | TrueFor ( ConditionExpression ) Block TrueForElse Block
     private void trueForStmt() {
+        int node = startNode(NodeKind.TRUE_FOR_STMT);
         matchRule("TrueForStmt");
 
-        if (matchText("TrueFor")) {
-            if (matchText("(")) {
+        if (match(TokenKind.TRUE_FOR)) {
+            if (match(TokenKind.LEFT_PAREN)) {
                 conditionExpression();
 
-                if (matchText(")")) {
-                    block();
-
-                    if (currentToken != null && currentToken.getText().equals("Else")) {
-                        trueForElse();
-                        block();
-                    }
+                if (match(TokenKind.RIGHT_PAREN)) {
+                    pushContinuation(ELSE_PART, node);
+                    pushContinuation(OPEN_BLOCK, SyntaxTree.NONE);
+                    return;
                 } else {
                     error("Expected ) after condition in TrueFor statement");
-                    synchronize("{");
+                    synchronize(SYNC_OPEN_BRACE);
                 }
             } else {
                 error("Expected ( after TrueFor");
-                synchronize("(", "{");
+                synchronize(SYNC_CONDITION);
             }
         } else {
             error("Expected TrueFor");
-            synchronize("{", "}");
+            synchronize(SYNC_BLOCK);
         }
+        finishNode(node);
     }
 
     // 24. TrueForElse -> Else
     private void trueForElse() {
         matchRule("TrueForElse");
 
-        if (matchText("Else")) {
+        if (match(TokenKind.ELSE)) {
             // Successfully parsed Else
         } else {
             error("Expected Else");
-            synchronize("{");
+            synchronize(SYNC_OPEN_BRACE);
         }
     }
 
     // 25. HoweverStmt -> However ( ConditionExpression ) Block
     private void howeverStmt() {
+        int node = startNode(NodeKind.HOWEVER_STMT);
         matchRule("HoweverStmt");
 
-        if (matchText("However")) {
-            if (matchText("(")) {
+        if (match(TokenKind.HOWEVER)) {
+            if (match(TokenKind.LEFT_PAREN)) {
                 conditionExpression();
 
-                if (matchText(")")) {
-                    block();
+                if (match(TokenKind.RIGHT_PAREN)) {
+                    blockThenFinish(node);
+                    return;
                 } else {
                     error("Expected ) after condition in However statement");
-                    synchronize("{");
+                    synchronize(SYNC_OPEN_BRACE);
                 }
             } else {
                 error("Expected ( after However");
-                synchronize("(", "{");
+                synchronize(SYNC_CONDITION);
             }
         } else {
             error("Expected However");
-            synchronize("{", "}");
+            synchronize(SYNC_BLOCK);
         }
+        finishNode(node);
     }
 
     // 26. WhenStmt -> When ( Expression ; Expression ; Expression ) Block
     private void whenStmt() {
+        int node = startNode(NodeKind.WHEN_STMT);
         matchRule("WhenStmt");
 
-        if (matchText("When")) {
-            if (matchText("(")) {
+        if (match(TokenKind.WHEN)) {
+            if (match(TokenKind.LEFT_PAREN)) {
                 if (isExpressionStart()) {
                     expression();
                 } else {
                     error("Expected expression in When statement");
-                    synchronize(";", ")");
+                    synchronize(SYNC_CLAUSE_END);
+                    finishNode(node);
                     return;
                 }
 
 
-                if (matchText(";")) {
+                if (match(TokenKind.SEMICOLON)) {
                     if (isExpressionStart()) {
                         expression();
                     } else {
                         error("Expected expression in When statement");
-                        synchronize(";", ")");
+                        synchronize(SYNC_CLAUSE_END);
+                        finishNode(node);
                         return;
                     }
 
 
-                    if (matchText(";")) {
+                    if (match(TokenKind.SEMICOLON)) {
                         if (isExpressionStart()) {
                             expression();
                         } else {
                             error("Expected expression in When statement");
-                            synchronize(";", ")");
+                            synchronize(SYNC_CLAUSE_END);
+                            finishNode(node);
                             return;
                         }
 
 
-                        if (matchText(")")) {
-                            block();
+                        if (match(TokenKind.RIGHT_PAREN)) {
+                            blockThenFinish(node);
+                            return;
                         } else {
                             error("Expected ) at end of When statement");
-                            synchronize("{");
+                            synchronize(SYNC_OPEN_BRACE);
                         }
                     } else {
                         error("Expected ; in When statement");
-                        synchronize(";", ")");
+                        synchronize(SYNC_CLAUSE_END);
                     }
                 } else {
                     error("Expected ; in When statement");
-                    synchronize(";", ")");
+                    synchronize(SYNC_CLAUSE_END);
                 }
             } else {
                 error("Expected ( after When");
-                synchronize("(", "{");
+                synchronize(SYNC_CONDITION);
             }
         } else {
             error("Expected When");
-            synchronize("{", "}");
+            synchronize(SYNC_BLOCK);
         }
+        finishNode(node);
     }
 
     // 27. RespondwithStmt -> Respondwith Expression ; | Respondwith ID ;
     private void respondwithStmt() {
+        int node = startNode(NodeKind.RESPONDWITH_STMT);
         matchRule("RespondwithStmt");
 
-        if (matchText("Respondwith")) {
-            if (currentToken != null && currentToken.getType().equals("Identifier")) {
+        if (match(TokenKind.RESPONDWITH)) {
+            // A lone identifier is the second form; one that starts a longer expression is the first
+            if (hasToken() && is(TokenKind.IDENTIFIER) && tokens.ensure(currentTokenIndex + 1)
+                    && tokens.kind(currentTokenIndex + 1) == TokenKind.SEMICOLON) {
                 consume(); // Identifier
             } else if (isExpressionStart()) {
                 expression();
             } else {
                 error("Expected identifier or expression after Respondwith");
-                synchronize(";");
+                synchronize(SYNC_SEMICOLON);
             }
 
-            if (matchText(";")) {
+            if (match(TokenKind.SEMICOLON)) {
                 // Successfully parsed Respondwith statement
             } else {
                 error("Expected ; after Respondwith statement");
-                synchronize("Identifier", "TrueFor", "However", "When", "Respondwith", "Endthis", "Scan", "Srap", "}");
+                skipTo(SYNC_STATEMENT);
             }
         } else {
             error("Expected Respondwith");
-            synchronize(";");
+            synchronize(SYNC_SEMICOLON);
         }
+        finishNode(node);
     }
 
     // 28. EndthisStmt -> Endthis ;
     private void endthisStmt() {
+        int node = startNode(NodeKind.ENDTHIS_STMT);
         matchRule("EndthisStmt");
 
-        if (matchText("Endthis")) {
-            if (matchText(";")) {
+        if (match(TokenKind.ENDTHIS)) {
+            if (match(TokenKind.SEMICOLON)) {
                 // Successfully parsed Endthis statement
             } else {
                 error("Expected ; after Endthis");
-                synchronize("Identifier", "TrueFor", "However", "When", "Respondwith", "Endthis", "Scan", "Srap", "}");
+                skipTo(SYNC_STATEMENT);
             }
         } else {
             error("Expected Endthis");
-            synchronize(";");
+            synchronize(SYNC_SEMICOLON);
         }
+        finishNode(node);
     }
 
     // 29. ScanStmt -> Scan(Conditionof ID) ;
     private void scanStmt() {
+        int node = startNode(NodeKind.SCAN_STMT);
         matchRule("ScanStmt");
 
-        if (matchText("Scan")) {
-            if (matchText("(")) {
-                if (matchText("Conditionof")) {
-                    if (currentToken != null && currentToken.getType().equals("Identifier")) {
+        if (match(TokenKind.SCAN)) {
+            if (match(TokenKind.LEFT_PAREN)) {
+                if (match(TokenKind.CONDITIONOF)) {
+                    if (hasToken() && is(TokenKind.IDENTIFIER)) {
                         consume(); // ID
 
-                        if (matchText(")")) {
-                            if (matchText(";")) {
+                        if (match(TokenKind.RIGHT_PAREN)) {
+                            if (match(TokenKind.SEMICOLON)) {
                                 // Successfully parsed Scan statement
                             } else {
                                 error("Expected ; after Scan statement");
-                                synchronize("Identifier", "TrueFor", "However", "When", "Respondwith", "Endthis", "Scan", "Srap", "}");
+                                skipTo(SYNC_STATEMENT);
                             }
                         } else {
                             error("Expected ) in Scan statement");
-                            synchronize(";");
+                            synchronize(SYNC_SEMICOLON);
                         }
                     } else {
                         error("Expected identifier after Conditionof");
-                        synchronize(")", ";");
+                        synchronize(SYNC_CLAUSE_END);
                     }
                 } else {
                     error("Expected Conditionof in Scan statement");
-                    synchronize(")", ";");
+                    synchronize(SYNC_CLAUSE_END);
                 }
             } else {
                 error("Expected ( after Scan");
-                synchronize("(", ";");
+                synchronize(SYNC_CALL);
             }
         } else {
             error("Expected Scan");
-            synchronize(";");
+            synchronize(SYNC_SEMICOLON);
         }
+        finishNode(node);
     }
 
     // 30. SrapStmt -> Srap ( Expression ) ;
     private void srapStmt() {
+        int node = startNode(NodeKind.SRAP_STMT);
         matchRule("SrapStmt");
 
-        if (matchText("Srap")) {
-            if (matchText("(")) {
+        if (match(TokenKind.SRAP)) {
+            if (match(TokenKind.LEFT_PAREN)) {
                 expression();
 
-                if (matchText(")")) {
-                    if (matchText(";")) {
+                if (match(TokenKind.RIGHT_PAREN)) {
+                    if (match(TokenKind.SEMICOLON)) {
                         // Successfully parsed Srap statement
                     } else {
                         error("Expected ; after Srap statement");
-                        synchronize("Identifier", "TrueFor", "However", "When", "Respondwith", "Endthis", "Scan", "Srap", "}");
+                        skipTo(SYNC_STATEMENT);
                     }
                 } else {
                     error("Expected ) in Srap statement");
-                    synchronize(";");
+                    synchronize(SYNC_SEMICOLON);
                 }
             } else {
                 error("Expected ( after Srap");
-                synchronize("(", ";");
+                synchronize(SYNC_CALL);
             }
         } else {
             error("Expected Srap");
-            synchronize(";");
+            synchronize(SYNC_SEMICOLON);
         }
+        finishNode(node);
     }
 
     // 31. Block -> { Statements }
     private void block() {
-        matchRule("Block");
+        runStatements(OPEN_BLOCK, SyntaxTree.NONE);
+    }
 
-        if (matchText("{")) {
-            statements();
+    // The statements and closing brace are left on the work stack
+    private void openBlock() {
+        int node = startNode(NodeKind.BLOCK);
+        matchRule("Block");
 
-            if (matchText("}")) {
-                // Successfully parsed block
-            } else {
-                error("Expected } at end of block");
-                // Try to recover - look for the next block boundary
-                synchronize("Identifier", "TrueFor", "However", "When", "Respondwith", "Endthis", "Scan", "Srap", "}");
-            }
+        if (match(TokenKind.LEFT_BRACE)) {
+            pushContinuation(CLOSE_BLOCK, node);
+            pushContinuation(CONTINUE_STATEMENTS, SyntaxTree.NONE);
         } else {
             error("Expected { at beginning of block");
-            synchronize("{", "}");
+            synchronize(SYNC_BLOCK);
+            finishNode(node);
         }
     }
 
     // 32. ConditionExpression -> Condition | Condition LogicalOp Condition
     private void conditionExpression() {
-        matchRule("ConditionExpression");
-
-        condition();
-
-        if (currentToken != null && isLogicalOp()) {
-            logicalOp();
-            condition();
-        }
-    }
-
-    private boolean isLogicalOp() {
-        if (currentToken == null) return false;
-
-        String text = currentToken.getText();
-        return text.equals("&&") || text.equals("||") || text.equals("~");
-    }
-
-    // 33. LogicalOp -> && | || | ~
-    private void logicalOp() {
-        matchRule("LogicalOp");
-
-        if (matchText("&&") || matchText("||") || matchText("~")) {
-            // Successfully parsed logical operator
-        } else {
-            error("Expected logical operator (&&, ||, ~)");
-            // No synchronization needed here since this is part of a larger expression
-        }
-    }
-
-    // 34. Condition -> Expression ComparisonOp Expression
-    private void condition() {
-        matchRule("Condition");
-
-        expression();
-
-        if (currentToken != null) {
-            comparisonOp();
-            expression();
-        } else {
-            error("Unexpected end of input in condition");
-        }
-    }
-
-    // 35. ComparisonOp -> == | != | > | >= | < | <=
-    private void comparisonOp() {
-        matchRule("ComparisonOp");
-
-        if (matchText("==") || matchText("!=") || matchText(">") ||
-                matchText(">=") || matchText("<") || matchText("<=")) {
-            // Successfully parsed comparison operator
-        } else {
-            error("Expected comparison operator (==, !=, >, >=, <, <=)");
-            // No synchronization needed here since this is part of a larger expression
-        }
+        operatorExpression(CONDITION_EXPRESSION_LEVEL);
     }
 
     // 36. Expression -> Term | Expression AddOp Term
     private void expression() {
-        matchRule("Expression");
-
-        term();
-
-        while (currentToken != null && isAddOp()) {
-            addOp();
-            term();
-        }
+        operatorExpression(EXPRESSION_LEVEL);
     }
 
-    private boolean isAddOp() {
-        if (currentToken == null) return false;
-
-        String text = currentToken.getText();
-        return text.equals("+") || text.equals("-");
-    }
+    // Rules 32 to 40 are binary operator levels, so they share one loop instead of recursing per level and
+    // per parenthesis. Open levels sit on an explicit stack as (node, level, operators taken) entries, and a
+    // ( in a factor pushes a marker entry; each level traces and builds the same nodes as a rule method would.
+    private void operatorExpression(int level) {
+        int[] stack = new int[3 * 16];
+        int top = 0;
+        while (true) {
+            // Open each level down to a factor
+            for (; level < FACTOR_LEVEL; level++) {
+                if (top + 3 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = startNode(LEVEL_NODES[level]);
+                stack[top++] = level;
+                stack[top++] = 0;
+                matchRule(LEVEL_RULES[level]);
+            }
 
-    // 37. AddOp -> + | -
-    private void addOp() {
-        matchRule("AddOp");
+            // 40. Factor -> ID | Number | ( Expression ) | String Literal
+            matchRule("Factor");
+            if (inSet(OPERANDS, currentKind())) {
+                consume();
+            } else if (match(TokenKind.LEFT_PAREN)) {
+                if (top + 3 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = SyntaxTree.NONE;
+                stack[top++] = PARENTHESIS;
+                stack[top++] = 0;
+                level = EXPRESSION_LEVEL;
+                continue;
+            } else {
+                error("Expected identifier, number, string literal, or ( in factor");
+                synchronize(SYNC_FACTOR);
+            }
 
-        if (matchText("+") || matchText("-")) {
-            // Successfully parsed add operator
-        } else {
-            error("Expected add operator (+ or -)");
-            // No synchronization needed here since this is part of a larger expression
+            // Close levels until one takes an operator and wants another operand
+            boolean closing = true;
+            while (closing) {
+                if (top == 0) {
+                    return;
+                }
+                int openLevel = stack[top - 2];
+                int operators = stack[top - 1];
+                if (openLevel == PARENTHESIS) {
+                    top -= 3;
+                    if (!match(TokenKind.RIGHT_PAREN)) {
+                        error("Expected ) at end of expression");
+                        synchronize(SYNC_FACTOR);
+                    }
+                } else if (operators < MAX_OPERATORS[openLevel] && takeOperator(openLevel)) {
+                    stack[top - 1]++;
+                    level = openLevel + 1;
+                    closing = false;
+                } else {
+                    finishNode(stack[top - 3]);
+                    top -= 3;
+                }
+            }
         }
     }
 
-    // 38. Term -> Factor | Term MulOp Factor
-    private void term() {
-        matchRule("Term");
-
-        factor();
-
-        while (currentToken != null && isMulOp()) {
-            mulOp();
-            factor();
+    // Takes the operator of a level if there is one; a comparison is required, so there it always goes on
+    private boolean takeOperator(int level) {
+        if (!hasToken()) {
+            if (level == CONDITION_LEVEL) {
+                error("Unexpected end of input in condition");
+            }
+            return false;
         }
-    }
-
-    private boolean isMulOp() {
-        if (currentToken == null) return false;
-
-        String text = currentToken.getText();
-        return text.equals("*") || text.equals("/");
-    }
-
-    // 39. MulOp -> * | /
-    private void mulOp() {
-        matchRule("MulOp");
-
-        if (matchText("*") || matchText("/")) {
-            // Successfully parsed multiply operator
-        } else {
-            error("Expected multiply operator (* or /)");
-            // No synchronization needed here since this is part of a larger expression
-        }
-    }
-
-    // 40. Factor -> ID | Number | ( Expression )
-//    private void factor() {
-//        matchRule("Factor");
-//
-//        if (currentToken.getType().equals("Identifier")) {
-//            consume();
-//        } else if (currentToken.getType().equals("Constant")) {
-//            consume();
-//        } else if (matchText("(")) {
-//            expression();
-//
-//            if (matchText(")")) {
-//                // Successfully parsed parenthesized expression
-//            } else {
-//                error("Expected ) at end of expression");
-//            }
-//        } else {
-//            error("Expected identifier, number, or ( in factor");
-//        }
-//    }
-    // 40. Factor -> ID | Number | ( Expression ) | String Literal
-    private void factor() {
-        matchRule("Factor");
-
-        if (currentToken.getType().equals("Identifier")) {
-            consume();
-        } else if (currentToken.getType().equals("Constant")) {
-            consume();
-        } else if (currentToken.getType().equals("String Literal")) {
-            // Add support for string literals
+        boolean present = inSet(LEVEL_OPERATORS[level], currentKind());
+        if (!present && level != CONDITION_LEVEL) {
+            return false;
+        }
+        matchRule(OPERATOR_RULES[level]);
+        if (present) {
             consume();
-        } else if (matchText("(")) {
-            expression();
-
-            if (matchText(")")) {
-                // Successfully parsed parenthesized expression
-            } else {
-                error("Expected ) at end of expression");
-                synchronize("+", "-", "*", "/", ")", ";");
-            }
         } else {
-            error("Expected identifier, number, string literal, or ( in factor");
-            synchronize("+", "-", "*", "/", ")", ";");
+            error("Expected comparison operator (==, !=, >, >=, <, <=)");
         }
+        return true;
     }
+
     // 41. Comment -> /< STR >/ | /* STR
     private void comment() {
+        int node = startNode(NodeKind.COMMENT);
         matchRule("Comment");
 
-        if (currentToken.getType().equals("Comment")) {
+        if (currentKind().isComment()) {
             consume();
         } else {
             error("Expected comment");
-            synchronize(";", "{", "}");
+            synchronize(SYNC_MEMBER);
         }
+        finishNode(node);
     }
 
     // 42. RequireCommand -> Require ( F_name.txt ) ;
     private void requireCommand() {
+        int node = startNode(NodeKind.REQUIRE_COMMAND);
         matchRule("RequireCommand");
 
-        if (matchText("Require")) {
-            if (matchText("(")) {
+        if (match(TokenKind.REQUIRE)) {
+            if (match(TokenKind.LEFT_PAREN)) {
                 fName();
 
-                if (matchText(")")) {
-                    if (matchText(";")) {
+                if (match(TokenKind.RIGHT_PAREN)) {
+                    if (match(TokenKind.SEMICOLON)) {
                         // Successfully parsed require command
                     } else {
                         error("Expected ; after require command");
-                        synchronize(";", "{", "}");
+                        synchronize(SYNC_MEMBER);
                     }
                 } else {
                     error("Expected ) in require command");
-                    synchronize(";");
+                    synchronize(SYNC_SEMICOLON);
                 }
             } else {
                 error("Expected ( after Require");
-                synchronize("(", ";");
+                synchronize(SYNC_CALL);
             }
         } else {
             error("Expected Require");
-            synchronize(";");
+            synchronize(SYNC_SEMICOLON);
         }
+        finishNode(node);
     }
 
     // 43. F_name -> STR
     private void fName() {
         matchRule("F_name");
 
-        if (currentToken.getType().equals("String Literal") ||
-                currentToken.getType().equals("Identifier")) {
+        if (is(TokenKind.STRING_LITERAL) ||
+                is(TokenKind.IDENTIFIER)) {
             consume();
         } else {
             error("Expected file name");
         }
     }
 
+    public SyntaxTree getSyntaxTree() {
+        return tree;
+    }
+
+    public ParseStatus getStatus() {
+        return status;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    // Index of the first token not consumed yet
+    public int getTokenIndex() {
+        return currentTokenIndex;
+    }
+
     public String getParserOutput() {
         StringBuilder output = new StringBuilder();
-
-        for (String rule : matchedRules) {
-            output.append(rule).append("\n");
+        try {
+            writeParserOutput(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return output.toString();
+    }
 
-        for (String error : errors) {
-            output.append(error).append("\n");
+    // Same text as getParserOutput, written piece by piece
+    public void writeParserOutput(Appendable out) throws IOException {
+        // Rules and errors are only kept by the default trace
+        if (listener instanceof ParseTrace) {
+            ParseTrace trace = (ParseTrace) listener;
+            for (String rule : trace.getMatchedRules()) {
+                out.append(rule).append("\n");
+            }
+            for (String error : trace.getErrors()) {
+                out.append(error).append("\n");
+            }
         }
 
-        output.append("Total NO of errors: ").append(errorCount);
-        return output.toString();
+        if (status.isAborted()) {
+            out.append("Parsing aborted: ").append(status.getDescription()).append("\n");
+        }
+        out.append("Total NO of errors: ").append(String.valueOf(errorCount));
     }
 }
 
@@ -0,0 +1,495 @@
+import java.util.*;
+
+// Table-driven LL(1) parser for the grammar below; it traces and builds the same tree as the recursive Parser
+// for input without syntax errors, and gives up at the first mismatch so the caller can reparse for diagnostics.
+// It is a fast path for valid input only: it has no error recovery, so input with errors is parsed twice.
+// The grammar restates the rule methods of Parser; compareWithParser, run by Runner --check-grammar, finds
+// input on which the two disagree.
+public class PredictiveParser {
+    // One alternative per line: Lhs -> symbols. Symbols are nonterminals (Mixed case), token kinds (UPPER case),
+    // `rule text` for a matched rule, <NODE_KIND / > to open and close a tree node, and [kinds] guards that
+    // check the next tokens when the current token alone cannot pick the alternative. Earlier alternatives win.
+    private static final String[] GRAMMAR = {
+            // 1 - 3
+            "Program -> <PROGRAM `Program` StartSymbols ClassDeclaration EndSymbols >",
+            "StartSymbols -> `Start_Symbols` START_SYMBOL",
+            "EndSymbols -> `End_Symbols` END_SYMBOL",
+            // 4 - 7
+            "ClassDeclaration -> <CLASS_DECLARATION `ClassDeclaration` TYPE IDENTIFIER Inheritance ClassBody >",
+            "Inheritance -> DERIVED_FROM IDENTIFIER",
+            "Inheritance ->",
+            "ClassBody -> <CLASS_BODY `ClassBody` LEFT_BRACE ClassMembers RIGHT_BRACE >",
+            "ClassMembers -> `ClassMembers` MemberList",
+            "MemberList -> ClassMember MemberList",
+            "MemberList ->",
+            "ClassMember -> `ClassMember` Member",
+            "Member -> Comment",
+            "Member -> RequireCommand",
+            "Member -> [DATA_TYPE IDENTIFIER LEFT_PAREN] MethodDecl",
+            "Member -> VariableDecl",
+            // 8 - 15
+            "MethodDecl -> <METHOD_DECL `MethodDecl` FuncDecl MethodBody >",
+            "MethodBody -> SEMICOLON",
+            "MethodBody -> LEFT_BRACE VariableDecls Statements RIGHT_BRACE",
+            "FuncDecl -> <FUNC_DECL `FuncDecl` DATA_TYPE IDENTIFIER LEFT_PAREN ParameterList RIGHT_PAREN >",
+            "ParameterList -> <PARAMETER_LIST Parameters >",
+            "Parameters -> [RIGHT_PAREN] `ParameterList -> \u03b5`",
+            "Parameters -> Parameter ParameterTail `Parameters -> Parameter | Parameters , Parameter` `ParameterList -> Parameters`",
+            "ParameterTail -> COMMA Parameter ParameterTail",
+            "ParameterTail ->",
+            "Parameter -> <PARAMETER DATA_TYPE IDENTIFIER `Parameter -> Type ID` >",
+            "VariableDecl -> <VARIABLE_DECL DATA_TYPE IdList VariableDeclEnd >",
+            "VariableDeclEnd -> SEMICOLON `VariableDecl -> Type IDList ;`",
+            "VariableDeclEnd -> LEFT_BRACKET IDENTIFIER RIGHT_BRACKET SEMICOLON `VariableDecl -> Type IDList [ ID ] ;`",
+            "VariableDecls -> VariableDeclList `VariableDecls -> VariableDecl VariableDecls | \u03b5`",
+            "VariableDeclList -> VariableDecl VariableDeclList",
+            "VariableDeclList ->",
+            "IdList -> IDENTIFIER IdTail `IDList -> ID | IDList , ID`",
+            "IdTail -> COMMA IDENTIFIER IdTail",
+            "IdTail ->",
+            // 16 - 22
+            "Statements -> StatementList `Statements -> Statement Statements | \u03b5`",
+            "StatementList -> Statement StatementList",
+            "StatementList ->",
+            "Statement -> `Statement` StatementBody",
+            "StatementBody -> [IDENTIFIER ASSIGN] Assignment",
+            "StatementBody -> [IDENTIFIER LEFT_PAREN] FuncCallStmt",
+            "StatementBody -> TrueForStmt",
+            "StatementBody -> HoweverStmt",
+            "StatementBody -> WhenStmt",
+            "StatementBody -> RespondwithStmt",
+            "StatementBody -> EndthisStmt",
+            "StatementBody -> ScanStmt",
+            "StatementBody -> SrapStmt",
+            "Assignment -> <ASSIGNMENT IDENTIFIER ASSIGN Expression SEMICOLON `Assignment -> ID = Expression ;` >",
+            "SimpleExpression -> IDENTIFIER",
+            "SimpleExpression -> CONSTANT",
+            "FuncCallStmt -> <FUNC_CALL_STMT FuncCall SEMICOLON `FuncCallStmt -> FuncCall ;` >",
+            "FuncCall -> <FUNC_CALL IDENTIFIER LEFT_PAREN ArgumentList RIGHT_PAREN `FuncCall -> ID ( ArgumentList ) ;` >",
+            "ArgumentList -> <ARGUMENT_LIST Arguments >",
+            "Arguments -> [RIGHT_PAREN] `ArgumentList -> \u03b5`",
+            "Arguments -> SimpleExpression ArgumentTail `ArgumentList -> ArgumentSequence`",
+            "ArgumentTail -> COMMA SimpleExpression ArgumentTail",
+            "ArgumentTail ->",
+            // 23 - 31
+            "TrueForStmt -> <TRUE_FOR_STMT `TrueForStmt` TRUE_FOR LEFT_PAREN ConditionExpression RIGHT_PAREN Block TrueForElse >",
+            "TrueForElse -> `TrueForElse` ELSE Block",
+            "TrueForElse ->",
+            "HoweverStmt -> <HOWEVER_STMT `HoweverStmt` HOWEVER LEFT_PAREN ConditionExpression RIGHT_PAREN Block >",
+            "WhenStmt -> <WHEN_STMT `WhenStmt` WHEN LEFT_PAREN Expression SEMICOLON Expression SEMICOLON Expression RIGHT_PAREN Block >",
+            "RespondwithStmt -> <RESPONDWITH_STMT `RespondwithStmt` RESPONDWITH RespondValue SEMICOLON >",
+            "RespondValue -> [IDENTIFIER SEMICOLON] IDENTIFIER",
+            "RespondValue -> Expression",
+            "EndthisStmt -> <ENDTHIS_STMT `EndthisStmt` ENDTHIS SEMICOLON >",
+            "ScanStmt -> <SCAN_STMT `ScanStmt` SCAN LEFT_PAREN CONDITIONOF IDENTIFIER RIGHT_PAREN SEMICOLON >",
+            "SrapStmt -> <SRAP_STMT `SrapStmt` SRAP LEFT_PAREN Expression RIGHT_PAREN SEMICOLON >",
+            "Block -> <BLOCK `Block` LEFT_BRACE Statements RIGHT_BRACE >",
+            // 32 - 40
+            "ConditionExpression -> <CONDITION_EXPRESSION `ConditionExpression` Condition ConditionTail >",
+            "ConditionTail -> `LogicalOp` LOGIC_OPERATOR Condition",
+            "ConditionTail ->",
+            "Condition -> <CONDITION `Condition` Expression `ComparisonOp` COMPARISON_OPERATOR Expression >",
+            "Expression -> <EXPRESSION `Expression` Term ExpressionTail >",
+            "ExpressionTail -> `AddOp` ADD_OPERATOR Term ExpressionTail",
+            "ExpressionTail ->",
+            "Term -> <TERM `Term` Factor TermTail >",
+            "TermTail -> `MulOp` MUL_OPERATOR Factor TermTail",
+            "TermTail ->",
+            "Factor -> `Factor` Operand",
+            "Operand -> IDENTIFIER",
+            "Operand -> CONSTANT",
+            "Operand -> STRING_LITERAL",
+            "Operand -> LEFT_PAREN Expression RIGHT_PAREN",
+            // 41 - 43
+            "Comment -> <COMMENT `Comment` COMMENT_TOKEN >",
+            "RequireCommand -> <REQUIRE_COMMAND `RequireCommand` REQUIRE LEFT_PAREN `F_name` FILE_NAME RIGHT_PAREN SEMICOLON >",
+    };
+
+    // Terminals that stand for a group of token kinds
+    private static final Map<String, TokenKind[]> TOKEN_GROUPS = new HashMap<>();
+
+    static {
+        TOKEN_GROUPS.put("DATA_TYPE", new TokenKind[]{TokenKind.ITY, TokenKind.SITY, TokenKind.CWQ, TokenKind.CWQ_SEQUENCE,
+                TokenKind.IFITY, TokenKind.SIFITY, TokenKind.VALUELESS, TokenKind.LOGICAL});
+        TOKEN_GROUPS.put("LOGIC_OPERATOR", new TokenKind[]{TokenKind.AND, TokenKind.OR, TokenKind.NOT});
+        TOKEN_GROUPS.put("COMPARISON_OPERATOR", new TokenKind[]{TokenKind.EQUAL, TokenKind.NOT_EQUAL, TokenKind.GREATER,
+                TokenKind.GREATER_EQUAL, TokenKind.LESS, TokenKind.LESS_EQUAL});
+        TOKEN_GROUPS.put("ADD_OPERATOR", new TokenKind[]{TokenKind.PLUS, TokenKind.MINUS});
+        TOKEN_GROUPS.put("MUL_OPERATOR", new TokenKind[]{TokenKind.STAR, TokenKind.SLASH});
+        TOKEN_GROUPS.put("COMMENT_TOKEN", new TokenKind[]{TokenKind.COMMENT_START, TokenKind.COMMENT_END, TokenKind.LINE_COMMENT});
+        TOKEN_GROUPS.put("FILE_NAME", new TokenKind[]{TokenKind.STRING_LITERAL, TokenKind.IDENTIFIER});
+    }
+
+    // Symbols are ints: the top byte says what they are, the rest indexes the matching table
+    private static final int TERMINAL = 0;
+    private static final int NONTERMINAL = 1;
+    private static final int TRACE = 2;
+    private static final int START_NODE = 3;
+    private static final int FINISH_NODE = 4;
+
+    private static final int KIND_COUNT = TokenKind.values().length;
+    // The limits are checked every 1024 tokens
+    private static final int LIMIT_CHECK_MASK = 1023;
+
+    private static final List<Long> terminalSets = new ArrayList<>();
+    private static final Map<String, Integer> terminalIds = new HashMap<>();
+    private static final List<String> nonterminals = new ArrayList<>();
+    private static final List<String> ruleTexts = new ArrayList<>();
+
+    private static int[] productionLhs;
+    private static int[][] productionRhs;
+    private static long[][] productionGuards;
+    // PREDICT[nonterminal * KIND_COUNT + kind] lists the productions to try in order, or is null for a syntax error
+    private static int[][] predict;
+
+    private static long[] first;
+    private static boolean[] nullable;
+
+    static {
+        buildTables();
+    }
+
+    private static void buildTables() {
+        int count = GRAMMAR.length;
+        productionLhs = new int[count];
+        productionRhs = new int[count][];
+        productionGuards = new long[count][];
+        for (String line : GRAMMAR) {
+            String lhs = line.substring(0, line.indexOf("->")).trim();
+            if (!nonterminals.contains(lhs)) {
+                nonterminals.add(lhs);
+            }
+        }
+
+        for (int p = 0; p < count; p++) {
+            String line = GRAMMAR[p];
+            int arrow = line.indexOf("->");
+            productionLhs[p] = nonterminals.indexOf(line.substring(0, arrow).trim());
+            List<Integer> rhs = new ArrayList<>();
+            String body = line.substring(arrow + 2).trim();
+            int i = 0;
+            while (i < body.length()) {
+                char c = body.charAt(i);
+                if (c == ' ') {
+                    i++;
+                } else if (c == '`') {
+                    int end = body.indexOf('`', i + 1);
+                    ruleTexts.add(body.substring(i + 1, end));
+                    rhs.add(symbol(TRACE, ruleTexts.size() - 1));
+                    i = end + 1;
+                } else if (c == '[') {
+                    int end = body.indexOf(']', i);
+                    String[] names = body.substring(i + 1, end).split(" ");
+                    productionGuards[p] = new long[names.length];
+                    for (int g = 0; g < names.length; g++) {
+                        productionGuards[p][g] = terminalSets.get(terminal(names[g]));
+                    }
+                    i = end + 1;
+                } else {
+                    int end = body.indexOf(' ', i);
+                    if (end < 0) end = body.length();
+                    rhs.add(parseSymbol(body.substring(i, end)));
+                    i = end;
+                }
+            }
+            productionRhs[p] = rhs.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        computeFirstSets();
+
+        predict = new int[nonterminals.size() * KIND_COUNT][];
+        // Alternatives that can derive nothing and have no guard take every token no other alternative wants
+        for (int pass = 0; pass < 2; pass++) {
+            for (int p = 0; p < count; p++) {
+                boolean fallback = productionGuards[p] == null && sequenceNullable(productionRhs[p]);
+                if ((pass == 1) != fallback) continue;
+                long predicted = productionGuards[p] != null ? productionGuards[p][0] : sequenceFirst(productionRhs[p]);
+                for (int kind = 0; kind < KIND_COUNT; kind++) {
+                    int cell = productionLhs[p] * KIND_COUNT + kind;
+                    if (fallback ? predict[cell] == null : (predicted & (1L << kind)) != 0) {
+                        predict[cell] = append(predict[cell], p);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int parseSymbol(String name) {
+        if (name.equals(">")) {
+            return symbol(FINISH_NODE, 0);
+        }
+        if (name.startsWith("<")) {
+            return symbol(START_NODE, NodeKind.valueOf(name.substring(1)).ordinal());
+        }
+        if (nonterminals.contains(name)) {
+            return symbol(NONTERMINAL, nonterminals.indexOf(name));
+        }
+        return symbol(TERMINAL, terminal(name));
+    }
+
+    private static int terminal(String name) {
+        Integer id = terminalIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        long set = 0;
+        TokenKind[] group = TOKEN_GROUPS.get(name);
+        if (group == null) {
+            group = new TokenKind[]{TokenKind.valueOf(name)};
+        }
+        for (TokenKind kind : group) {
+            set |= 1L << kind.ordinal();
+        }
+        terminalSets.add(set);
+        terminalIds.put(name, terminalSets.size() - 1);
+        return terminalSets.size() - 1;
+    }
+
+    private static void computeFirstSets() {
+        first = new long[nonterminals.size()];
+        nullable = new boolean[nonterminals.size()];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < productionLhs.length; p++) {
+                int lhs = productionLhs[p];
+                long newFirst = first[lhs] | sequenceFirst(productionRhs[p]);
+                boolean newNullable = nullable[lhs] || sequenceNullable(productionRhs[p]);
+                if (newFirst != first[lhs] || newNullable != nullable[lhs]) {
+                    first[lhs] = newFirst;
+                    nullable[lhs] = newNullable;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static long sequenceFirst(int[] symbols) {
+        long set = 0;
+        for (int symbol : symbols) {
+            if (tag(symbol) == TERMINAL) {
+                return set | terminalSets.get(value(symbol));
+            }
+            if (tag(symbol) == NONTERMINAL) {
+                set |= first[value(symbol)];
+                if (!nullable[value(symbol)]) {
+                    return set;
+                }
+            }
+        }
+        return set;
+    }
+
+    private static boolean sequenceNullable(int[] symbols) {
+        for (int symbol : symbols) {
+            if (tag(symbol) == TERMINAL || (tag(symbol) == NONTERMINAL && !nullable[value(symbol)])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] append(int[] productions, int production) {
+        if (productions == null) {
+            return new int[]{production};
+        }
+        int[] result = Arrays.copyOf(productions, productions.length + 1);
+        result[productions.length] = production;
+        return result;
+    }
+
+    private static int symbol(int tag, int value) {
+        return tag << 24 | value;
+    }
+
+    private static int tag(int symbol) {
+        return symbol >>> 24;
+    }
+
+    private static int value(int symbol) {
+        return symbol & 0xFFFFFF;
+    }
+
+    private static final long[] TERMINAL_SETS;
+    private static final String[] RULE_TEXTS;
+
+    static {
+        TERMINAL_SETS = terminalSets.stream().mapToLong(Long::longValue).toArray();
+        RULE_TEXTS = ruleTexts.toArray(new String[0]);
+    }
+
+    private final TokenSource tokens;
+    private final boolean trace;
+    private final SyntaxTree tree = new SyntaxTree();
+    private int currentTokenIndex = 0;
+    private ParseLimits limits;
+
+    // Matched rules as indexes into RULE_TEXTS with the line they were matched on
+    private int[] tracedRules = new int[256];
+    private int[] tracedLines = new int[256];
+    private int traceSize = 0;
+
+    public PredictiveParser(TokenSource tokens, boolean trace) {
+        this.tokens = tokens;
+        this.trace = trace;
+    }
+
+    // Past the deadline or once cancelled the parse gives up like on an error, and the caller decides what to do
+    public void setLimits(ParseLimits limits) {
+        this.limits = limits;
+    }
+
+    // Returns false at the first token the table has no entry for
+    public boolean parse() {
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = symbol(NONTERMINAL, nonterminals.indexOf("Program"));
+        int openNode = SyntaxTree.NONE;
+
+        while (top > 0) {
+            int symbol = stack[--top];
+            switch (tag(symbol)) {
+                case TERMINAL: {
+                    if (!tokens.ensure(currentTokenIndex)) {
+                        return false;
+                    }
+                    TokenKind kind = tokens.kind(currentTokenIndex);
+                    if ((TERMINAL_SETS[value(symbol)] & (1L << kind.ordinal())) == 0) {
+                        return false;
+                    }
+                    tree.addToken(openNode, tokens, currentTokenIndex);
+                    currentTokenIndex++;
+                    if (limits != null && (currentTokenIndex & LIMIT_CHECK_MASK) == 0 && limits.check() != null) {
+                        return false;
+                    }
+                    break;
+                }
+                case NONTERMINAL: {
+                    int production = choose(value(symbol));
+                    if (production < 0) {
+                        return false;
+                    }
+                    int[] rhs = productionRhs[production];
+                    if (top + rhs.length > stack.length) {
+                        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + rhs.length));
+                    }
+                    for (int i = rhs.length - 1; i >= 0; i--) {
+                        stack[top++] = rhs[i];
+                    }
+                    break;
+                }
+                case TRACE:
+                    if (trace) {
+                        traceRule(value(symbol));
+                    }
+                    break;
+                case START_NODE:
+                    openNode = tree.addNode(NodeKind.of(value(symbol)), openNode, currentTokenIndex, currentLine());
+                    break;
+                default:
+                    openNode = tree.parent(openNode);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private int choose(int nonterminal) {
+        TokenKind kind = tokens.ensure(currentTokenIndex) ? tokens.kind(currentTokenIndex) : TokenKind.END_OF_FILE;
+        int[] candidates = predict[nonterminal * KIND_COUNT + kind.ordinal()];
+        if (candidates == null) {
+            return -1;
+        }
+        for (int production : candidates) {
+            if (guardHolds(productionGuards[production])) {
+                return production;
+            }
+        }
+        return -1;
+    }
+
+    private boolean guardHolds(long[] guard) {
+        if (guard == null) {
+            return true;
+        }
+        for (int i = 0; i < guard.length; i++) {
+            int index = currentTokenIndex + i;
+            if (!tokens.ensure(index) || (guard[i] & (1L << tokens.kind(index).ordinal())) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void traceRule(int rule) {
+        if (traceSize == tracedRules.length) {
+            tracedRules = Arrays.copyOf(tracedRules, traceSize * 2);
+            tracedLines = Arrays.copyOf(tracedLines, traceSize * 2);
+        }
+        tracedRules[traceSize] = rule;
+        tracedLines[traceSize] = currentLine();
+        traceSize++;
+    }
+
+    private int currentLine() {
+        if (tokens.ensure(currentTokenIndex)) {
+            return tokens.line(currentTokenIndex);
+        }
+        return tokens.size() == 0 ? 1 : tokens.line(tokens.size() - 1);
+    }
+
+    // Hands the matched rules to the listener in the order they were matched
+    public void replayTrace(ParseListener listener) {
+        for (int i = 0; i < traceSize; i++) {
+            listener.ruleMatched(RULE_TEXTS[tracedRules[i]], tracedLines[i]);
+        }
+    }
+
+    // Parses the tokens with the tables and with the rule methods and describes the first difference, or returns
+    // null. The tables must accept exactly the input the rule methods parse without errors, and for that input
+    // match the same rules, build the same tree and stop at the same token
+    public static String compareWithParser(TokenBuffer tokens) {
+        ParseTrace trace = new ParseTrace(null);
+        Parser parser = new Parser(tokens, trace, TraceLevel.FULL);
+        parser.parseProgram();
+        PredictiveParser predictive = new PredictiveParser(tokens, true);
+        boolean accepted = predictive.parse();
+        if (accepted != (parser.getErrorCount() == 0)) {
+            return accepted ? "The tables accept input the rule methods find " + parser.getErrorCount() + " errors in"
+                    : "The tables reject input the rule methods accept, at token " + predictive.getTokenIndex();
+        }
+        if (!accepted) {
+            return null;
+        }
+
+        ParseTrace tableTrace = new ParseTrace(null);
+        predictive.replayTrace(tableTrace);
+        List<String> rules = trace.getMatchedRules();
+        List<String> tableRules = tableTrace.getMatchedRules();
+        for (int i = 0; i < Math.max(rules.size(), tableRules.size()); i++) {
+            String rule = i < rules.size() ? rules.get(i) : "nothing";
+            String tableRule = i < tableRules.size() ? tableRules.get(i) : "nothing";
+            if (!rule.equals(tableRule)) {
+                return "Rule " + (i + 1) + " differs: the tables matched " + tableRule + ", the rule methods "
+                        + rule;
+            }
+        }
+        int node = predictive.getSyntaxTree().firstDifference(parser.getSyntaxTree());
+        if (node != SyntaxTree.NONE) {
+            return "Tree node " + node + " differs";
+        }
+        if (predictive.getTokenIndex() != parser.getTokenIndex()) {
+            return "The tables stop at token " + predictive.getTokenIndex() + ", the rule methods at token "
+                    + parser.getTokenIndex();
+        }
+        return null;
+    }
+
+    public SyntaxTree getSyntaxTree() {
+        return tree;
+    }
+
+    public int getTokenIndex() {
+        return currentTokenIndex;
+    }
+}
@@ -1,4 +1,6 @@
 import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
@@ -7,10 +9,13 @@ import java.util.List;
 public class Program {
     private static JFrame frame;
     private static JTextArea codeArea;
+    private static IncrementalLexer codeTokens;
+    private static IncrementalParser codeParser = new IncrementalParser();
     private static JTextArea outputArea;
     private static JTabbedPane outputTabs;
     private static JTextArea scannerOutput;
     private static JTextArea parserOutput;
+    private static JTextArea semanticOutput;
     private static JButton scanButton;
     private static JButton parseButton;
     private static JButton loadButton;
@@ -62,6 +67,29 @@ public class Program {
         codeArea.setFont(new Font("Monospaced", Font.PLAIN, 14));
         codeArea.setTabSize(4);
         codeArea.setBackground(Color.WHITE);
+        // Keep the code tokenized as it is typed so Scan and Parse do not start from scratch
+        codeTokens = new IncrementalLexer("");
+        codeArea.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                try {
+                    codeParser.tokensChanged(
+                            codeTokens.edit(e.getOffset(), 0, e.getDocument().getText(e.getOffset(), e.getLength())));
+                } catch (BadLocationException ex) {
+                    codeTokens = new IncrementalLexer(codeArea.getText());
+                    codeParser.reset();
+                }
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                codeParser.tokensChanged(codeTokens.edit(e.getOffset(), e.getLength(), ""));
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
         JScrollPane codeScrollPane = new JScrollPane(codeArea);
         leftPanel.add(codeScrollPane, BorderLayout.CENTER);
 
@@ -103,8 +131,14 @@ public class Program {
         parserOutput.setEditable(false);
         JScrollPane parserScrollPane = new JScrollPane(parserOutput);
 
+        semanticOutput = new JTextArea();
+        semanticOutput.setFont(new Font("Monospaced", Font.PLAIN, 14));
+        semanticOutput.setEditable(false);
+        JScrollPane semanticScrollPane = new JScrollPane(semanticOutput);
+
         outputTabs.addTab("Scanner Output", scannerScrollPane);
         outputTabs.addTab("Parser Output", parserScrollPane);
+        outputTabs.addTab("Semantic Output", semanticScrollPane);
 
         rightPanel.add(outputTabs, BorderLayout.CENTER);
 
@@ -161,16 +195,12 @@ public class Program {
 
     private static void scanCode() {
         try {
-            // Save code to a temporary file
-            File tempFile = new File("temp_code.txt");
-            Files.writeString(tempFile.toPath(), codeArea.getText());
-
-            // Run the scanner
+            // Run the scanner on the tokens kept up to date while editing
             Scanner scanner = new Scanner();
-            List<Token> tokens = scanner.scanFile(tempFile.getPath());
+            List<Token> tokens = scanner.scanDocument(codeTokens);
 
             // Display scanner output
-            scannerOutput.setText(scanner.getScannerOutput());
+            showReport(scannerOutput, "", scanner::writeScannerOutput);
             outputTabs.setSelectedIndex(0); // Show the scanner tab
 
             JOptionPane.showMessageDialog(frame, "Scanning completed with " + scanner.getErrorCount() + " errors",
@@ -185,27 +215,40 @@ public class Program {
     private static void parseCode() {
         try {
             // First scan the code
-            File tempFile = new File("temp_code.txt");
-            Files.writeString(tempFile.toPath(), codeArea.getText());
-
             Scanner scanner = new Scanner();
-            List<Token> tokens = scanner.scanFile(tempFile.getPath());
+            scanner.scanDocument(codeTokens);
 
             // Display scanner output
-            scannerOutput.setText(scanner.getScannerOutput());
+            showReport(scannerOutput, "", scanner::writeScannerOutput);
 
             // Then parse if scanning completed successfully
             if (scanner.getErrorCount() == 0) {
-                Parser parser = new Parser(tokens);
-                parser.parseProgram();
+                // Only the method or block that changed since the last parse is parsed again
+                codeParser.parse(scanner.getTokenBuffer());
 
                 // Display parser output
-                parserOutput.setText(parser.getParserOutput());
-                outputTabs.setSelectedIndex(1); // Show the parser tab
-
-                JOptionPane.showMessageDialog(frame, "Parsing completed", "Parse Complete", JOptionPane.INFORMATION_MESSAGE);
+                showReport(parserOutput, "", codeParser::writeParserOutput);
+
+                // Then check the names and types, also on a tree with parse errors
+                SemanticAnalyzer analyzer = new SemanticAnalyzer(codeParser.getSyntaxTree());
+                analyzer.setRequiresFiles(scanner.requiresFiles());
+                analyzer.analyze();
+                TypeChecker checker = new TypeChecker(codeParser.getSyntaxTree(), analyzer);
+                checker.check();
+                showReport(semanticOutput, "", out -> {
+                    analyzer.writeSemanticOutput(out);
+                    out.append("\n");
+                    checker.writeTypeOutput(out);
+                });
+                int semanticErrors = analyzer.getErrorCount() + checker.getErrorCount();
+                outputTabs.setSelectedIndex(semanticErrors > 0 && codeParser.getErrorCount() == 0 ? 2 : 1);
+
+                JOptionPane.showMessageDialog(frame, "Parsing completed with " + codeParser.getErrorCount()
+                        + " errors and " + semanticErrors + " semantic errors",
+                        "Parse Complete", JOptionPane.INFORMATION_MESSAGE);
             } else {
-                parserOutput.setText("Cannot parse due to scanner errors.\n\n" + scanner.getScannerOutput());
+                showReport(parserOutput, "Cannot parse due to scanner errors.\n\n", scanner::writeScannerOutput);
+                semanticOutput.setText("");
                 outputTabs.setSelectedIndex(1); // Show the parser tab
 
                 JOptionPane.showMessageDialog(frame, "Cannot parse - fix scanner errors first",
@@ -217,4 +260,54 @@ public class Program {
             e.printStackTrace();
         }
     }
+
+    private interface Report {
+        void writeTo(Appendable out) throws IOException;
+    }
+
+    // Reports are appended to the text area in chunks instead of being built into one string first
+    private static void showReport(JTextArea area, String header, Report report) throws IOException {
+        area.setText(header);
+        try (Writer writer = new TextAreaWriter(area)) {
+            report.writeTo(writer);
+        }
+    }
+
+    private static class TextAreaWriter extends Writer {
+        private static final int CHUNK_SIZE = 65536;
+
+        private final JTextArea area;
+        private final StringBuilder chunk = new StringBuilder();
+
+        TextAreaWriter(JTextArea area) {
+            this.area = area;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            chunk.append(buffer, offset, length);
+            if (chunk.length() >= CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            chunk.append(text, offset, offset + length);
+            if (chunk.length() >= CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() {
+            area.append(chunk.toString());
+            chunk.setLength(0);
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
 }
@@ -0,0 +1,99 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+// Encodes report text as UTF-8 straight into a channel through fixed buffers, so a report of any size
+// takes constant memory; pass it wherever a report is written to an Appendable
+public class ReportWriter extends Writer {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 2);
+    private boolean closed;
+
+    public ReportWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    public ReportWriter(OutputStream out) {
+        this(Channels.newChannel(out));
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int count = Math.min(length, chars.remaining());
+            chars.put(buffer, offset, count);
+            offset += count;
+            length -= count;
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(String text, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int count = Math.min(length, chars.remaining());
+            chars.put(text, offset, offset + count);
+            offset += count;
+            length -= count;
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        encode(false);
+        drain();
+    }
+
+    // Flushes and ends the encoding; the channel is left open for the caller to close
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        encode(true);
+        encoder.flush(bytes);
+        drain();
+        closed = true;
+    }
+
+    // Moves the buffered characters through the encoder; a surrogate pair split across writes stays buffered
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                break;
+            }
+        }
+        chars.compact();
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Report writer is closed");
+        }
+    }
+}
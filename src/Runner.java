@@ -0,0 +1,266 @@
+import java.io.*;
+import java.util.*;
+
+// Headless entry point: compiles a source file and runs one of its methods on the VirtualMachine.
+//   java Runner [--bytecode] [--table] [--check-grammar] [--parallel] [-I DIR]... [--report FILE] [--max-errors N] [--timeout MS] [--jit THRESHOLD] [--bench N] file [method [arguments...]]
+// Without a method name the first method that takes no parameters is run. --jit compiles the class to JVM
+// bytecode once a function has been called THRESHOLD times, 0 for right away, and checks the run against the
+// interpreter. --bench runs the method N more times after a warm-up and reports instructions per second.
+// --table parses with the LL(1) tables of the PredictiveParser, which pays off only for input without syntax
+// errors, and --parallel parses the class members on the common ForkJoinPool. --check-grammar only parses the file
+// with both the tables and the rule methods of the Parser, reports where they disagree and exits. --report writes
+// every matched rule and parse error to FILE instead of printing the errors. --max-errors and --timeout stop the
+// parse after N errors or MS milliseconds. Each -I adds a directory where Require'd files are looked for when they
+// are neither next to the including file nor in the working directory.
+public class Runner {
+    private static final String USAGE = "Usage: java Runner [--bytecode] [--table] [--check-grammar] [--parallel] [-I DIR]... [--report FILE] [--max-errors N] [--timeout MS] [--jit THRESHOLD] [--bench N] file [method [arguments...]]";
+
+    public static void main(String[] args) throws IOException {
+        boolean listing = false;
+        boolean tableDriven = false;
+        boolean parallel = false;
+        boolean checkGrammar = false;
+        String reportPath = null;
+        List<String> includeDirectories = new ArrayList<>();
+        int maxErrors = ParseLimits.NO_ERROR_LIMIT;
+        long timeout = ParseLimits.NO_TIMEOUT;
+        int benchRuns = 0;
+        int threshold = VirtualMachine.NO_JIT;
+        List<String> operands = new ArrayList<>();
+        int i = 0;
+        try {
+            for (; i < args.length; i++) {
+                if (args[i].equals("--bytecode")) {
+                    listing = true;
+                } else if (args[i].equals("--table")) {
+                    tableDriven = true;
+                } else if (args[i].equals("--check-grammar")) {
+                    checkGrammar = true;
+                } else if (args[i].equals("--parallel")) {
+                    parallel = true;
+                } else if (args[i].equals("-I") && i + 1 < args.length) {
+                    includeDirectories.add(args[++i]);
+                } else if (args[i].equals("--report") && i + 1 < args.length) {
+                    reportPath = args[++i];
+                } else if (args[i].equals("--max-errors") && i + 1 < args.length) {
+                    maxErrors = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--timeout") && i + 1 < args.length) {
+                    timeout = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--bench") && i + 1 < args.length) {
+                    benchRuns = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--jit") && i + 1 < args.length) {
+                    threshold = Integer.parseInt(args[++i]);
+                } else {
+                    operands.add(args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            badArgument(args[i]);
+        }
+        if (operands.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        IncludeResolver includeResolver = new IncludeResolver(includeDirectories.toArray(new String[0]));
+        if (checkGrammar) {
+            System.exit(checkGrammar(operands.get(0), includeResolver) ? 0 : 1);
+        }
+        Bytecode bytecode = compile(operands.get(0), includeResolver, tableDriven, parallel, reportPath,
+                new ParseLimits(maxErrors, timeout));
+        if (bytecode == null) {
+            System.exit(1);
+        }
+        PrintStream out = System.out;
+        if (listing) {
+            bytecode.writeBytecodeOutput(out);
+        }
+
+        IrCode ir = bytecode.getIr();
+        int function = operands.size() > 1 ? ir.function(operands.get(1)) : firstRunnable(bytecode);
+        if (function == IrCode.NONE) {
+            System.err.println(operands.size() > 1 ? "No method named '" + operands.get(1) + "'"
+                    : "No method without parameters to run");
+            System.exit(1);
+        }
+        long[] arguments = new long[Math.max(operands.size() - 2, 0)];
+        for (int a = 0; a < arguments.length; a++) {
+            try {
+                arguments[a] = argument(operands.get(a + 2), a < ir.parameterCount(function)
+                        && bytecode.entry(function) != Bytecode.NONE ? ir.registerType(function, a) : IrCode.INT);
+            } catch (NumberFormatException e) {
+                badArgument(operands.get(a + 2));
+            }
+        }
+
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setCompileThreshold(threshold);
+        try {
+            long result = vm.invoke(function, arguments);
+            out.println(ir.functionName(function) + " returned "
+                    + bytecode.format(ir.returnType(function), result));
+            for (int field = 0; field < ir.fieldCount(); field++) {
+                out.println(ir.fieldName(field) + " = " + bytecode.format(ir.fieldType(field), vm.getField(field)));
+            }
+            out.println("Instructions executed: " + vm.getInstructionCount());
+
+            // The instructions one run takes are counted by an interpreted run, which compiled runs must match
+            long instructionsPerRun = vm.getInstructionCount();
+            if (threshold != VirtualMachine.NO_JIT) {
+                VirtualMachine reference = new VirtualMachine(bytecode);
+                long expected = reference.invoke(function, arguments);
+                instructionsPerRun = reference.getInstructionCount();
+                out.println(vm.isCompiled() ? "Compiled to JVM bytecode"
+                        : vm.getCompileFailure() != null ? "Not compiled: " + vm.getCompileFailure()
+                        : "Not compiled yet");
+                if (!sameState(vm, reference, result, expected)) {
+                    System.err.println("Compiled run differs from the interpreter");
+                    System.exit(1);
+                }
+                out.println("Compiled run matches the interpreter");
+            }
+            if (benchRuns > 0) {
+                bench(vm, function, arguments, benchRuns, instructionsPerRun, out);
+            }
+        } catch (ExecutionError e) {
+            System.err.println("Runtime error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Scans, parses and checks the file, printing any errors; returns null if there were some or the parse was
+    // stopped by its limits. With a report path the parser output goes to that file as it is produced, and only
+    // the number of parse errors is printed. The rule methods parse while the file is being lexed; the table
+    // parser and the parallel member parse need every token up front, so the file is scanned first for those.
+    public static Bytecode compile(String path, IncludeResolver includeResolver, boolean tableDriven, boolean parallel,
+                                   String reportPath, ParseLimits limits) throws IOException {
+        Scanner scanner = new Scanner(includeResolver);
+        boolean streaming = !tableDriven && !parallel;
+        TokenSource tokens;
+        if (streaming) {
+            tokens = scanner.openTokenSource(path);
+        } else {
+            scanner.scanFile(path);
+            if (scanner.getErrorCount() > 0) {
+                return null;
+            }
+            tokens = scanner.getTokenBuffer();
+        }
+        Parser parser;
+        ParseTrace trace = null;
+        if (reportPath != null) {
+            try (OutputStream file = new FileOutputStream(reportPath); Writer report = new ReportWriter(file)) {
+                parser = parse(tokens, new ParseReport(report), TraceLevel.FULL, tableDriven, parallel, limits);
+            }
+        } else {
+            trace = new ParseTrace(null);
+            parser = parse(tokens, trace, TraceLevel.ERRORS, tableDriven, parallel, limits);
+        }
+        if (streaming) {
+            scanner.finishTokenSource();
+            if (scanner.getErrorCount() > 0) {
+                return null;
+            }
+        }
+        if (parser.getErrorCount() > 0 || parser.getStatus().isAborted()) {
+            if (reportPath != null) {
+                System.out.println("Parsing found " + parser.getErrorCount() + " errors, see " + reportPath);
+                return null;
+            }
+            for (String error : trace.getErrors()) {
+                System.out.println(error);
+            }
+            if (parser.getStatus().isAborted()) {
+                System.out.println("Parsing aborted: " + parser.getStatus().getDescription());
+            }
+            return null;
+        }
+        SemanticAnalyzer analyzer = new SemanticAnalyzer(parser.getSyntaxTree());
+        analyzer.setRequiresFiles(scanner.requiresFiles());
+        analyzer.analyze();
+        TypeChecker checker = new TypeChecker(parser.getSyntaxTree(), analyzer);
+        checker.check();
+        if (analyzer.getErrorCount() + checker.getErrorCount() > 0) {
+            analyzer.getErrors().forEach(System.out::println);
+            checker.getErrors().forEach(System.out::println);
+            return null;
+        }
+        return new Bytecode(new IrGenerator(parser.getSyntaxTree(), analyzer).generate());
+    }
+
+    private static Parser parse(TokenSource tokens, ParseListener listener, TraceLevel traceLevel, boolean tableDriven,
+                                boolean parallel, ParseLimits limits) {
+        Parser parser = new Parser(tokens, listener, traceLevel);
+        parser.setTableDriven(tableDriven);
+        parser.setParallel(parallel);
+        parser.setLimits(limits);
+        parser.parseProgram();
+        return parser;
+    }
+
+    // The PredictiveParser grammar restates the rule methods by hand, so a file can show where they drifted apart;
+    // tokens are compared even if the scan reported errors
+    private static boolean checkGrammar(String path, IncludeResolver includeResolver) {
+        Scanner scanner = new Scanner(includeResolver);
+        scanner.scanFile(path);
+        String difference = PredictiveParser.compareWithParser(scanner.getTokenBuffer());
+        if (difference != null) {
+            System.out.println("Grammar mismatch: " + difference);
+            return false;
+        }
+        System.out.println("The LL(1) tables agree with the rule methods");
+        return true;
+    }
+
+    // Numbers on the command line that do not parse end the run like a missing operand does
+    private static void badArgument(String text) {
+        System.err.println("Bad argument '" + text + "'");
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    private static int firstRunnable(Bytecode bytecode) {
+        for (int function = 0; function < bytecode.functionCount(); function++) {
+            if (bytecode.entry(function) != Bytecode.NONE && bytecode.getIr().parameterCount(function) == 0) {
+                return function;
+            }
+        }
+        return IrCode.NONE;
+    }
+
+    private static long argument(String text, byte type) {
+        switch (type) {
+            case IrCode.FLOAT:
+                return Double.doubleToRawLongBits(Double.parseDouble(text));
+            case IrCode.LOGICAL:
+                return Boolean.parseBoolean(text) ? 1 : 0;
+            default:
+                return Integer.parseInt(text);
+        }
+    }
+
+    private static boolean sameState(VirtualMachine vm, VirtualMachine reference, long result, long expected) {
+        boolean same = result == expected;
+        for (int field = 0; field < vm.getBytecode().getIr().fieldCount(); field++) {
+            same &= vm.getField(field) == reference.getField(field);
+        }
+        return same;
+    }
+
+    // A tenth of the runs, at least one, warm HotSpot up before the timed ones. Compiled code does not count
+    // instructions, so a run is taken to be as many instructions as the interpreter needed for the first one.
+    private static void bench(VirtualMachine vm, int function, long[] arguments, int runs, long instructionsPerRun,
+                              PrintStream out) {
+        for (int i = 0; i < Math.max(runs / 10, 1); i++) {
+            vm.invoke(function, arguments);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            vm.invoke(function, arguments);
+        }
+        long nanos = Math.max(System.nanoTime() - start, 1);
+        long instructions = instructionsPerRun * runs;
+        out.printf("Benchmark: %d runs, %d instructions in %.3f ms, %.1f million instructions/sec%n", runs,
+                instructions, nanos / 1e6, instructions * 1e3 / nanos);
+    }
+}
@@ -1,50 +1,185 @@
 import java.io.*;
+import java.nio.*;
 import java.nio.file.*;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
 
 public class Scanner {
-    private static Map<String, String> keywords = new HashMap<>();
-    private List<Token> tokens = new ArrayList<>();
+    private static Map<String, TokenKind> keywords = new HashMap<>();
+    // Perfect hash over the keywords, generated once from the map above
+    private static TokenKind[] keywordSlots = new TokenKind[64];
+    private static int keywordSeed;
+    private static int minKeywordLength = Integer.MAX_VALUE;
+    private static int maxKeywordLength = 0;
+    // Scans of Require'd files, shared by every Scanner so common includes are lexed once per change
+    private static final IncludeCache includeCache = new IncludeCache(256);
+    private final IncludeResolver includeResolver;
+    private TokenBuffer tokens = new TokenBuffer();
     private int errorCount = 0;
     private List<String> errors = new ArrayList<>();
+    private List<String> includeCycles = new ArrayList<>();
+    private boolean requiresFiles;
+    // The source handed out by the last openTokenSource, lexed to the end by finishTokenSource
+    private StreamingTokenSource streaming;
 
     static {
-        keywords.put("Type", "Class");
-        keywords.put("DerivedFrom", "Inheritance");
-        keywords.put("TrueFor", "Condition");
-        keywords.put("Else", "Condition");
-        keywords.put("Ity", "Integer");
-        keywords.put("Sity", "SInteger");
-        keywords.put("Cwq", "Character");
-        keywords.put("CwqSequence", "String");
-        keywords.put("Ifity", "Float");
-        keywords.put("Sifity", "SFloat");
-        keywords.put("Valueless", "Void");
-        keywords.put("Logical", "Boolean");
-        keywords.put("Endthis", "Break");
-        keywords.put("However", "Loop");
-        keywords.put("When", "Loop");
-        keywords.put("Respondwith", "Return");
-        keywords.put("Srap", "Struct");
-        keywords.put("Scan", "Switch");
-        keywords.put("Conditionof", "Switch");
-        keywords.put("Require", "Inclusion");
+        keywords.put("Type", TokenKind.TYPE);
+        keywords.put("DerivedFrom", TokenKind.DERIVED_FROM);
+        keywords.put("TrueFor", TokenKind.TRUE_FOR);
+        keywords.put("Else", TokenKind.ELSE);
+        keywords.put("Ity", TokenKind.ITY);
+        keywords.put("Sity", TokenKind.SITY);
+        keywords.put("Cwq", TokenKind.CWQ);
+        keywords.put("CwqSequence", TokenKind.CWQ_SEQUENCE);
+        keywords.put("Ifity", TokenKind.IFITY);
+        keywords.put("Sifity", TokenKind.SIFITY);
+        keywords.put("Valueless", TokenKind.VALUELESS);
+        keywords.put("Logical", TokenKind.LOGICAL);
+        keywords.put("Endthis", TokenKind.ENDTHIS);
+        keywords.put("However", TokenKind.HOWEVER);
+        keywords.put("When", TokenKind.WHEN);
+        keywords.put("Respondwith", TokenKind.RESPONDWITH);
+        keywords.put("Srap", TokenKind.SRAP);
+        keywords.put("Scan", TokenKind.SCAN);
+        keywords.put("Conditionof", TokenKind.CONDITIONOF);
+        keywords.put("Require", TokenKind.REQUIRE);
+
+        buildKeywordHash();
+    }
+
+    // Searches for a seed under which no two keywords share a slot
+    private static void buildKeywordHash() {
+        for (String word : keywords.keySet()) {
+            minKeywordLength = Math.min(minKeywordLength, word.length());
+            maxKeywordLength = Math.max(maxKeywordLength, word.length());
+        }
+        for (int seed = 1; ; seed++) {
+            Arrays.fill(keywordSlots, null);
+            boolean collision = false;
+            for (Map.Entry<String, TokenKind> keyword : keywords.entrySet()) {
+                char[] word = keyword.getKey().toCharArray();
+                int slot = keywordHash(word, 0, word.length, seed);
+                if (keywordSlots[slot] != null) {
+                    collision = true;
+                    break;
+                }
+                keywordSlots[slot] = keyword.getValue();
+            }
+            if (!collision) {
+                keywordSeed = seed;
+                return;
+            }
+        }
+    }
+
+    private static int keywordHash(char[] chars, int start, int length, int seed) {
+        int hash = (length * 31 + chars[start]) * seed + chars[start + length - 1] * 17 + chars[start + (length >> 1)];
+        return (hash ^ (hash >>> 6)) & (keywordSlots.length - 1);
+    }
+
+    // Classifies the word in chars[start, start + length) without creating a String
+    static TokenKind keywordKind(char[] chars, int start, int length) {
+        if (length < minKeywordLength || length > maxKeywordLength) {
+            return null;
+        }
+        TokenKind kind = keywordSlots[keywordHash(chars, start, length, keywordSeed)];
+        if (kind == null) {
+            return null;
+        }
+        String text = kind.getText();
+        if (text.length() != length) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != text.charAt(i)) {
+                return null;
+            }
+        }
+        return kind;
+    }
+
+    public Scanner() {
+        this(new IncludeResolver());
+    }
+
+    // Scanners of one batch can share a resolver so names and the include graph are resolved once
+    public Scanner(IncludeResolver includeResolver) {
+        this.includeResolver = includeResolver;
     }
 
     public List<Token> scanFile(String filePath) {
         tokens.clear();
         errorCount = 0;
         errors.clear();
+        includeCycles.clear();
+        requiresFiles = false;
 
         try {
             processFile(filePath);
-            return tokens;
+            return tokens.asList();
+        } catch (IOException e) {
+            errors.add("Error reading file: " + e.getMessage());
+            errorCount++;
+            return tokens.asList();
+        }
+    }
+
+    // Lexes the file and its includes on demand as the returned source is read, in the same order as scanFile.
+    // Tokens the reader has released are dropped, so getTokenBuffer() does not hold them afterwards
+    public TokenSource openTokenSource(String filePath) {
+        tokens.clear();
+        errorCount = 0;
+        errors.clear();
+        includeCycles.clear();
+        requiresFiles = false;
+
+        Stack<String> fileStack = new Stack<>();
+        Set<String> processedFiles = new HashSet<>();
+        if (new File(filePath).exists()) {
+            String path = realPath(filePath);
+            fileStack.push(path);
+            processedFiles.add(path);
+        } else {
+            errors.add("File not found: " + filePath);
+            errorCount++;
+        }
+        streaming = new StreamingTokenSource(fileStack, processedFiles);
+        return streaming;
+    }
+
+    // The parser stops reading at the end symbol; this lexes what it left, includes and all, so the errors and
+    // include cycles of the whole input are reported
+    public void finishTokenSource() {
+        if (streaming != null) {
+            streaming.drain();
+            streaming = null;
+        }
+    }
+
+    // Scans an editor buffer whose tokens are already kept up to date, then the files it requires
+    public List<Token> scanDocument(IncrementalLexer document) {
+        tokens.clear();
+        errorCount = 0;
+        errors.clear();
+        includeCycles.clear();
+        requiresFiles = false;
+
+        document.copyTokensTo(tokens);
+        for (int i = 0; i < document.getErrors().size(); i++) {
+            reportError(document.getErrors().get(i), document.getErrorLines().get(i));
+        }
+
+        Stack<String> fileStack = new Stack<>();
+        Set<String> processedFiles = new HashSet<>();
+        pushIncludes(document.getIncludes(), null, fileStack, processedFiles);
+
+        try {
+            scanFiles(fileStack, processedFiles, true);
         } catch (IOException e) {
             errors.add("Error reading file: " + e.getMessage());
             errorCount++;
-            return tokens;
         }
+        return tokens.asList();
     }
 
     private void processFile(String filePath) throws IOException {
@@ -55,225 +190,280 @@ public class Scanner {
             return;
         }
 
+        String path = realPath(filePath);
         Stack<String> fileStack = new Stack<>();
-        fileStack.push(filePath);
+        fileStack.push(path);
 
         Set<String> processedFiles = new HashSet<>();
-        processedFiles.add(filePath);
+        processedFiles.add(path);
+
+        scanFiles(fileStack, processedFiles, false);
+    }
+
+    // Scans every reachable file concurrently, then merges the results by walking the stack
+    // exactly as a sequential scan would, so tokens and errors always come out in the same order
+    private void scanFiles(Stack<String> fileStack, Set<String> processedFiles, boolean stackHoldsIncludes) throws IOException {
+        Map<String, FileScan> scans = new ConcurrentHashMap<>();
+        Set<String> claimedFiles = ConcurrentHashMap.newKeySet();
+        claimedFiles.addAll(processedFiles);
+        List<ScanTask> roots = new ArrayList<>();
+        for (String filePath : fileStack) {
+            roots.add(new ScanTask(filePath, stackHoldsIncludes, includeResolver, claimedFiles, scans));
+        }
+        List<String> rootFiles = new ArrayList<>(fileStack);
+        ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(roots)));
 
         while (!fileStack.isEmpty()) {
             String currentFile = fileStack.pop();
-            scanFileContent(currentFile, fileStack, processedFiles);
+            // Discovery resolved names through the same resolver, so a file is only missing here if it appeared
+            // after discovery looked for it
+            FileScan scan = scans.get(currentFile);
+            if (scan == null) {
+                scan = scanInclude(currentFile);
+            }
+            if (scan.failure != null) {
+                throw scan.failure;
+            }
+            tokens.addAll(scan.tokens);
+            for (int i = 0; i < scan.errorMessages.size(); i++) {
+                reportError(scan.errorMessages.get(i), scan.errorLines.get(i));
+            }
+            includeResolver.recordIncludes(currentFile, pushIncludes(scan.includes, currentFile, fileStack,
+                    processedFiles));
         }
+        includeCycles.addAll(includeResolver.findCycles(rootFiles));
     }
 
-    private void scanFileContent(String filePath, Stack<String> fileStack, Set<String> processedFiles) throws IOException {
-        List<String> lines = Files.readAllLines(Paths.get(filePath));
-        boolean inMultilineComment = false;
-
-        for (int lineNumber = 0; lineNumber < lines.size(); lineNumber++) {
-            String line = lines.get(lineNumber).trim();
-
-            // Skip empty lines
-            if (line.isEmpty()) continue;
-
-            // Check for require command at the beginning of the line
-            if (line.startsWith("Require") && line.contains(".txt")) {
-                Matcher fileMatcher = Pattern.compile("Require\\s*\\(\\s*([\\w.]+)\\s*\\)").matcher(line);
-                if (fileMatcher.find()) {
-                    String includeFile = fileMatcher.group(1);
-                    if (!processedFiles.contains(includeFile)) {
-                        File file = new File(includeFile);
-                        if (file.exists()) {
-                            fileStack.push(includeFile);
-                            processedFiles.add(includeFile);
-                        }
-                    }
-                    continue;
-                }
+    private static String realPath(String filePath) {
+        String path = IncludeResolver.realPath(Paths.get(filePath));
+        return path != null ? path : filePath;
+    }
+
+    private static FileScan scanFileContent(String filePath) {
+        FileScan scan = new FileScan();
+        try {
+            // Decode the whole file once and run the DFA lexer over it with a single cursor
+            CharBuffer source = FileUtils.mapFileToCharBuffer(new File(filePath));
+            Lexer lexer = new Lexer(source, scan.tokens, (message, line) -> {
+                scan.errorMessages.add(message);
+                scan.errorLines.add(line);
+            });
+            lexer.tokenize();
+            scan.includes = lexer.getIncludes();
+        } catch (IOException e) {
+            scan.failure = e;
+        }
+        return scan;
+    }
+
+    // Keeps only a window of tokens; consumed ones are dropped a chunk at a time
+    private class StreamingTokenSource implements TokenSource {
+        private static final int CHUNK = 512;
+
+        private final TokenBuffer window = new TokenBuffer();
+        private final Stack<String> fileStack;
+        private final Set<String> processedFiles;
+        private final List<String> rootFiles;
+        private String currentFile;
+        private Lexer lexer;
+        private int base = 0;
+        private boolean exhausted = false;
+
+        StreamingTokenSource(Stack<String> fileStack, Set<String> processedFiles) {
+            this.fileStack = fileStack;
+            this.processedFiles = processedFiles;
+            this.rootFiles = new ArrayList<>(fileStack);
+        }
+
+        @Override
+        public boolean ensure(int index) {
+            while (index >= base + window.size() && !exhausted) {
+                produce();
             }
+            return index < base + window.size();
+        }
 
-            // Process multiline comments
-            if (inMultilineComment) {
-                int endCommentIndex = line.indexOf(">/");
-                if (endCommentIndex != -1) {
-                    tokens.add(new Token(">/ (Comment End)", "Comment", lineNumber + 1));
-                    inMultilineComment = false;
-                    line = line.substring(endCommentIndex + 2).trim();
-                    if (line.isEmpty()) continue;
-                } else {
-                    continue; // Skip this line as it's part of a comment
-                }
+        // Lexes the rest of the input, dropping its tokens as they come; only the last one is kept
+        void drain() {
+            while (!exhausted) {
+                produce();
+                release(base + window.size());
             }
+        }
 
-            // Process the line
-            int index = 0;
-            while (index < line.length()) {
-                // Skip whitespace
-                while (index < line.length() && Character.isWhitespace(line.charAt(index))) {
-                    index++;
+        private void produce() {
+            if (lexer == null) {
+                if (fileStack.isEmpty()) {
+                    includeCycles.addAll(includeResolver.findCycles(rootFiles));
+                    exhausted = true;
+                    return;
                 }
-                if (index >= line.length()) break;
-
-                // Check for start of multiline comment
-                if (index + 1 < line.length() && line.charAt(index) == '/' && line.charAt(index + 1) == '<') {
-                    tokens.add(new Token("/< (Comment Start)", "Comment", lineNumber + 1));
-                    inMultilineComment = true;
-                    index += 2;
-                    int endCommentIndex = line.indexOf(">/ ", index);
-                    if (endCommentIndex != -1) {
-                        tokens.add(new Token(">/ (Comment End)", "Comment", lineNumber + 1));
-                        inMultilineComment = false;
-                        index = endCommentIndex + 2;
-                    } else {
-                        break; // Rest of the line is comment
-                    }
-                    continue;
+                currentFile = fileStack.pop();
+                try {
+                    lexer = new Lexer(FileUtils.mapFileToCharBuffer(new File(currentFile)), window, Scanner.this::reportError);
+                } catch (IOException e) {
+                    errors.add("Error reading file: " + e.getMessage());
+                    errorCount++;
+                    exhausted = true;
+                    return;
                 }
+            }
+            if (!lexer.tokenize(CHUNK)) {
+                includeResolver.recordIncludes(currentFile, pushIncludes(lexer.getIncludes(), currentFile, fileStack,
+                        processedFiles));
+                lexer = null;
+            }
+        }
 
-                // Check for single line comment
-                if (index + 1 < line.length() && line.charAt(index) == '/' && line.charAt(index + 1) == '*') {
-                    tokens.add(new Token("/* (Comment)", "Comment", lineNumber + 1));
-                    break; // Rest of the line is comment
-                }
+        @Override
+        public int size() {
+            return base + window.size();
+        }
 
-                // Check for start and end symbols
-                if (line.charAt(index) == '@' || line.charAt(index) == '^') {
-                    tokens.add(new Token(String.valueOf(line.charAt(index)), "Start Symbol", lineNumber + 1));
-                    index++;
-                    continue;
-                }
-                if (line.charAt(index) == '$' || line.charAt(index) == '#') {
-                    tokens.add(new Token(String.valueOf(line.charAt(index)), "End Symbol", lineNumber + 1));
-                    index++;
-                    continue;
-                }
+        @Override
+        public TokenKind kind(int index) {
+            return window.kind(index - base);
+        }
 
-                // Check for braces, brackets, parentheses
-                if (line.charAt(index) == '{' || line.charAt(index) == '}' ||
-                        line.charAt(index) == '[' || line.charAt(index) == ']' ||
-                        line.charAt(index) == '(' || line.charAt(index) == ')') {
-                    tokens.add(new Token(String.valueOf(line.charAt(index)), "Braces", lineNumber + 1));
-                    index++;
-                    continue;
-                }
+        @Override
+        public String text(int index) {
+            return window.text(index - base);
+        }
 
-                // Check for operators
-                if (index + 1 < line.length()) {
-                    String twoChars = line.substring(index, index + 2);
-                    if (twoChars.equals("==") || twoChars.equals("!=") ||
-                            twoChars.equals("<=") || twoChars.equals(">=") ||
-                            twoChars.equals("&&") || twoChars.equals("||") ||
-                            twoChars.equals("->")) {
-
-                        String opType = "";
-                        if (twoChars.equals("==") || twoChars.equals("!=") ||
-                                twoChars.equals("<=") || twoChars.equals(">=")) {
-                            opType = "Relational Operator";
-                        } else if (twoChars.equals("&&") || twoChars.equals("||")) {
-                            opType = "Logic Operator";
-                        } else if (twoChars.equals("->")) {
-                            opType = "Access Operator";
-                        }
-
-                        tokens.add(new Token(twoChars, opType, lineNumber + 1));
-                        index += 2;
-                        continue;
-                    }
-                }
+        @Override
+        public char[] source(int index) {
+            return window.source(index - base);
+        }
 
-                // Check for single operators
-                if (line.charAt(index) == '+' || line.charAt(index) == '-' ||
-                        line.charAt(index) == '*' || line.charAt(index) == '/') {
-                    tokens.add(new Token(String.valueOf(line.charAt(index)), "Arithmetic Operation", lineNumber + 1));
-                    index++;
-                    continue;
-                }
+        @Override
+        public int start(int index) {
+            return window.start(index - base);
+        }
 
-                if (line.charAt(index) == '=' || line.charAt(index) == '<' ||
-                        line.charAt(index) == '>' || line.charAt(index) == '~') {
-                    String opType = line.charAt(index) == '=' ? "Assignment Operator" :
-                            (line.charAt(index) == '~' ? "Logic Operator" : "Relational Operator");
-                    tokens.add(new Token(String.valueOf(line.charAt(index)), opType, lineNumber + 1));
-                    index++;
-                    continue;
-                }
+        @Override
+        public int length(int index) {
+            return window.length(index - base);
+        }
 
-                // Check for semicolon
-                if (line.charAt(index) == ';') {
-                    tokens.add(new Token(";", "Semicolon", lineNumber + 1));
-                    index++;
-                    continue;
-                }
+        @Override
+        public int line(int index) {
+            return window.line(index - base);
+        }
 
-                // Check for comma
-                if (line.charAt(index) == ',') {
-                    tokens.add(new Token(",", "Comma", lineNumber + 1));
-                    index++;
-                    continue;
-                }
+        @Override
+        public void release(int index) {
+            // The last token stays so its line can still be reported at the end of input
+            int count = Math.min(index, size() - 1) - base;
+            if (count >= CHUNK) {
+                window.removeFirst(count);
+                base += count;
+            }
+        }
+    }
 
-                // Check for string literals
-                if (line.charAt(index) == '"') {
-                    int endQuote = line.indexOf('"', index + 1);
-                    if (endQuote != -1) {
-                        String str = line.substring(index, endQuote + 1);
-                        tokens.add(new Token(str, "String Literal", lineNumber + 1));
-                        index = endQuote + 1;
-                    } else {
-                        reportError("Unclosed string literal", lineNumber + 1);
-                        index = line.length(); // Skip to end of line
-                    }
-                    continue;
-                }
+    // Includes are looked up by real path and only reused while their size and modification time match
+    private static FileScan scanInclude(String filePath) {
+        File file = new File(filePath);
+        long modified = file.lastModified();
+        long length = file.length();
+        FileScan cached = includeCache.get(filePath);
+        if (cached != null && cached.modified == modified && cached.length == length) {
+            return cached;
+        }
+        FileScan scan = scanFileContent(filePath);
+        if (scan.failure == null) {
+            scan.modified = modified;
+            scan.length = length;
+            includeCache.put(filePath, scan);
+        }
+        return scan;
+    }
 
-                // Check for character literals
-                if (line.charAt(index) == '\'') {
-                    int endQuote = line.indexOf('\'', index + 1);
-                    if (endQuote != -1) {
-                        String charLiteral = line.substring(index, endQuote + 1);
-                        tokens.add(new Token(charLiteral, "Character Literal", lineNumber + 1));
-                        index = endQuote + 1;
-                    } else {
-                        reportError("Unclosed character literal", lineNumber + 1);
-                        index = line.length(); // Skip to end of line
-                    }
-                    continue;
-                }
+    // Least recently used scans are dropped once the cache is full
+    private static class IncludeCache {
+        private final Map<String, FileScan> entries;
 
-                // Check for numbers
-                if (Character.isDigit(line.charAt(index))) {
-                    int start = index;
-                    while (index < line.length() && (Character.isDigit(line.charAt(index)) || line.charAt(index) == '.')) {
-                        index++;
-                    }
-                    String num = line.substring(start, index);
-                    tokens.add(new Token(num, "Constant", lineNumber + 1));
-                    continue;
+        IncludeCache(int capacity) {
+            entries = new LinkedHashMap<String, FileScan>(capacity, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FileScan> eldest) {
+                    return size() > capacity;
                 }
+            };
+        }
+
+        synchronized FileScan get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, FileScan scan) {
+            entries.put(key, scan);
+        }
+    }
 
-                // Check for identifiers and keywords
-                if (Character.isLetter(line.charAt(index)) || line.charAt(index) == '_') {
-                    int start = index;
-                    while (index < line.length() && (Character.isLetterOrDigit(line.charAt(index)) || line.charAt(index) == '_')) {
-                        index++;
-                    }
-                    String word = line.substring(start, index);
-
-                    // Check if it's a keyword
-                    if (keywords.containsKey(word)) {
-                        tokens.add(new Token(word, keywords.get(word), lineNumber + 1));
-                    } else {
-                        tokens.add(new Token(word, "Identifier", lineNumber + 1));
-                    }
-                    continue;
+    // Tokens, errors and includes of one file, produced by a worker and merged on the calling thread
+    private static class FileScan {
+        final TokenBuffer tokens = new TokenBuffer();
+        final List<String> errorMessages = new ArrayList<>();
+        final List<Integer> errorLines = new ArrayList<>();
+        List<String> includes = Collections.emptyList();
+        IOException failure;
+        long modified;
+        long length;
+    }
+
+    // Scans one file and forks a task for each include no other task has claimed yet
+    private static class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String filePath;
+        private final boolean include;
+        private final IncludeResolver includeResolver;
+        private final Set<String> claimedFiles;
+        private final Map<String, FileScan> scans;
+
+        ScanTask(String filePath, boolean include, IncludeResolver includeResolver, Set<String> claimedFiles,
+                 Map<String, FileScan> scans) {
+            this.filePath = filePath;
+            this.include = include;
+            this.includeResolver = includeResolver;
+            this.claimedFiles = claimedFiles;
+            this.scans = scans;
+        }
+
+        @Override
+        protected void compute() {
+            FileScan scan = include ? scanInclude(filePath) : scanFileContent(filePath);
+            scans.put(filePath, scan);
+            if (scan.failure != null) {
+                return;
+            }
+            List<ScanTask> includeTasks = new ArrayList<>();
+            for (String includeFile : scan.includes) {
+                String path = includeResolver.resolve(includeFile, filePath);
+                if (path != null && claimedFiles.add(path)) {
+                    includeTasks.add(new ScanTask(path, true, includeResolver, claimedFiles, scans));
                 }
+            }
+            invokeAll(includeTasks);
+        }
+    }
 
-                // Unknown character
-                reportError("Unknown character: " + line.charAt(index), lineNumber + 1);
-                index++;
+    // Pushes the includes of includingFile not seen yet and returns the real paths of all that resolved
+    private List<String> pushIncludes(List<String> includes, String includingFile, Stack<String> fileStack,
+                                      Set<String> processedFiles) {
+        List<String> resolvedIncludes = new ArrayList<>();
+        requiresFiles |= !includes.isEmpty();
+        for (String includeFile : includes) {
+            String path = includeResolver.resolve(includeFile, includingFile);
+            if (path != null) {
+                resolvedIncludes.add(path);
+                if (processedFiles.add(path)) {
+                    fileStack.push(path);
+                }
             }
         }
+        return resolvedIncludes;
     }
 
     private void reportError(String message, int lineNumber) {
@@ -283,6 +473,10 @@ public class Scanner {
         errorCount++;
     }
 
+    public TokenBuffer getTokenBuffer() {
+        return tokens;
+    }
+
     public int getErrorCount() {
         return errorCount;
     }
@@ -291,15 +485,38 @@ public class Scanner {
         return errors;
     }
 
+    // True if any scanned file has a Require line, whether or not the file it names was found
+    public boolean requiresFiles() {
+        return requiresFiles;
+    }
+
+    public List<String> getIncludeCycles() {
+        return includeCycles;
+    }
+
     public String getScannerOutput() {
         StringBuilder output = new StringBuilder();
-        for (Token token : tokens) {
-            output.append(token.toString()).append("\n");
+        try {
+            writeScannerOutput(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
+    }
+
+    // Same text as getScannerOutput, written token by token without building Token objects
+    public void writeScannerOutput(Appendable out) throws IOException {
+        for (int i = 0; i < tokens.size(); i++) {
+            out.append("Line #: ").append(String.valueOf(tokens.line(i)))
+                    .append(" Token Text: ").append(tokens.text(i))
+                    .append(" Token Type: ").append(tokens.kind(i).getTypeName()).append("\n");
         }
         for (String error : errors) {
-            output.append(error).append("\n");
+            out.append(error).append("\n");
         }
-        output.append("Total NO of errors: ").append(errorCount);
-        return output.toString();
+        for (String cycle : includeCycles) {
+            out.append("Include cycle: ").append(cycle).append("\n");
+        }
+        out.append("Total NO of errors: ").append(String.valueOf(errorCount));
     }
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+// Scopes nest program > class > parameters > locals; blocks declare nothing, so they get no scope of their own
+public enum ScopeKind {
+    PROGRAM,
+    CLASS,
+    PARAMETERS,
+    LOCALS;
+
+    private static final ScopeKind[] VALUES = values();
+
+    public static ScopeKind of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
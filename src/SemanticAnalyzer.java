@@ -0,0 +1,295 @@
+import java.io.*;
+import java.util.*;
+
+// Checks the names in a parse tree: every declaration goes into the SymbolTable and every identifier that is
+// used must resolve to a symbol of the right kind. Works on partial trees too, so it can run after parse errors.
+public class SemanticAnalyzer {
+    private final SyntaxTree tree;
+    private final NameTable names = new NameTable();
+    private final SymbolTable symbols = new SymbolTable(names);
+    // Symbol each identifier node declares or refers to, NONE where it resolved to nothing
+    private int[] resolved;
+    private List<String> errors = new ArrayList<>();
+    private final List<Integer> errorLines = new ArrayList<>();
+    // A class with a base class or included files can use names this tree does not declare
+    private boolean openClass;
+    // Require lines never reach the tree, so the scanner says whether there were any
+    private boolean requiresFiles;
+
+    // Scopes the walk is inside, each with the node its subtree ends at
+    private int[] scopes = new int[8];
+    private int[] scopeEnds = new int[8];
+    private int depth;
+
+    public SemanticAnalyzer(SyntaxTree tree) {
+        this.tree = tree;
+    }
+
+    // Names used but not declared are then not reported, since the Require'd files may declare them
+    public void setRequiresFiles(boolean requiresFiles) {
+        this.requiresFiles = requiresFiles;
+    }
+
+    // Nodes are visited in preorder, which is array order, so the walk is one loop however deep the tree is
+    public void analyze() {
+        resolved = new int[tree.size()];
+        Arrays.fill(resolved, SymbolTable.NONE);
+        if (tree.size() == 0) return;
+
+        int root = tree.root();
+        pushScope(symbols.openScope(ScopeKind.PROGRAM, SymbolTable.NONE, root), tree.subtreeEnd(root));
+        for (int node = root; node < tree.size(); node++) {
+            while (node >= scopeEnds[depth - 1]) {
+                depth--;
+            }
+            int scope = scopes[depth - 1];
+            switch (tree.kind(node)) {
+                case CLASS_DECLARATION:
+                    classDeclaration(node, scope);
+                    break;
+                case METHOD_DECL:
+                    methodDecl(node);
+                    break;
+                case VARIABLE_DECL:
+                    // Fields were declared with the other members before any method body was walked
+                    if (tree.kind(tree.parent(node)) != NodeKind.CLASS_BODY) {
+                        variableDecl(node, scope, SymbolKind.LOCAL);
+                    }
+                    break;
+                case TOKEN:
+                    if (tree.tokenKind(node) == TokenKind.IDENTIFIER && isUse(node)) {
+                        use(node, scope);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        sortErrors();
+    }
+
+    // 4. ClassDeclaration -> Type ID ClassBody | Type ID DerivedFrom ClassBody
+    private void classDeclaration(int node, int scope) {
+        int classSymbol = SymbolTable.NONE;
+        int body = SyntaxTree.NONE;
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) == NodeKind.CLASS_BODY) {
+                body = child;
+            } else if (tree.tokenKind(child) == TokenKind.DERIVED_FROM) {
+                // The base class is declared in another file
+                openClass = true;
+            } else if (tree.tokenKind(child) == TokenKind.IDENTIFIER && !openClass) {
+                classSymbol = declare(scope, child, SymbolKind.CLASS, TokenKind.TYPE);
+            }
+        }
+        if (body == SyntaxTree.NONE) return;
+
+        int classScope = symbols.openScope(ScopeKind.CLASS, scope, body);
+        if (classSymbol != SymbolTable.NONE) {
+            symbols.setInnerScope(classSymbol, classScope);
+        }
+        pushScope(classScope, tree.subtreeEnd(body));
+
+        // Members can be used before they are declared, so all of them go in first
+        for (int member = tree.firstChild(body); member != SyntaxTree.NONE; member = tree.nextSibling(member)) {
+            if (tree.kind(member) == NodeKind.VARIABLE_DECL) {
+                variableDecl(member, classScope, SymbolKind.FIELD);
+            } else if (tree.kind(member) == NodeKind.METHOD_DECL) {
+                int funcDecl = tree.firstChild(member);
+                int name = childToken(funcDecl, TokenKind.IDENTIFIER);
+                if (name != SyntaxTree.NONE) {
+                    declare(classScope, name, SymbolKind.METHOD, dataType(funcDecl));
+                }
+            } else if (tree.kind(member) == NodeKind.REQUIRE_COMMAND) {
+                openClass = true;
+            }
+        }
+    }
+
+    // 8. MethodDecl -> FuncDecl ; | FuncDecl { VariableDecls Statements }
+    // Parameters get a scope of their own inside the class, and the method's locals one inside that
+    private void methodDecl(int node) {
+        int end = tree.subtreeEnd(node);
+        int funcDecl = tree.firstChild(node);
+        int parameterScope = symbols.openScope(ScopeKind.PARAMETERS, scopes[depth - 1], node);
+        int name = childToken(funcDecl, TokenKind.IDENTIFIER);
+        // A duplicate method has no symbol of its own
+        if (name != SyntaxTree.NONE && resolved[name] != SymbolTable.NONE && symbols.nodeOf(resolved[name]) == name) {
+            symbols.setInnerScope(resolved[name], parameterScope);
+        }
+        pushScope(parameterScope, end);
+
+        int list = childNode(funcDecl, NodeKind.PARAMETER_LIST);
+        if (list != SyntaxTree.NONE) {
+            for (int parameter = tree.firstChild(list); parameter != SyntaxTree.NONE;
+                 parameter = tree.nextSibling(parameter)) {
+                int id = childToken(parameter, TokenKind.IDENTIFIER);
+                if (tree.kind(parameter) == NodeKind.PARAMETER && id != SyntaxTree.NONE) {
+                    declare(parameterScope, id, SymbolKind.PARAMETER, dataType(parameter));
+                }
+            }
+        }
+        pushScope(symbols.openScope(ScopeKind.LOCALS, parameterScope, node), end);
+    }
+
+    // 13. VariableDecl -> Type IDList ; | Type IDList [ ID ] ;
+    // The ID in brackets is the array size, so it is a use rather than a declaration
+    private void variableDecl(int node, int scope, SymbolKind kind) {
+        TokenKind type = dataType(node);
+        boolean inBrackets = false;
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            TokenKind tokenKind = tree.tokenKind(child);
+            if (tokenKind == TokenKind.LEFT_BRACKET) {
+                inBrackets = true;
+            } else if (tokenKind == TokenKind.IDENTIFIER) {
+                if (inBrackets) {
+                    use(child, scope);
+                } else {
+                    declare(scope, child, kind, type);
+                }
+            }
+        }
+    }
+
+    private int declare(int scope, int node, SymbolKind kind, TokenKind type) {
+        int name = tree.intern(node, names);
+        // A local may not hide a parameter of its own method
+        int previous = symbols.scopeKind(scope) == ScopeKind.LOCALS
+                ? symbols.lookup(symbols.parentScope(scope), name) : SymbolTable.NONE;
+        int symbol = previous == SymbolTable.NONE
+                ? symbols.declare(scope, name, kind, type, node, tree.line(node)) : SymbolTable.NONE;
+        if (symbol == SymbolTable.NONE) {
+            if (previous == SymbolTable.NONE) {
+                previous = symbols.lookup(scope, name);
+            }
+            error(tree.line(node), "'" + names.name(name) + "' is already declared on line "
+                    + symbols.lineOf(previous));
+            resolved[node] = previous;
+            return SymbolTable.NONE;
+        }
+        resolved[node] = symbol;
+        return symbol;
+    }
+
+    // The name of a call must be a method; any other identifier that is used must be a variable
+    private void use(int node, int scope) {
+        int name = tree.intern(node, names);
+        int symbol = symbols.resolve(scope, name);
+        resolved[node] = symbol;
+        boolean call = tree.kind(tree.parent(node)) == NodeKind.FUNC_CALL && tree.firstChild(tree.parent(node)) == node;
+        if (symbol == SymbolTable.NONE) {
+            if (!openClass && !requiresFiles) {
+                error(tree.line(node), (call ? "Undeclared method '" : "Undeclared identifier '")
+                        + names.name(name) + "'");
+            }
+        } else if (call && symbols.kindOf(symbol) != SymbolKind.METHOD) {
+            error(tree.line(node), "'" + names.name(name) + "' is not a method");
+        } else if (!call && !symbols.kindOf(symbol).isVariable()) {
+            error(tree.line(node), "'" + names.name(name) + "' is a " + symbols.kindOf(symbol).name().toLowerCase()
+                    + ", not a variable");
+        }
+    }
+
+    // Identifiers in declarations are handled with the declaration
+    private boolean isUse(int node) {
+        switch (tree.kind(tree.parent(node))) {
+            case CLASS_DECLARATION:
+            case FUNC_DECL:
+            case PARAMETER:
+            case VARIABLE_DECL:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private void pushScope(int scope, int end) {
+        if (depth == scopes.length) {
+            scopes = Arrays.copyOf(scopes, depth * 2);
+            scopeEnds = Arrays.copyOf(scopeEnds, depth * 2);
+        }
+        scopes[depth] = scope;
+        scopeEnds[depth] = end;
+        depth++;
+    }
+
+    // Declared type of a declaration node, or null if the parser did not get one
+    private TokenKind dataType(int node) {
+        int first = tree.firstChild(node);
+        if (first == SyntaxTree.NONE || tree.tokenKind(first) == null || !tree.tokenKind(first).isDataType()) {
+            return null;
+        }
+        return tree.tokenKind(first);
+    }
+
+    private int childToken(int node, TokenKind kind) {
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.tokenKind(child) == kind) {
+                return child;
+            }
+        }
+        return SyntaxTree.NONE;
+    }
+
+    private int childNode(int node, NodeKind kind) {
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) == kind) {
+                return child;
+            }
+        }
+        return SyntaxTree.NONE;
+    }
+
+    private void error(int line, String message) {
+        errors.add("Line #: " + line + " Semantic Error: " + message);
+        errorLines.add(line);
+    }
+
+    // Members are declared ahead of the method bodies, so errors are put back in line order; the sort is stable
+    private void sortErrors() {
+        Integer[] order = new Integer[errors.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(errorLines::get));
+        List<String> sorted = new ArrayList<>(order.length);
+        for (int i : order) {
+            sorted.add(errors.get(i));
+        }
+        errors = sorted;
+    }
+
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    // Symbol an identifier node declares or refers to, or SymbolTable.NONE
+    public int symbolAt(int node) {
+        return resolved[node];
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public int getErrorCount() {
+        return errors.size();
+    }
+
+    public String getSemanticOutput() {
+        StringBuilder output = new StringBuilder();
+        try {
+            writeSemanticOutput(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
+    }
+
+    public void writeSemanticOutput(Appendable out) throws IOException {
+        for (String error : errors) {
+            out.append(error).append("\n");
+        }
+        out.append("Total NO of semantic errors: ").append(String.valueOf(errors.size()));
+    }
+}
@@ -0,0 +1,18 @@
+// What a declared name stands for
+public enum SymbolKind {
+    CLASS,
+    FIELD,
+    METHOD,
+    PARAMETER,
+    LOCAL;
+
+    private static final SymbolKind[] VALUES = values();
+
+    public static SymbolKind of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    public boolean isVariable() {
+        return this == FIELD || this == PARAMETER || this == LOCAL;
+    }
+}
@@ -0,0 +1,215 @@
+import java.util.*;
+
+// Symbols and scopes in parallel arrays. Names are NameTable ids and each scope is its own open-addressing table
+// from name id to symbol, so a lookup costs the same however many members a class has. A slot holds symbol + 1.
+public class SymbolTable {
+    public static final int NONE = -1;
+
+    private final NameTable names;
+
+    private int[] symbolNames = new int[256];
+    private byte[] symbolKinds = new byte[256];
+    private byte[] symbolTypes = new byte[256];
+    private int[] symbolScopes = new int[256];
+    private int[] symbolNodes = new int[256];
+    private int[] symbolLines = new int[256];
+    // Scope opened by a class or method symbol, and the next symbol declared in the same scope
+    private int[] innerScopes = new int[256];
+    private int[] nextInScope = new int[256];
+    private int symbolCount;
+
+    private byte[] scopeKinds = new byte[64];
+    private int[] scopeParents = new int[64];
+    private int[] scopeNodes = new int[64];
+    private int[][] scopeSlots = new int[64][];
+    private int[] scopeSizes = new int[64];
+    private int[] firstSymbols = new int[64];
+    private int[] lastSymbols = new int[64];
+    private int scopeCount;
+
+    public SymbolTable(NameTable names) {
+        this.names = names;
+    }
+
+    // node is the tree node the scope belongs to; parent is NONE for the outermost scope
+    public int openScope(ScopeKind kind, int parent, int node) {
+        if (scopeCount == scopeKinds.length) {
+            int capacity = scopeCount * 2;
+            scopeKinds = Arrays.copyOf(scopeKinds, capacity);
+            scopeParents = Arrays.copyOf(scopeParents, capacity);
+            scopeNodes = Arrays.copyOf(scopeNodes, capacity);
+            scopeSlots = Arrays.copyOf(scopeSlots, capacity);
+            scopeSizes = Arrays.copyOf(scopeSizes, capacity);
+            firstSymbols = Arrays.copyOf(firstSymbols, capacity);
+            lastSymbols = Arrays.copyOf(lastSymbols, capacity);
+        }
+        int scope = scopeCount++;
+        scopeKinds[scope] = (byte) kind.ordinal();
+        scopeParents[scope] = parent;
+        scopeNodes[scope] = node;
+        scopeSlots[scope] = new int[8];
+        scopeSizes[scope] = 0;
+        firstSymbols[scope] = NONE;
+        lastSymbols[scope] = NONE;
+        return scope;
+    }
+
+    // Returns the new symbol, or NONE when the scope already has one by that name
+    public int declare(int scope, int name, SymbolKind kind, TokenKind type, int node, int line) {
+        int[] slots = scopeSlots[scope];
+        int mask = slots.length - 1;
+        int slot = NameTable.mix(name) & mask;
+        while (slots[slot] != 0) {
+            if (symbolNames[slots[slot] - 1] == name) {
+                return NONE;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (symbolCount == symbolNames.length) {
+            int capacity = symbolCount * 2;
+            symbolNames = Arrays.copyOf(symbolNames, capacity);
+            symbolKinds = Arrays.copyOf(symbolKinds, capacity);
+            symbolTypes = Arrays.copyOf(symbolTypes, capacity);
+            symbolScopes = Arrays.copyOf(symbolScopes, capacity);
+            symbolNodes = Arrays.copyOf(symbolNodes, capacity);
+            symbolLines = Arrays.copyOf(symbolLines, capacity);
+            innerScopes = Arrays.copyOf(innerScopes, capacity);
+            nextInScope = Arrays.copyOf(nextInScope, capacity);
+        }
+        int symbol = symbolCount++;
+        symbolNames[symbol] = name;
+        symbolKinds[symbol] = (byte) kind.ordinal();
+        symbolTypes[symbol] = (byte) (type == null ? -1 : type.ordinal());
+        symbolScopes[symbol] = scope;
+        symbolNodes[symbol] = node;
+        symbolLines[symbol] = line;
+        innerScopes[symbol] = NONE;
+        nextInScope[symbol] = NONE;
+        if (lastSymbols[scope] == NONE) {
+            firstSymbols[scope] = symbol;
+        } else {
+            nextInScope[lastSymbols[scope]] = symbol;
+        }
+        lastSymbols[scope] = symbol;
+
+        slots[slot] = symbol + 1;
+        if (++scopeSizes[scope] * 2 > slots.length) {
+            rehash(scope);
+        }
+        return symbol;
+    }
+
+    // Symbol declared by that name in this scope only, or NONE
+    public int lookup(int scope, int name) {
+        int[] slots = scopeSlots[scope];
+        int mask = slots.length - 1;
+        for (int slot = NameTable.mix(name) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int symbol = slots[slot] - 1;
+            if (symbolNames[symbol] == name) {
+                return symbol;
+            }
+        }
+        return NONE;
+    }
+
+    // Innermost symbol by that name visible from scope, or NONE; scopes nest at most four deep
+    public int resolve(int scope, int name) {
+        for (; scope != NONE; scope = scopeParents[scope]) {
+            int symbol = lookup(scope, name);
+            if (symbol != NONE) {
+                return symbol;
+            }
+        }
+        return NONE;
+    }
+
+    private void rehash(int scope) {
+        int[] slots = new int[scopeSlots[scope].length * 2];
+        int mask = slots.length - 1;
+        for (int symbol = firstSymbols[scope]; symbol != NONE; symbol = nextInScope[symbol]) {
+            int slot = NameTable.mix(symbolNames[symbol]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = symbol + 1;
+        }
+        scopeSlots[scope] = slots;
+    }
+
+    public NameTable getNames() {
+        return names;
+    }
+
+    public int symbolCount() {
+        return symbolCount;
+    }
+
+    public int nameOf(int symbol) {
+        return symbolNames[symbol];
+    }
+
+    public String textOf(int symbol) {
+        return names.name(symbolNames[symbol]);
+    }
+
+    public SymbolKind kindOf(int symbol) {
+        return SymbolKind.of(symbolKinds[symbol]);
+    }
+
+    // Declared data type, or TYPE for a class
+    public TokenKind typeOf(int symbol) {
+        return symbolTypes[symbol] < 0 ? null : TokenKind.of(symbolTypes[symbol]);
+    }
+
+    public int scopeOf(int symbol) {
+        return symbolScopes[symbol];
+    }
+
+    // The identifier node that declared the symbol
+    public int nodeOf(int symbol) {
+        return symbolNodes[symbol];
+    }
+
+    public int lineOf(int symbol) {
+        return symbolLines[symbol];
+    }
+
+    // Members of a class, or parameters of a method
+    public int innerScopeOf(int symbol) {
+        return innerScopes[symbol];
+    }
+
+    public void setInnerScope(int symbol, int scope) {
+        innerScopes[symbol] = scope;
+    }
+
+    // Symbols of a scope in declaration order: for (s = firstSymbol(scope); s != NONE; s = nextSymbol(s))
+    public int firstSymbol(int scope) {
+        return firstSymbols[scope];
+    }
+
+    public int nextSymbol(int symbol) {
+        return nextInScope[symbol];
+    }
+
+    public int scopeCount() {
+        return scopeCount;
+    }
+
+    public ScopeKind scopeKind(int scope) {
+        return ScopeKind.of(scopeKinds[scope]);
+    }
+
+    public int parentScope(int scope) {
+        return scopeParents[scope];
+    }
+
+    public int scopeNode(int scope) {
+        return scopeNodes[scope];
+    }
+
+    public int scopeSize(int scope) {
+        return scopeSizes[scope];
+    }
+}
@@ -0,0 +1,315 @@
+import java.util.*;
+
+// Parse tree kept in parallel arrays; nodes are ints and children are linked first-child/next-sibling
+public class SyntaxTree {
+    public static final int NONE = -1;
+
+    private byte[] kinds = new byte[1024];
+    private byte[] tokenKinds = new byte[1024];
+    private int[] tokens = new int[1024];
+    private int[] lines = new int[1024];
+    private int[] parents = new int[1024];
+    private int[] firstChildren = new int[1024];
+    private int[] lastChildren = new int[1024];
+    private int[] nextSiblings = new int[1024];
+    private int size = 0;
+
+    // Text of identifiers, constants and literals, copied so the tree outlives the token source
+    private char[] text = new char[4096];
+    private int[] textStarts = new int[1024];
+    private int[] textLengths = new int[1024];
+    private int textSize = 0;
+
+    // Adds a rule node as the last child of parent, which is NONE for the root
+    public int addNode(NodeKind kind, int parent, int token, int line) {
+        int node = newNode(kind, parent, token, line);
+        tokenKinds[node] = -1;
+        textStarts[node] = NONE;
+        return node;
+    }
+
+    // Adds a leaf for the consumed token at index; text is copied straight from the characters it was lexed from
+    public int addToken(int parent, TokenSource source, int token) {
+        TokenKind tokenKind = source.kind(token);
+        int node = newNode(NodeKind.TOKEN, parent, token, source.line(token));
+        tokenKinds[node] = (byte) tokenKind.ordinal();
+        if (tokenKind.getText() != null) {
+            textStarts[node] = NONE;
+        } else {
+            int length = source.length(token);
+            if (textSize + length > text.length) {
+                text = Arrays.copyOf(text, Math.max(textSize + length, text.length * 2));
+            }
+            System.arraycopy(source.source(token), source.start(token), text, textSize, length);
+            textStarts[node] = textSize;
+            textLengths[node] = length;
+            textSize += length;
+        }
+        return node;
+    }
+
+    private int newNode(NodeKind kind, int parent, int token, int line) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            tokenKinds = Arrays.copyOf(tokenKinds, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            textStarts = Arrays.copyOf(textStarts, capacity);
+            textLengths = Arrays.copyOf(textLengths, capacity);
+        }
+        int node = size++;
+        kinds[node] = (byte) kind.ordinal();
+        tokens[node] = token;
+        lines[node] = line;
+        parents[node] = parent;
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        if (parent != NONE) {
+            if (lastChildren[parent] == NONE) {
+                firstChildren[parent] = node;
+            } else {
+                nextSiblings[lastChildren[parent]] = node;
+            }
+            lastChildren[parent] = node;
+        }
+        return node;
+    }
+
+    // Drops every node added after the tree had newSize nodes, used when the parser backtracks
+    public void truncate(int newSize) {
+        while (size > newSize) {
+            int node = --size;
+            int parent = parents[node];
+            if (parent == NONE) continue;
+            if (firstChildren[parent] == node) {
+                firstChildren[parent] = NONE;
+                lastChildren[parent] = NONE;
+            } else {
+                int previous = firstChildren[parent];
+                while (nextSiblings[previous] != node) {
+                    previous = nextSiblings[previous];
+                }
+                nextSiblings[previous] = NONE;
+                lastChildren[parent] = previous;
+            }
+            if (textStarts[node] != NONE) {
+                textSize = textStarts[node];
+            }
+        }
+    }
+
+    // Appends every node of other; its top-level nodes become the last children of parent
+    public void appendTree(SyntaxTree other, int parent) {
+        int base = size;
+        for (int i = 0; i < other.size; i++) {
+            int otherParent = other.parents[i];
+            int node = newNode(NodeKind.of(other.kinds[i]), otherParent == NONE ? parent : otherParent + base,
+                    other.tokens[i], other.lines[i]);
+            tokenKinds[node] = other.tokenKinds[i];
+            textStarts[node] = NONE;
+            if (other.textStarts[i] != NONE) {
+                int length = other.textLengths[i];
+                if (textSize + length > text.length) {
+                    text = Arrays.copyOf(text, Math.max(textSize + length, text.length * 2));
+                }
+                System.arraycopy(other.text, other.textStarts[i], text, textSize, length);
+                textStarts[node] = textSize;
+                textLengths[node] = length;
+                textSize += length;
+            }
+        }
+    }
+
+    // Replaces the subtree at node with the whole of replacement, whose tokens are already numbered for the
+    // new source; nodes after the subtree move by tokenDelta tokens and lineDelta lines
+    public void replaceSubtree(int node, SyntaxTree replacement, int tokenDelta, int lineDelta) {
+        int end = subtreeEnd(node);
+        int count = replacement.size;
+        int nodeDelta = count - (end - node);
+        int parent = parents[node];
+        int nextSibling = shift(nextSiblings[node], end, nodeDelta);
+
+        int textFrom = textStartAtOrAfter(node);
+        int textTo = textStartAtOrAfter(end);
+        int textDelta = replacement.textSize - (textTo - textFrom);
+        if (textSize + textDelta > text.length) {
+            text = Arrays.copyOf(text, Math.max(textSize + textDelta, text.length * 2));
+        }
+        System.arraycopy(text, textTo, text, textTo + textDelta, textSize - textTo);
+        System.arraycopy(replacement.text, 0, text, textFrom, replacement.textSize);
+        textSize += textDelta;
+
+        int newSize = size + nodeDelta;
+        if (newSize > kinds.length) {
+            int capacity = Math.max(newSize, kinds.length * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            tokenKinds = Arrays.copyOf(tokenKinds, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            textStarts = Arrays.copyOf(textStarts, capacity);
+            textLengths = Arrays.copyOf(textLengths, capacity);
+        }
+        int tail = size - end;
+        int newEnd = end + nodeDelta;
+        System.arraycopy(kinds, end, kinds, newEnd, tail);
+        System.arraycopy(tokenKinds, end, tokenKinds, newEnd, tail);
+        System.arraycopy(tokens, end, tokens, newEnd, tail);
+        System.arraycopy(lines, end, lines, newEnd, tail);
+        System.arraycopy(parents, end, parents, newEnd, tail);
+        System.arraycopy(firstChildren, end, firstChildren, newEnd, tail);
+        System.arraycopy(lastChildren, end, lastChildren, newEnd, tail);
+        System.arraycopy(nextSiblings, end, nextSiblings, newEnd, tail);
+        System.arraycopy(textStarts, end, textStarts, newEnd, tail);
+        System.arraycopy(textLengths, end, textLengths, newEnd, tail);
+        size = newSize;
+
+        // Only the ancestors of node link past it from before it, and links into the old subtree only ever point
+        // at its root, which keeps its index; so besides them just the moved nodes are touched
+        for (int ancestor = parent; ancestor != NONE; ancestor = parents[ancestor]) {
+            lastChildren[ancestor] = shift(lastChildren[ancestor], end, nodeDelta);
+            nextSiblings[ancestor] = shift(nextSiblings[ancestor], end, nodeDelta);
+        }
+        for (int i = newEnd; i < size; i++) {
+            parents[i] = shift(parents[i], end, nodeDelta);
+            firstChildren[i] = shift(firstChildren[i], end, nodeDelta);
+            lastChildren[i] = shift(lastChildren[i], end, nodeDelta);
+            nextSiblings[i] = shift(nextSiblings[i], end, nodeDelta);
+            tokens[i] += tokenDelta;
+            lines[i] += lineDelta;
+            if (textStarts[i] != NONE) {
+                textStarts[i] += textDelta;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            int target = node + i;
+            kinds[target] = replacement.kinds[i];
+            tokenKinds[target] = replacement.tokenKinds[i];
+            tokens[target] = replacement.tokens[i];
+            lines[target] = replacement.lines[i];
+            parents[target] = offset(replacement.parents[i], node);
+            firstChildren[target] = offset(replacement.firstChildren[i], node);
+            lastChildren[target] = offset(replacement.lastChildren[i], node);
+            nextSiblings[target] = offset(replacement.nextSiblings[i], node);
+            textStarts[target] = offset(replacement.textStarts[i], textFrom);
+            textLengths[target] = replacement.textLengths[i];
+        }
+        parents[node] = parent;
+        nextSiblings[node] = nextSibling;
+    }
+
+    // First node where the trees differ in kind, token, line, parent or text, or NONE if they are the same
+    public int firstDifference(SyntaxTree other) {
+        for (int node = 0; node < Math.min(size, other.size); node++) {
+            if (kinds[node] != other.kinds[node] || tokenKinds[node] != other.tokenKinds[node]
+                    || tokens[node] != other.tokens[node] || lines[node] != other.lines[node]
+                    || parents[node] != other.parents[node] || !Objects.equals(text(node), other.text(node))) {
+                return node;
+            }
+        }
+        return size == other.size ? NONE : Math.min(size, other.size);
+    }
+
+    private static int shift(int node, int from, int delta) {
+        return node >= from ? node + delta : node;
+    }
+
+    private static int offset(int value, int base) {
+        return value == NONE ? NONE : value + base;
+    }
+
+    private int textStartAtOrAfter(int node) {
+        for (int i = node; i < size; i++) {
+            if (textStarts[i] != NONE) {
+                return textStarts[i];
+            }
+        }
+        return textSize;
+    }
+
+    // One past the last node of the subtree at node; a subtree is a contiguous run of nodes
+    public int subtreeEnd(int node) {
+        int last = node;
+        while (lastChildren[last] != NONE) {
+            last = lastChildren[last];
+        }
+        return last + 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int root() {
+        return size > 0 ? 0 : NONE;
+    }
+
+    public NodeKind kind(int node) {
+        return NodeKind.of(kinds[node]);
+    }
+
+    public int parent(int node) {
+        return parents[node];
+    }
+
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    // Index of the token the node starts at
+    public int token(int node) {
+        return tokens[node];
+    }
+
+    public int line(int node) {
+        return lines[node];
+    }
+
+    // Kind of the token of a TOKEN node, null for rule nodes
+    public TokenKind tokenKind(int node) {
+        return tokenKinds[node] < 0 ? null : TokenKind.of(tokenKinds[node]);
+    }
+
+    public String text(int node) {
+        if (textStarts[node] != NONE) {
+            return new String(text, textStarts[node], textLengths[node]);
+        }
+        TokenKind tokenKind = tokenKind(node);
+        return tokenKind != null ? tokenKind.getText() : null;
+    }
+
+    // Interned id of the node's text, read straight from the tree's text
+    public int intern(int node, NameTable names) {
+        if (textStarts[node] == NONE) {
+            return names.intern(text(node));
+        }
+        return names.intern(text, textStarts[node], textLengths[node]);
+    }
+
+    public boolean textEquals(int node, String other) {
+        if (textStarts[node] == NONE) {
+            return other.equals(text(node));
+        }
+        int length = textLengths[node];
+        if (length != other.length()) return false;
+        int start = textStarts[node];
+        for (int i = 0; i < length; i++) {
+            if (text[start + i] != other.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -1,12 +1,28 @@
 public class Token {
     private String text;
     private String type;
+    private TokenKind kind;
     private int line;
+    private int column;
 
     public Token(String text, String type, int line) {
+        this(text, type, line, 0);
+    }
+
+    public Token(String text, String type, int line, int column) {
         this.text = text;
         this.type = type;
+        this.kind = TokenKind.classify(type, text);
+        this.line = line;
+        this.column = column;
+    }
+
+    public Token(String text, TokenKind kind, int line, int column) {
+        this.text = text;
+        this.type = kind.getTypeName();
+        this.kind = kind;
         this.line = line;
+        this.column = column;
     }
 
     public String getText() {
@@ -17,10 +33,18 @@ public class Token {
         return type;
     }
 
+    public TokenKind getKind() {
+        return kind;
+    }
+
     public int getLine() {
         return line;
     }
 
+    public int getColumn() {
+        return column;
+    }
+
     @Override
     public String toString() {
         return "Line #: " + line + " Token Text: " + text + " Token Type: " + type;
@@ -0,0 +1,273 @@
+import java.util.*;
+
+public class TokenBuffer implements TokenSource {
+    // Shared single-character texts so punctuation never allocates
+    private static final String[] SYMBOL_TEXT = new String[128];
+
+    static {
+        for (char c = 0; c < SYMBOL_TEXT.length; c++) {
+            SYMBOL_TEXT[c] = String.valueOf(c).intern();
+        }
+    }
+
+    private byte[] kinds = new byte[1024];
+    private int[] starts = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] lines = new int[1024];
+    private int size = 0;
+
+    // One source per scanned file; tokens keep offsets into the source they came from
+    private char[][] sources = new char[4][];
+    private int[] sourceFirstToken = new int[4];
+    private int sourceCount = 0;
+
+    // Builds a buffer from plain Token objects, sharing the backing buffer of a TokenBuffer view
+    public static TokenBuffer fromTokens(List<Token> tokens) {
+        if (tokens instanceof TokenList) {
+            return ((TokenList) tokens).buffer();
+        }
+        StringBuilder text = new StringBuilder();
+        for (Token token : tokens) {
+            text.append(token.getText()).append('\n');
+        }
+        TokenBuffer buffer = new TokenBuffer();
+        buffer.beginSource(text.toString().toCharArray());
+        int offset = 0;
+        for (Token token : tokens) {
+            TokenKind kind = token.getKind();
+            if (kind == null) {
+                throw new IllegalArgumentException("Unknown token type: " + token.getType());
+            }
+            buffer.add(kind, offset, token.getText().length(), token.getLine());
+            offset += token.getText().length() + 1;
+        }
+        return buffer;
+    }
+
+    // Tokens added after this call take their text from the given characters
+    public void beginSource(char[] source) {
+        if (sourceCount == sources.length) {
+            sources = Arrays.copyOf(sources, sourceCount * 2);
+            sourceFirstToken = Arrays.copyOf(sourceFirstToken, sourceCount * 2);
+        }
+        sources[sourceCount] = source;
+        sourceFirstToken[sourceCount] = size;
+        sourceCount++;
+    }
+
+    // Points a single-source buffer at a new copy of its text, e.g. after the text was edited
+    public void setSource(char[] source) {
+        sources[sourceCount - 1] = source;
+    }
+
+    public void add(TokenKind kind, int start, int length, int line) {
+        ensureCapacity(size + 1);
+        kinds[size] = (byte) kind.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        size++;
+    }
+
+    // Appends all tokens of another buffer, keeping their sources
+    public void addAll(TokenBuffer other) {
+        ensureCapacity(size + other.size);
+        for (int s = 0; s < other.sourceCount; s++) {
+            int from = other.sourceFirstToken[s];
+            int to = s + 1 < other.sourceCount ? other.sourceFirstToken[s + 1] : other.size;
+            beginSource(other.sources[s]);
+            copy(other, from, this, size, to - from);
+            size += to - from;
+        }
+    }
+
+    // Replaces tokens [from, to) with the tokens of a buffer over the same source, then moves the
+    // tokens after them by the given offset and line deltas
+    public void replace(int from, int to, TokenBuffer replacement, int offsetDelta, int lineDelta) {
+        int tail = size - to;
+        int newSize = from + replacement.size + tail;
+        ensureCapacity(newSize);
+        copy(this, to, this, from + replacement.size, tail);
+        copy(replacement, 0, this, from, replacement.size);
+        size = newSize;
+        for (int i = from + replacement.size; i < size; i++) {
+            starts[i] += offsetDelta;
+            lines[i] += lineDelta;
+        }
+    }
+
+    // Index of the first token starting at or after offset in a single-source buffer
+    public int firstTokenAtOrAfter(int offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > kinds.length) {
+            capacity = Math.max(capacity, kinds.length * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+    }
+
+    private static void copy(TokenBuffer from, int fromIndex, TokenBuffer to, int toIndex, int count) {
+        System.arraycopy(from.kinds, fromIndex, to.kinds, toIndex, count);
+        System.arraycopy(from.starts, fromIndex, to.starts, toIndex, count);
+        System.arraycopy(from.lengths, fromIndex, to.lengths, toIndex, count);
+        System.arraycopy(from.lines, fromIndex, to.lines, toIndex, count);
+    }
+
+    // Drops the first count tokens, keeping the source that new tokens are added from
+    public void removeFirst(int count) {
+        copy(this, count, this, 0, size - count);
+        size -= count;
+        int dropped = 0;
+        while (dropped < sourceCount - 1 && sourceFirstToken[dropped + 1] <= count) {
+            dropped++;
+        }
+        System.arraycopy(sources, dropped, sources, 0, sourceCount - dropped);
+        System.arraycopy(sourceFirstToken, dropped, sourceFirstToken, 0, sourceCount - dropped);
+        Arrays.fill(sources, sourceCount - dropped, sourceCount, null);
+        sourceCount -= dropped;
+        for (int s = 0; s < sourceCount; s++) {
+            sourceFirstToken[s] = Math.max(0, sourceFirstToken[s] - count);
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        Arrays.fill(sources, 0, sourceCount, null);
+        sourceCount = 0;
+    }
+
+    @Override
+    public boolean ensure(int index) {
+        return index < size;
+    }
+
+    @Override
+    public void release(int index) {
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public TokenKind kind(int index) {
+        return TokenKind.of(kinds[index]);
+    }
+
+    @Override
+    public int start(int index) {
+        return starts[index];
+    }
+
+    @Override
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    @Override
+    public int line(int index) {
+        return lines[index];
+    }
+
+    public int column(int index) {
+        char[] source = source(index);
+        int start = starts[index];
+        int lineStart = start;
+        while (lineStart > 0 && source[lineStart - 1] != '\n' && source[lineStart - 1] != '\r') {
+            lineStart--;
+        }
+        return start - lineStart + 1;
+    }
+
+    // Token text is only materialized on request
+    @Override
+    public String text(int index) {
+        String fixedText = kind(index).getText();
+        if (fixedText != null) {
+            return fixedText;
+        }
+        char[] source = source(index);
+        if (lengths[index] == 1 && source[starts[index]] < SYMBOL_TEXT.length) {
+            return SYMBOL_TEXT[source[starts[index]]];
+        }
+        return new String(source, starts[index], lengths[index]);
+    }
+
+    public boolean textEquals(int index, String text) {
+        String fixedText = kind(index).getText();
+        if (fixedText != null) {
+            return fixedText.equals(text);
+        }
+        int length = lengths[index];
+        if (length != text.length()) return false;
+        char[] source = source(index);
+        int start = starts[index];
+        for (int i = 0; i < length; i++) {
+            if (source[start + i] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    public Token get(int index) {
+        return new Token(text(index), kind(index), lines[index], column(index));
+    }
+
+    // List view for code that still works with Token objects; tokens are created on access
+    public List<Token> asList() {
+        return new TokenList(this);
+    }
+
+    @Override
+    public char[] source(int index) {
+        int low = 0;
+        int high = sourceCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (sourceFirstToken[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return sources[low];
+    }
+
+    private static class TokenList extends AbstractList<Token> implements RandomAccess {
+        private final TokenBuffer buffer;
+
+        TokenList(TokenBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        TokenBuffer buffer() {
+            return buffer;
+        }
+
+        @Override
+        public Token get(int index) {
+            Objects.checkIndex(index, buffer.size);
+            return buffer.get(index);
+        }
+
+        @Override
+        public int size() {
+            return buffer.size;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+public enum TokenKind {
+    // Tokens whose text comes from the source
+    IDENTIFIER("Identifier", null),
+    CONSTANT("Constant", null),
+    STRING_LITERAL("String Literal", null),
+    CHARACTER_LITERAL("Character Literal", null),
+    START_SYMBOL("Start Symbol", null),
+    END_SYMBOL("End Symbol", null),
+
+    // Comments report a fixed marker text
+    COMMENT_START("Comment", "/< (Comment Start)"),
+    COMMENT_END("Comment", ">/ (Comment End)"),
+    LINE_COMMENT("Comment", "/* (Comment)"),
+
+    // Punctuation and operators
+    LEFT_BRACE("Braces", "{"),
+    RIGHT_BRACE("Braces", "}"),
+    LEFT_BRACKET("Braces", "["),
+    RIGHT_BRACKET("Braces", "]"),
+    LEFT_PAREN("Braces", "("),
+    RIGHT_PAREN("Braces", ")"),
+    PLUS("Arithmetic Operation", "+"),
+    MINUS("Arithmetic Operation", "-"),
+    STAR("Arithmetic Operation", "*"),
+    SLASH("Arithmetic Operation", "/"),
+    ASSIGN("Assignment Operator", "="),
+    EQUAL("Relational Operator", "=="),
+    NOT_EQUAL("Relational Operator", "!="),
+    LESS("Relational Operator", "<"),
+    LESS_EQUAL("Relational Operator", "<="),
+    GREATER("Relational Operator", ">"),
+    GREATER_EQUAL("Relational Operator", ">="),
+    AND("Logic Operator", "&&"),
+    OR("Logic Operator", "||"),
+    NOT("Logic Operator", "~"),
+    ARROW("Access Operator", "->"),
+    SEMICOLON("Semicolon", ";"),
+    COMMA("Comma", ","),
+
+    // Keywords
+    TYPE("Class", "Type"),
+    DERIVED_FROM("Inheritance", "DerivedFrom"),
+    TRUE_FOR("Condition", "TrueFor"),
+    ELSE("Condition", "Else"),
+    ITY("Integer", "Ity"),
+    SITY("SInteger", "Sity"),
+    CWQ("Character", "Cwq"),
+    CWQ_SEQUENCE("String", "CwqSequence"),
+    IFITY("Float", "Ifity"),
+    SIFITY("SFloat", "Sifity"),
+    VALUELESS("Void", "Valueless"),
+    LOGICAL("Boolean", "Logical"),
+    ENDTHIS("Break", "Endthis"),
+    HOWEVER("Loop", "However"),
+    WHEN("Loop", "When"),
+    RESPONDWITH("Return", "Respondwith"),
+    SRAP("Struct", "Srap"),
+    SCAN("Switch", "Scan"),
+    CONDITIONOF("Switch", "Conditionof"),
+    REQUIRE("Inclusion", "Require"),
+
+    // Reported by the parser once the token stream is exhausted
+    END_OF_FILE("END_OF_FILE", "EOF");
+
+    private static final TokenKind[] VALUES = values();
+
+    private final String typeName;
+    private final String text;
+
+    TokenKind(String typeName, String text) {
+        this.typeName = typeName;
+        this.text = text;
+    }
+
+    public static TokenKind of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    // Recovers the kind of a token that only carries its type name and text
+    public static TokenKind classify(String typeName, String text) {
+        for (TokenKind kind : VALUES) {
+            if (kind.typeName.equals(typeName) && (kind.text == null || kind.text.equals(text))) {
+                return kind;
+            }
+        }
+        return null;
+    }
+
+    // Type name shown in the scanner output
+    public String getTypeName() {
+        return typeName;
+    }
+
+    // Fixed text of the token, or null when the text comes from the source
+    public String getText() {
+        return text;
+    }
+
+    public boolean isComment() {
+        switch (this) {
+            case COMMENT_START:
+            case COMMENT_END:
+            case LINE_COMMENT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Ity, Sity, Cwq, CwqSequence, Ifity, Sifity, Valueless and Logical
+    public boolean isDataType() {
+        switch (this) {
+            case ITY:
+            case SITY:
+            case CWQ:
+            case CWQ_SEQUENCE:
+            case IFITY:
+            case SIFITY:
+            case VALUELESS:
+            case LOGICAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
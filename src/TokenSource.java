@@ -0,0 +1,24 @@
+// Tokens read by position; a source may produce them on demand and drop the ones already consumed
+public interface TokenSource {
+    // True if there is a token at index, producing tokens up to it when needed
+    boolean ensure(int index);
+
+    // Number of tokens produced so far
+    int size();
+
+    TokenKind kind(int index);
+
+    String text(int index);
+
+    // Characters the token at index was lexed from, and its range in them
+    char[] source(int index);
+
+    int start(int index);
+
+    int length(int index);
+
+    int line(int index);
+
+    // Tokens before index will not be read again
+    void release(int index);
+}
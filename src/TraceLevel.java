@@ -0,0 +1,6 @@
+// How much of the parse is passed on to the ParseListener
+public enum TraceLevel {
+    OFF,
+    ERRORS,
+    FULL
+}
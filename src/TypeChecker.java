@@ -0,0 +1,390 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Checks the types of assignments, Respondwith values, TrueFor/However conditions and operator operands.
+// Method bodies only depend on the symbols of the SemanticAnalyzer, so each group of methods is checked as a
+// fork/join task with its own error list; the lists are joined in source order, so no locks are needed.
+public class TypeChecker {
+    // Methods per task, so small methods do not each pay for a task
+    private static final int METHODS_PER_TASK = 8;
+    private static final byte UNKNOWN = -1;
+    // Returned by intConstant for text that is not an Ity value
+    static final long OUT_OF_RANGE = Long.MIN_VALUE;
+
+    private final SyntaxTree tree;
+    private final SemanticAnalyzer analyzer;
+    private final SymbolTable symbols;
+    // Type of every expression node; tasks only write the nodes of their own methods
+    private byte[] types;
+    private List<String> errors = new ArrayList<>();
+
+    // The analyzer must have run on the same tree
+    public TypeChecker(SyntaxTree tree, SemanticAnalyzer analyzer) {
+        this.tree = tree;
+        this.analyzer = analyzer;
+        this.symbols = analyzer.getSymbolTable();
+    }
+
+    public void check() {
+        types = new byte[tree.size()];
+        Arrays.fill(types, UNKNOWN);
+        int[] methods = methods();
+        errors = ForkJoinPool.commonPool().invoke(new CheckTask(methods, 0, methods.length));
+    }
+
+    // Method declarations of the class body in source order
+    private int[] methods() {
+        int[] methods = new int[16];
+        int count = 0;
+        int root = tree.root();
+        for (int child = root == SyntaxTree.NONE ? SyntaxTree.NONE : tree.firstChild(root);
+             child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) != NodeKind.CLASS_DECLARATION) continue;
+            for (int body = tree.firstChild(child); body != SyntaxTree.NONE; body = tree.nextSibling(body)) {
+                if (tree.kind(body) != NodeKind.CLASS_BODY) continue;
+                for (int member = tree.firstChild(body); member != SyntaxTree.NONE; member = tree.nextSibling(member)) {
+                    if (tree.kind(member) == NodeKind.METHOD_DECL) {
+                        if (count == methods.length) {
+                            methods = Arrays.copyOf(methods, count * 2);
+                        }
+                        methods[count++] = member;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(methods, count);
+    }
+
+    // Splits the methods in halves until a group is small enough, then checks it; left errors come first
+    private class CheckTask extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] methods;
+        private final int from;
+        private final int to;
+
+        CheckTask(int[] methods, int from, int to) {
+            this.methods = methods;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (to - from <= METHODS_PER_TASK) {
+                List<String> found = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    checkMethod(methods[i], found);
+                }
+                return found;
+            }
+            int middle = (from + to) >>> 1;
+            CheckTask left = new CheckTask(methods, from, middle);
+            left.fork();
+            List<String> right = new CheckTask(methods, middle, to).compute();
+            List<String> found = left.join();
+            found.addAll(right);
+            return found;
+        }
+    }
+
+    // Visits the method's nodes from last to first, which is children before parents in a preorder array, so
+    // operand types are known when their operator is checked and nesting depth does not matter
+    private void checkMethod(int method, List<String> found) {
+        int funcDecl = tree.firstChild(method);
+        TokenKind returnType = funcDecl == SyntaxTree.NONE ? null : dataType(funcDecl);
+        List<String> methodErrors = new ArrayList<>();
+        for (int node = tree.subtreeEnd(method) - 1; node > method; node--) {
+            switch (tree.kind(node)) {
+                case TOKEN:
+                    types[node] = typeCode(operandType(node, methodErrors));
+                    break;
+                case EXPRESSION:
+                case TERM:
+                    types[node] = typeCode(arithmetic(node, methodErrors));
+                    break;
+                case CONDITION:
+                    types[node] = typeCode(comparison(node, methodErrors));
+                    break;
+                case CONDITION_EXPRESSION:
+                    types[node] = typeCode(logical(node, methodErrors));
+                    break;
+                case ASSIGNMENT:
+                    assignment(node, methodErrors);
+                    break;
+                case RESPONDWITH_STMT:
+                    respondwith(node, returnType, methodErrors);
+                    break;
+                case TRUE_FOR_STMT:
+                    condition(node, "TrueFor", methodErrors);
+                    break;
+                case HOWEVER_STMT:
+                    condition(node, "However", methodErrors);
+                    break;
+                default:
+                    break;
+            }
+        }
+        // Found last to first
+        Collections.reverse(methodErrors);
+        found.addAll(methodErrors);
+    }
+
+    // Identifiers take the type of their variable; constants with a dot are Ifity, other constants Ity
+    private TokenKind operandType(int node, List<String> found) {
+        TokenKind kind = tree.tokenKind(node);
+        if (kind == TokenKind.IDENTIFIER) {
+            int symbol = analyzer.symbolAt(node);
+            return symbol != SymbolTable.NONE && symbols.kindOf(symbol).isVariable() ? symbols.typeOf(symbol) : null;
+        } else if (kind == TokenKind.CONSTANT) {
+            return constantType(node, found);
+        } else if (kind == TokenKind.STRING_LITERAL) {
+            return TokenKind.CWQ_SEQUENCE;
+        } else if (kind == TokenKind.CHARACTER_LITERAL) {
+            return TokenKind.CWQ;
+        }
+        return null;
+    }
+
+    // Integer registers are 32 bits, so an integer constant that does not fit in Ity is an error rather than
+    // being cut; the lexer also lets through numbers with several dots
+    private TokenKind constantType(int node, List<String> found) {
+        String text = tree.text(node);
+        if (text.indexOf('.') >= 0) {
+            if (Double.isNaN(floatConstant(text))) {
+                found.add(error(tree.line(node), "Malformed constant " + text));
+                return null;
+            }
+            return TokenKind.IFITY;
+        }
+        if (intConstant(text) == OUT_OF_RANGE) {
+            found.add(error(tree.line(node), "Constant " + text + " does not fit in Ity"));
+            return null;
+        }
+        return TokenKind.ITY;
+    }
+
+    // Value of an integer constant, or OUT_OF_RANGE if it is larger than an Ity holds
+    static long intConstant(String text) {
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int digit = Character.digit(text.charAt(i), 10);
+            if (digit < 0) {
+                return OUT_OF_RANGE;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                return OUT_OF_RANGE;
+            }
+        }
+        return value;
+    }
+
+    // Value of a constant with a dot, or NaN if it is not a number, which no constant can spell
+    static double floatConstant(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // 36. Expression -> Term | Expression AddOp Term      38. Term -> Factor | Term MulOp Factor
+    // Operands must be numeric; mixed operands give Ifity if any is a float and Ity otherwise
+    private TokenKind arithmetic(int node, List<String> found) {
+        TokenKind operator = null;
+        TokenKind result = null;
+        boolean first = true;
+        boolean known = true;
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            TokenKind kind = tree.tokenKind(child);
+            if (kind == TokenKind.PLUS || kind == TokenKind.MINUS || kind == TokenKind.STAR || kind == TokenKind.SLASH) {
+                operator = kind;
+                continue;
+            }
+            if (kind == TokenKind.LEFT_PAREN || kind == TokenKind.RIGHT_PAREN) continue;
+            TokenKind type = typeOf(child);
+            if (type == null) {
+                known = false;
+            } else if (first) {
+                result = type;
+            } else if (type != result) {
+                result = isFloat(type) || isFloat(result) ? TokenKind.IFITY : TokenKind.ITY;
+            }
+            first = false;
+        }
+        if (operator == null) {
+            return known ? result : null;
+        }
+
+        // With an operator every known operand must be numeric
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            TokenKind type = typeOf(child);
+            if (type != null && !isNumeric(type)) {
+                found.add(error(tree.line(child), "Operator " + operator.getText() + " needs numeric operands, found "
+                        + type.getText()));
+                known = false;
+            }
+        }
+        return known ? result : null;
+    }
+
+    // 34. Condition -> Expression ComparisonOp Expression
+    // Numbers compare with numbers; other types only with themselves, and only Cwq is ordered
+    private TokenKind comparison(int node, List<String> found) {
+        TokenKind left = null;
+        TokenKind right = null;
+        TokenKind operator = null;
+        int count = 0;
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) == NodeKind.TOKEN && !isOperand(tree.tokenKind(child))) {
+                operator = tree.tokenKind(child);
+            } else if (count++ == 0) {
+                left = typeOf(child);
+            } else {
+                right = typeOf(child);
+            }
+        }
+        if (left != null && right != null && operator != null) {
+            boolean equality = operator == TokenKind.EQUAL || operator == TokenKind.NOT_EQUAL;
+            boolean comparable = isNumeric(left) && isNumeric(right)
+                    || left == right && (equality || left == TokenKind.CWQ);
+            if (!comparable) {
+                found.add(error(tree.line(node), "Cannot compare " + left.getText() + " with " + right.getText()
+                        + " using " + operator.getText()));
+            }
+        }
+        return TokenKind.LOGICAL;
+    }
+
+    // 32. ConditionExpression -> Condition | Condition LogicalOp Condition
+    private TokenKind logical(int node, List<String> found) {
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            TokenKind type = typeOf(child);
+            if (tree.kind(child) != NodeKind.TOKEN && type != null && type != TokenKind.LOGICAL) {
+                found.add(error(tree.line(child), "Logical operator needs Logical operands, found " + type.getText()));
+            }
+        }
+        return TokenKind.LOGICAL;
+    }
+
+    // 18. Assignment -> ID = Expression ;
+    private void assignment(int node, List<String> found) {
+        int target = tree.firstChild(node);
+        if (target == SyntaxTree.NONE || tree.tokenKind(target) != TokenKind.IDENTIFIER) return;
+        int value = valueAfter(tree.nextSibling(target));
+        TokenKind targetType = typeOf(target);
+        TokenKind valueType = value == SyntaxTree.NONE ? null : typeOf(value);
+        if (!assignable(targetType, valueType)) {
+            found.add(error(tree.line(node), "Cannot assign " + valueType.getText() + " to '" + tree.text(target)
+                    + "' of type " + targetType.getText()));
+        }
+    }
+
+    // 27. RespondwithStmt -> Respondwith Expression ; | Respondwith ID ;
+    // The grammar has no Respondwith without a value, so a Valueless method may respond with any and drops it
+    private void respondwith(int node, TokenKind returnType, List<String> found) {
+        int value = valueAfter(tree.firstChild(node));
+        if (value == SyntaxTree.NONE || returnType == null) return;
+        TokenKind valueType = typeOf(value);
+        if (returnType != TokenKind.VALUELESS && !assignable(returnType, valueType)) {
+            found.add(error(tree.line(node), "Cannot respond with " + valueType.getText() + " from a method of type "
+                    + returnType.getText()));
+        }
+    }
+
+    // The condition of TrueFor and However must be Logical
+    private void condition(int node, String statement, List<String> found) {
+        for (int child = tree.firstChild(node); child != SyntaxTree.NONE; child = tree.nextSibling(child)) {
+            if (tree.kind(child) == NodeKind.CONDITION_EXPRESSION) {
+                TokenKind type = typeOf(child);
+                if (type != null && type != TokenKind.LOGICAL) {
+                    found.add(error(tree.line(child), statement + " condition must be Logical, found " + type.getText()));
+                }
+                return;
+            }
+        }
+    }
+
+    // First operand or expression node from node on, skipping the = or keyword before it
+    private int valueAfter(int node) {
+        for (; node != SyntaxTree.NONE; node = tree.nextSibling(node)) {
+            if (tree.kind(node) != NodeKind.TOKEN || isOperand(tree.tokenKind(node))) {
+                return node;
+            }
+            if (tree.tokenKind(node) == TokenKind.SEMICOLON) break;
+        }
+        return SyntaxTree.NONE;
+    }
+
+    // Numbers widen to any number type except a float into an integer; other types only match themselves
+    private static boolean assignable(TokenKind target, TokenKind value) {
+        if (target == null || value == null || target == value) return true;
+        return isNumeric(target) && isNumeric(value) && (isFloat(target) || !isFloat(value));
+    }
+
+    private static boolean isNumeric(TokenKind type) {
+        return type == TokenKind.ITY || type == TokenKind.SITY || isFloat(type);
+    }
+
+    private static boolean isFloat(TokenKind type) {
+        return type == TokenKind.IFITY || type == TokenKind.SIFITY;
+    }
+
+    private static boolean isOperand(TokenKind kind) {
+        return kind == TokenKind.IDENTIFIER || kind == TokenKind.CONSTANT || kind == TokenKind.STRING_LITERAL
+                || kind == TokenKind.CHARACTER_LITERAL;
+    }
+
+    private TokenKind typeOf(int node) {
+        return types[node] == UNKNOWN ? null : TokenKind.of(types[node]);
+    }
+
+    private static byte typeCode(TokenKind type) {
+        return type == null ? UNKNOWN : (byte) type.ordinal();
+    }
+
+    // Declared type of a declaration node, or null if the parser did not get one
+    private TokenKind dataType(int node) {
+        int first = tree.firstChild(node);
+        if (first == SyntaxTree.NONE || tree.tokenKind(first) == null || !tree.tokenKind(first).isDataType()) {
+            return null;
+        }
+        return tree.tokenKind(first);
+    }
+
+    private static String error(int line, String message) {
+        return "Line #: " + line + " Type Error: " + message;
+    }
+
+    // Type of an expression node after check(), or null if unknown
+    public TokenKind expressionType(int node) {
+        return typeOf(node);
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public int getErrorCount() {
+        return errors.size();
+    }
+
+    public String getTypeOutput() {
+        StringBuilder output = new StringBuilder();
+        try {
+            writeTypeOutput(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
+    }
+
+    public void writeTypeOutput(Appendable out) throws IOException {
+        for (String error : errors) {
+            out.append(error).append("\n");
+        }
+        out.append("Total NO of type errors: ").append(String.valueOf(errors.size()));
+    }
+}
@@ -0,0 +1,361 @@
+import java.lang.invoke.*;
+import java.util.*;
+
+// Runs Bytecode. Every register is a long slot of a frame on one value stack allocated up front: Ity and other
+// integers as 32-bit values, Ifity as the raw bits of a double, Logical as 0 or 1 and strings as their pool
+// index, so nothing is boxed. Calls push a frame above the caller's and a record on a call stack, so the
+// dispatch loop never recurses. With a compile threshold set, the class is handed to the JitCompiler once one
+// of its functions has been called that often, and calls from then on run the JVM bytecode instead.
+public class VirtualMachine {
+    public static final int DEFAULT_STACK_SIZE = 1 << 20;
+    public static final int DEFAULT_MAX_DEPTH = 1 << 16;
+    public static final int NO_JIT = -1;
+
+    private final Bytecode bytecode;
+    private final long[] stack;
+    // Return offset, frame base, function and result register of each caller
+    private final int[] calls;
+    private final long[] fields;
+    private long instructionCount;
+
+    private int compileThreshold = NO_JIT;
+    private final int[] invocations;
+    // Entry of each compiled function, null until the class is compiled
+    private MethodHandle[] compiled;
+    private String compileFailure;
+
+    public VirtualMachine(Bytecode bytecode) {
+        this(bytecode, DEFAULT_STACK_SIZE, DEFAULT_MAX_DEPTH);
+    }
+
+    public VirtualMachine(Bytecode bytecode, int stackSize, int maxDepth) {
+        this.bytecode = bytecode;
+        this.stack = new long[stackSize];
+        this.calls = new int[maxDepth * 4];
+        this.fields = new long[bytecode.getIr().fieldCount()];
+        this.invocations = new int[bytecode.functionCount()];
+    }
+
+    // The call that brings a function to threshold calls runs compiled, so 0 and 1 compile before anything runs
+    public void setCompileThreshold(int threshold) {
+        this.compileThreshold = threshold;
+    }
+
+    public long invoke(String name, long... arguments) {
+        int function = bytecode.getIr().function(name);
+        if (function == IrCode.NONE) {
+            throw new ExecutionError("No method named '" + name + "'");
+        }
+        return invoke(function, arguments);
+    }
+
+    // Runs the function and returns its result as a raw slot value, 0 for a Valueless method
+    public long invoke(int function, long... arguments) {
+        IrCode ir = bytecode.getIr();
+        if (arguments.length != ir.parameterCount(function)) {
+            throw new ExecutionError("'" + ir.functionName(function) + "' takes " + ir.parameterCount(function)
+                    + " arguments, not " + arguments.length);
+        }
+        int frameSize = enter(function, 0);
+        System.arraycopy(arguments, 0, stack, 0, arguments.length);
+        Arrays.fill(stack, arguments.length, frameSize, 0);
+        if (compileThreshold != NO_JIT && runsCompiled(function)) {
+            return callCompiled(function, 0);
+        }
+        return run(function);
+    }
+
+    private long run(int function) {
+        final int[] code = bytecode.code();
+        final long[] constants = bytecode.constants();
+        final long[] stack = this.stack;
+        final long[] fields = this.fields;
+        int pc = bytecode.entry(function);
+        int fp = 0;
+        int frameSize = bytecode.frameSize(function);
+        int depth = 0;
+        long count = 0;
+        try {
+            while (true) {
+                count++;
+                switch (code[pc]) {
+                    case Bytecode.CONST:
+                        stack[fp + code[pc + 1]] = constants[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case Bytecode.MOVE:
+                        stack[fp + code[pc + 1]] = stack[fp + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case Bytecode.LOAD_FIELD:
+                        stack[fp + code[pc + 1]] = fields[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case Bytecode.STORE_FIELD:
+                        fields[code[pc + 1]] = stack[fp + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case Bytecode.ADD:
+                        stack[fp + code[pc + 1]] = (int) (stack[fp + code[pc + 2]] + stack[fp + code[pc + 3]]);
+                        pc += 4;
+                        break;
+                    case Bytecode.SUB:
+                        stack[fp + code[pc + 1]] = (int) (stack[fp + code[pc + 2]] - stack[fp + code[pc + 3]]);
+                        pc += 4;
+                        break;
+                    case Bytecode.MUL:
+                        stack[fp + code[pc + 1]] = (int) stack[fp + code[pc + 2]] * (int) stack[fp + code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case Bytecode.DIV: {
+                        int divisor = (int) stack[fp + code[pc + 3]];
+                        if (divisor == 0) {
+                            throw new ExecutionError("Division by zero in '" + functionAt(pc) + "'");
+                        }
+                        stack[fp + code[pc + 1]] = (int) stack[fp + code[pc + 2]] / divisor;
+                        pc += 4;
+                        break;
+                    }
+                    case Bytecode.FADD:
+                        stack[fp + code[pc + 1]] = Double.doubleToRawLongBits(
+                                Double.longBitsToDouble(stack[fp + code[pc + 2]])
+                                        + Double.longBitsToDouble(stack[fp + code[pc + 3]]));
+                        pc += 4;
+                        break;
+                    case Bytecode.FSUB:
+                        stack[fp + code[pc + 1]] = Double.doubleToRawLongBits(
+                                Double.longBitsToDouble(stack[fp + code[pc + 2]])
+                                        - Double.longBitsToDouble(stack[fp + code[pc + 3]]));
+                        pc += 4;
+                        break;
+                    case Bytecode.FMUL:
+                        stack[fp + code[pc + 1]] = Double.doubleToRawLongBits(
+                                Double.longBitsToDouble(stack[fp + code[pc + 2]])
+                                        * Double.longBitsToDouble(stack[fp + code[pc + 3]]));
+                        pc += 4;
+                        break;
+                    case Bytecode.FDIV:
+                        stack[fp + code[pc + 1]] = Double.doubleToRawLongBits(
+                                Double.longBitsToDouble(stack[fp + code[pc + 2]])
+                                        / Double.longBitsToDouble(stack[fp + code[pc + 3]]));
+                        pc += 4;
+                        break;
+                    case Bytecode.EQ:
+                    case Bytecode.NE:
+                    case Bytecode.LT:
+                    case Bytecode.LE:
+                    case Bytecode.GT:
+                    case Bytecode.GE:
+                    case Bytecode.FEQ:
+                    case Bytecode.FNE:
+                    case Bytecode.FLT:
+                    case Bytecode.FLE:
+                    case Bytecode.FGT:
+                    case Bytecode.FGE:
+                        stack[fp + code[pc + 1]] = compare(code[pc] - Bytecode.EQ,
+                                stack[fp + code[pc + 2]], stack[fp + code[pc + 3]]) ? 1 : 0;
+                        pc += 4;
+                        break;
+                    case Bytecode.AND:
+                        stack[fp + code[pc + 1]] =
+                                stack[fp + code[pc + 2]] != 0 && stack[fp + code[pc + 3]] != 0 ? 1 : 0;
+                        pc += 4;
+                        break;
+                    case Bytecode.OR:
+                        stack[fp + code[pc + 1]] =
+                                stack[fp + code[pc + 2]] != 0 || stack[fp + code[pc + 3]] != 0 ? 1 : 0;
+                        pc += 4;
+                        break;
+                    case Bytecode.XOR:
+                        stack[fp + code[pc + 1]] =
+                                (stack[fp + code[pc + 2]] != 0) != (stack[fp + code[pc + 3]] != 0) ? 1 : 0;
+                        pc += 4;
+                        break;
+                    case Bytecode.INT_TO_FLOAT:
+                        stack[fp + code[pc + 1]] = Double.doubleToRawLongBits(stack[fp + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case Bytecode.JUMP:
+                        pc = code[pc + 1];
+                        break;
+                    case Bytecode.JUMP_IF_FALSE:
+                        pc = stack[fp + code[pc + 1]] == 0 ? code[pc + 2] : pc + 3;
+                        break;
+                    case Bytecode.JUMP_UNLESS_LT:
+                        // The usual loop test gets its own case
+                        pc = stack[fp + code[pc + 1]] < stack[fp + code[pc + 2]] ? pc + 4 : code[pc + 3];
+                        break;
+                    case Bytecode.JUMP_UNLESS_EQ:
+                    case Bytecode.JUMP_UNLESS_NE:
+                    case Bytecode.JUMP_UNLESS_LE:
+                    case Bytecode.JUMP_UNLESS_GT:
+                    case Bytecode.JUMP_UNLESS_GE:
+                    case Bytecode.JUMP_UNLESS_FEQ:
+                    case Bytecode.JUMP_UNLESS_FNE:
+                    case Bytecode.JUMP_UNLESS_FLT:
+                    case Bytecode.JUMP_UNLESS_FLE:
+                    case Bytecode.JUMP_UNLESS_FGT:
+                    case Bytecode.JUMP_UNLESS_FGE:
+                        pc = compare(code[pc] - Bytecode.JUMP_UNLESS_EQ,
+                                stack[fp + code[pc + 1]], stack[fp + code[pc + 2]]) ? pc + 4 : code[pc + 3];
+                        break;
+                    case Bytecode.CALL: {
+                        int callee = code[pc + 2];
+                        int argumentCount = code[pc + 3];
+                        if (depth * 4 == calls.length) {
+                            throw new ExecutionError("Stack overflow calling '" + name(callee) + "'");
+                        }
+                        int base = fp + frameSize;
+                        int calleeSize = enter(callee, base);
+                        for (int i = 0; i < argumentCount; i++) {
+                            stack[base + i] = stack[fp + code[pc + 4 + i]];
+                        }
+                        Arrays.fill(stack, base + argumentCount, base + calleeSize, 0);
+                        if (compileThreshold != NO_JIT && runsCompiled(callee)) {
+                            long result = callCompiled(callee, base);
+                            if (code[pc + 1] != Bytecode.NONE) {
+                                stack[fp + code[pc + 1]] = result;
+                            }
+                            pc += 4 + argumentCount;
+                            break;
+                        }
+                        calls[depth * 4] = pc + 4 + argumentCount;
+                        calls[depth * 4 + 1] = fp;
+                        calls[depth * 4 + 2] = frameSize;
+                        calls[depth * 4 + 3] = code[pc + 1];
+                        depth++;
+                        fp = base;
+                        frameSize = calleeSize;
+                        pc = bytecode.entry(callee);
+                        break;
+                    }
+                    case Bytecode.RETURN:
+                    case Bytecode.RETURN_VOID: {
+                        long result = code[pc] == Bytecode.RETURN ? stack[fp + code[pc + 1]] : 0;
+                        if (depth == 0) {
+                            return result;
+                        }
+                        depth--;
+                        pc = calls[depth * 4];
+                        fp = calls[depth * 4 + 1];
+                        frameSize = calls[depth * 4 + 2];
+                        int dst = calls[depth * 4 + 3];
+                        if (dst != Bytecode.NONE) {
+                            stack[fp + dst] = result;
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("Unknown opcode " + code[pc] + " at " + pc);
+                }
+            }
+        } finally {
+            instructionCount += count;
+        }
+    }
+
+    // Counts a call of the function, compiling the class when it gets hot, and says whether to run it compiled
+    private boolean runsCompiled(int function) {
+        if (compiled == null) {
+            if (++invocations[function] < compileThreshold) {
+                return false;
+            }
+            try {
+                compiled = JitCompiler.compile(bytecode);
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                // The interpreter runs everything the compiler cannot
+                compileFailure = e.toString();
+                compileThreshold = NO_JIT;
+                return false;
+            }
+        }
+        return compiled[function] != null;
+    }
+
+    // Runs a compiled function on the arguments at stack[base] on
+    private long callCompiled(int function, int base) {
+        try {
+            return (long) compiled[function].invokeExact(fields, stack, base);
+        } catch (StackOverflowError e) {
+            throw JitCompiler.stackOverflow(name(function));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Comparison number n in the order EQ, NE, LT, LE, GT, GE, then the same on floats
+    private static boolean compare(int n, long a, long b) {
+        switch (n) {
+            case 0: return a == b;
+            case 1: return a != b;
+            case 2: return a < b;
+            case 3: return a <= b;
+            case 4: return a > b;
+            case 5: return a >= b;
+            case 6: return Double.longBitsToDouble(a) == Double.longBitsToDouble(b);
+            case 7: return Double.longBitsToDouble(a) != Double.longBitsToDouble(b);
+            case 8: return Double.longBitsToDouble(a) < Double.longBitsToDouble(b);
+            case 9: return Double.longBitsToDouble(a) <= Double.longBitsToDouble(b);
+            case 10: return Double.longBitsToDouble(a) > Double.longBitsToDouble(b);
+            default: return Double.longBitsToDouble(a) >= Double.longBitsToDouble(b);
+        }
+    }
+
+    // Checks the function can run with its frame at base and returns the frame size
+    private int enter(int function, int base) {
+        if (bytecode.entry(function) == Bytecode.NONE) {
+            throw new ExecutionError("'" + name(function) + "' is declared without a body");
+        }
+        int frameSize = bytecode.frameSize(function);
+        if (base + frameSize > stack.length) {
+            throw new ExecutionError("Stack overflow calling '" + name(function) + "'");
+        }
+        return frameSize;
+    }
+
+    private String name(int function) {
+        return bytecode.getIr().functionName(function);
+    }
+
+    // Name of the function whose code holds offset, for error messages
+    private String functionAt(int offset) {
+        int found = 0;
+        int foundEntry = Bytecode.NONE;
+        for (int function = 0; function < bytecode.functionCount(); function++) {
+            int entry = bytecode.entry(function);
+            if (entry != Bytecode.NONE && entry <= offset && entry > foundEntry) {
+                found = function;
+                foundEntry = entry;
+            }
+        }
+        return name(found);
+    }
+
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    // Why the JitCompiler could not compile the class, or null
+    public String getCompileFailure() {
+        return compileFailure;
+    }
+
+    public long getField(int field) {
+        return fields[field];
+    }
+
+    public void setField(int field, long value) {
+        fields[field] = value;
+    }
+
+    // Instructions interpreted by every invoke so far; compiled code does not count its own
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    public Bytecode getBytecode() {
+        return bytecode;
+    }
+}